@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.deployment;
+
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.eviction.EvictionStrategy;
+import org.jboss.as.capedwarf.services.CacheOverride;
+import org.jboss.capedwarf.shared.config.CacheName;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Parse cache overrides from capedwarf-web.xml.
+ *
+ * <pre>
+ * &lt;caches&gt;
+ *   &lt;cache name="memcache"&gt;
+ *     &lt;eviction strategy="LIRS" max-entries="500000"/&gt;
+ *     &lt;expiration lifespan="-1" max-idle="3600000"/&gt;
+ *     &lt;store-as-binary&gt;true&lt;/store-as-binary&gt;
+ *     &lt;mode&gt;DIST_ASYNC&lt;/mode&gt;
+ *   &lt;/cache&gt;
+ * &lt;/caches&gt;
+ * </pre>
+ *
+ * The descriptor comes from the app, so DTDs and external entities are rejected.
+ * Only the caches an app uses directly can be overridden, and eviction must stay bounded.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+final class CacheOverridesParser {
+    /**
+     * Caches backing app facing APIs; data, metadata, dist and datastore versions are internal.
+     */
+    static final Set<CacheName> OVERRIDABLE = EnumSet.of(CacheName.DEFAULT, CacheName.SEARCH, CacheName.PROSPECTIVE_SEARCH, CacheName.TASKS, CacheName.LOGS, CacheName.CHANNEL, CacheName.MEMCACHE);
+
+    private CacheOverridesParser() {
+    }
+
+    static Map<CacheName, CacheOverride> parse(InputStream is) throws Exception {
+        final Map<CacheName, CacheOverride> overrides = new HashMap<>();
+        if (is == null) {
+            return overrides;
+        }
+
+        final Document document = newDocumentBuilder().parse(is);
+        final NodeList caches = document.getDocumentElement().getElementsByTagName("caches");
+        for (int i = 0; i < caches.getLength(); i++) {
+            final NodeList list = ((Element) caches.item(i)).getElementsByTagName("cache");
+            for (int j = 0; j < list.getLength(); j++) {
+                final Element cache = (Element) list.item(j);
+                final CacheName name = toCacheName(cache.getAttribute("name"));
+                if (OVERRIDABLE.contains(name) == false) {
+                    throw new IllegalArgumentException("Cache cannot be overridden: " + name.getName());
+                }
+                overrides.put(name, parseCache(cache));
+            }
+        }
+        return overrides;
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+        factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        return factory.newDocumentBuilder();
+    }
+
+    private static CacheOverride parseCache(Element cache) {
+        final CacheOverride override = new CacheOverride();
+        final Element eviction = getChild(cache, "eviction");
+        if (eviction != null) {
+            if (eviction.hasAttribute("max-entries")) {
+                final int maxEntries = Integer.parseInt(eviction.getAttribute("max-entries").trim());
+                if (maxEntries <= 0) {
+                    throw new IllegalArgumentException("Unbounded eviction max-entries: " + maxEntries);
+                }
+                override.setMaxEntries(maxEntries);
+            }
+            if (eviction.hasAttribute("strategy")) {
+                final EvictionStrategy strategy = EvictionStrategy.valueOf(toEnumName(eviction.getAttribute("strategy")));
+                if (strategy == EvictionStrategy.NONE) {
+                    throw new IllegalArgumentException("Eviction cannot be disabled: " + strategy);
+                }
+                override.setEvictionStrategy(strategy);
+            }
+        }
+        final Element expiration = getChild(cache, "expiration");
+        if (expiration != null) {
+            if (expiration.hasAttribute("lifespan")) {
+                override.setLifespan(Long.parseLong(expiration.getAttribute("lifespan").trim()));
+            }
+            if (expiration.hasAttribute("max-idle")) {
+                override.setMaxIdle(Long.parseLong(expiration.getAttribute("max-idle").trim()));
+            }
+        }
+        final Element storeAsBinary = getChild(cache, "store-as-binary");
+        if (storeAsBinary != null) {
+            override.setStoreAsBinary(Boolean.parseBoolean(storeAsBinary.getTextContent().trim()));
+        }
+        final Element mode = getChild(cache, "mode");
+        if (mode != null) {
+            override.setCacheMode(CacheMode.valueOf(toEnumName(mode.getTextContent())));
+        }
+        return override;
+    }
+
+    private static Element getChild(Element parent, String name) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node node = children.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static String toEnumName(String value) {
+        return value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_');
+    }
+
+    private static CacheName toCacheName(String name) {
+        for (CacheName cn : CacheName.values()) {
+            if (cn.getName().equals(name)) {
+                return cn;
+            }
+        }
+        throw new IllegalArgumentException("No such cache: " + name);
+    }
+}
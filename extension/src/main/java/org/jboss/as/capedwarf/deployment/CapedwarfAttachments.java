@@ -25,6 +25,7 @@ package org.jboss.as.capedwarf.deployment;
 import java.util.Map;
 
 import org.jboss.as.capedwarf.services.CacheConfig;
+import org.jboss.as.capedwarf.services.CacheOverride;
 import org.jboss.as.capedwarf.services.ServerInstanceInfo;
 import org.jboss.as.server.deployment.AttachmentKey;
 import org.jboss.as.server.deployment.AttachmentList;
@@ -55,6 +56,7 @@ final class CapedwarfAttachments {
     static final AttachmentKey<AttachmentList<IndexesXml>> INDEXES_LIST = AttachmentKey.createList(IndexesXml.class);
     // cache
     static final AttachmentKey<Map<CacheName, CacheConfig>> CONFIGS = AttachmentKey.create(Map.class);
+    static final AttachmentKey<Map<CacheName, CacheOverride>> CACHE_OVERRIDES = AttachmentKey.create(Map.class);
     // instance info
     static final AttachmentKey<ServerInstanceInfo> INSTANCE_INFO = AttachmentKey.create(ServerInstanceInfo.class);
 }
@@ -38,6 +38,16 @@ import org.jboss.capedwarf.shared.config.CacheName;
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class CapedwarfCacheEntriesTopProcessor extends CapedwarfTopDeploymentUnitProcessor {
+    private final long memcacheOffHeapSize;
+
+    public CapedwarfCacheEntriesTopProcessor() {
+        this(0);
+    }
+
+    public CapedwarfCacheEntriesTopProcessor(long memcacheOffHeapSize) {
+        this.memcacheOffHeapSize = memcacheOffHeapSize;
+    }
+
     protected void doDeploy(DeploymentPhaseContext phaseContext) throws DeploymentUnitProcessingException {
         Map<CacheName, CacheConfig> configs = new ConcurrentHashMap<>();
 
@@ -47,6 +57,7 @@ public class CapedwarfCacheEntriesTopProcessor extends CapedwarfTopDeploymentUni
         configs.put(CacheName.TASKS, CacheConfigs.createTasksConfig());
         configs.put(CacheName.LOGS, CacheConfigs.createLogsConfig());
         configs.put(CacheName.CHANNEL, CacheConfigs.createChannelConfig());
+        configs.put(CacheName.MEMCACHE, CacheConfigs.createMemcacheConfig(memcacheOffHeapSize));
 
         final DeploymentUnit unit = phaseContext.getDeploymentUnit();
         unit.putAttachment(CapedwarfAttachments.CONFIGS, configs);
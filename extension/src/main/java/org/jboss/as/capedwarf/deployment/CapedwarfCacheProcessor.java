@@ -27,17 +27,26 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.infinispan.Cache;
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.manager.EmbeddedCacheManager;
+import org.jboss.as.capedwarf.services.AbstractConfigurationCallback;
 import org.jboss.as.capedwarf.services.BasicConfigurationCallback;
+import org.jboss.as.capedwarf.services.CacheActivation;
 import org.jboss.as.capedwarf.services.CacheConfig;
 import org.jboss.as.capedwarf.services.CacheLifecycleService;
+import org.jboss.as.capedwarf.services.CacheOverride;
+import org.jboss.as.capedwarf.services.CacheStartExecutorService;
 import org.jboss.as.capedwarf.services.ConfigurationCallback;
 import org.jboss.as.capedwarf.services.DatastoreConfigurationCallback;
+import org.jboss.as.capedwarf.services.DatastoreSharding;
 import org.jboss.as.capedwarf.services.DatastoreVersionsConfigurationCallback;
+import org.jboss.as.capedwarf.services.IndexTuning;
 import org.jboss.as.capedwarf.services.IndexableConfigurationCallback;
+import org.jboss.as.capedwarf.services.MemcacheConfigurationCallback;
+import org.jboss.as.capedwarf.services.MemoryBudget;
 import org.jboss.as.capedwarf.services.MuxIdGenerator;
 import org.jboss.as.clustering.infinispan.subsystem.CacheConfigurationService;
 import org.jboss.as.clustering.infinispan.subsystem.EmbeddedCacheManagerService;
@@ -65,10 +74,28 @@ public class CapedwarfCacheProcessor extends CapedwarfTopDeploymentUnitProcessor
     private static final ServiceName CLS_SERVICE_NAME = CAPEDWARF_SERVICE_NAME.append("cache-lifecycle");
     private static final ServiceName CACHE_CONTAINER = EmbeddedCacheManagerService.getServiceName(CAPEDWARF);
 
-    private static ServiceName toServiceName(String appId, CacheName cn) {
+    public static ServiceName toServiceName(String appId, CacheName cn) {
         return CLS_SERVICE_NAME.append(cn.getName()).append(appId);
     }
 
+    private final IndexTuning tuning;
+    private final DatastoreSharding sharding;
+    private final CacheActivation activation;
+    private final long memoryBudget;
+    private final int overrideMaxEntries;
+
+    public CapedwarfCacheProcessor() {
+        this(IndexTuning.DEFAULT, DatastoreSharding.DEFAULT, CacheActivation.DEFAULT, 0, 100000);
+    }
+
+    public CapedwarfCacheProcessor(IndexTuning tuning, DatastoreSharding sharding, CacheActivation activation, long memoryBudget, int overrideMaxEntries) {
+        this.tuning = tuning;
+        this.sharding = sharding;
+        this.activation = activation;
+        this.memoryBudget = memoryBudget;
+        this.overrideMaxEntries = overrideMaxEntries;
+    }
+
     static Set<ServiceName> getDependencies(String appId) {
         final Set<ServiceName> set = new HashSet<>();
         for (CacheName cn : CacheName.values()) {
@@ -86,34 +113,56 @@ public class CapedwarfCacheProcessor extends CapedwarfTopDeploymentUnitProcessor
         final ServiceTarget serviceTarget = context.getServiceTarget();
         // configs
         Map<CacheName, CacheConfig> configs = unit.getAttachment(CapedwarfAttachments.CONFIGS);
+        Map<CacheName, CacheOverride> overrides = unit.getAttachment(CapedwarfAttachments.CACHE_OVERRIDES);
+        // shared by datastore and memcache
+        MemoryBudget budget = (memoryBudget > 0) ? new MemoryBudget(appId, memoryBudget) : null;
 
         // default
         List<IndexesXml> indexes = unit.getAttachmentList(CapedwarfAttachments.INDEXES_LIST);
-        createBuilder(serviceTarget, CacheName.DEFAULT, appId, new DatastoreConfigurationCallback(configs.get(CacheName.DEFAULT), appId, classLoader, indexes));
+        createBuilder(serviceTarget, CacheName.DEFAULT, appId, overrides, budget, new DatastoreConfigurationCallback(configs.get(CacheName.DEFAULT), appId, classLoader, indexes, tuning, sharding));
 
         // search, ps, tasks, log, channel cache
         for (CacheName cn : Arrays.asList(CacheName.SEARCH, CacheName.PROSPECTIVE_SEARCH, CacheName.TASKS, CacheName.LOGS, CacheName.CHANNEL)) {
             final ConfigurationCallback callback = new BasicConfigurationCallback(configs.get(cn), appId, classLoader);
-            createBuilder(serviceTarget, cn, appId, callback);
+            createBuilder(serviceTarget, cn, appId, overrides, null, callback);
         }
-        // versions
-        createBuilder(serviceTarget, CacheName.DATASTORE_VERSIONS, appId, new DatastoreVersionsConfigurationCallback());
-        // data, metadata, memcache, dist
-        for (CacheName cn : Arrays.asList(CacheName.DATA, CacheName.METADATA, CacheName.MEMCACHE, CacheName.DIST)) {
-            createBuilder(serviceTarget, cn, appId, null);
+        // versions, internal, not overridable
+        createBuilder(serviceTarget, CacheName.DATASTORE_VERSIONS, appId, null, null, new DatastoreVersionsConfigurationCallback());
+        // memcache
+        createBuilder(serviceTarget, CacheName.MEMCACHE, appId, overrides, budget, new MemcacheConfigurationCallback(configs.get(CacheName.MEMCACHE)));
+        // data, metadata, dist, internal, not overridable
+        for (CacheName cn : Arrays.asList(CacheName.DATA, CacheName.METADATA, CacheName.DIST)) {
+            createBuilder(serviceTarget, cn, appId, null, null, null);
         }
     }
 
-    protected ServiceController<Cache> createBuilder(ServiceTarget serviceTarget, CacheName cacheName, String appId, ConfigurationCallback callback) {
-        final CacheLifecycleService cls = new CacheLifecycleService(cacheName.getFullName(appId), callback);
+    protected ServiceController<Cache> createBuilder(ServiceTarget serviceTarget, CacheName cacheName, String appId, Map<CacheName, CacheOverride> overrides, MemoryBudget budget, ConfigurationCallback callback) {
+        final boolean lazy = activation.isLazy(cacheName.getName());
+        final CacheLifecycleService cls = new CacheLifecycleService(cacheName.getFullName(appId), callback, lazy, activation.getIdleTimeout());
+        final ConfigurationCallback cc = (callback != null) ? callback : cls;
+        final CacheOverride override = (overrides != null) ? overrides.get(cacheName) : null;
+        if (override != null && cc instanceof AbstractConfigurationCallback) {
+            if (override.limitMaxEntries(overrideMaxEntries)) {
+                log.warnf("App %s cache %s override max-entries clamped to %s.", appId, cacheName.getName(), overrideMaxEntries);
+            }
+            AbstractConfigurationCallback.class.cast(cc).setOverride(override);
+        }
+        if (budget != null && cc instanceof AbstractConfigurationCallback) {
+            AbstractConfigurationCallback.class.cast(cc).setMemoryBudget(budget);
+        }
         final ServiceBuilder<Cache> builder = serviceTarget.addService(toServiceName(appId, cacheName), cls);
+        // only indexable caches wait for the channel and app's mux id, the index backend is configured with both;
+        // caches do not depend on each other, so an app's caches all start at once
         if (callback instanceof IndexableConfigurationCallback) {
             IndexableConfigurationCallback icb = (IndexableConfigurationCallback) callback;
             builder.addDependency(ChannelService.getServiceName(CAPEDWARF), JChannel.class, icb.getChannel());
             builder.addDependency(CapedwarfMuxIdProcessor.toServiceName(appId), MuxIdGenerator.class, icb.getGenerator());
         }
+        // the container defines and starts the app's cache, from the container's cache template
         builder.addDependency(CACHE_CONTAINER, EmbeddedCacheManager.class, cls.getEcmiv());
         builder.addDependency(CacheConfigurationService.getServiceName(CAPEDWARF, cacheName.getName()), Configuration.class, cls.getCiv());
+        // own pool, long state transfers must not hold the threads of the CapeDwarf executor
+        builder.addDependency(CacheStartExecutorService.NAME, ExecutorService.class, cls.getExecutor());
         builder.setInitialMode(ServiceController.Mode.ACTIVE);
         return builder.install();
     }
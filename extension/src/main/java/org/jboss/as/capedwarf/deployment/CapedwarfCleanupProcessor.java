@@ -22,6 +22,8 @@
 
 package org.jboss.as.capedwarf.deployment;
 
+import org.jboss.as.capedwarf.services.TaskMetrics;
+import org.jboss.as.capedwarf.services.TaskResolutionCache;
 import org.jboss.as.server.deployment.DeploymentPhaseContext;
 import org.jboss.as.server.deployment.DeploymentUnit;
 import org.jboss.as.server.deployment.DeploymentUnitProcessingException;
@@ -41,6 +43,8 @@ public class CapedwarfCleanupProcessor extends CapedwarfTopDeploymentUnitProcess
         final String appId = CapedwarfDeploymentMarker.getAppId(unit);
         if (appId != null) {
             ComponentRegistry.getInstance().clearComponents(appId);
+            TaskResolutionCache.invalidate(appId);
+            TaskMetrics.clear(appId);
             log.info(String.format("Cleaned component registry for app id: %s", appId));
         }
     }
@@ -24,7 +24,9 @@ package org.jboss.as.capedwarf.deployment;
 
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.jboss.as.capedwarf.services.CacheOverride;
 import org.jboss.as.server.deployment.Attachments;
 import org.jboss.as.server.deployment.DeploymentPhaseContext;
 import org.jboss.as.server.deployment.DeploymentUnit;
@@ -36,6 +38,7 @@ import org.jboss.capedwarf.shared.config.AppEngineWebXmlParser;
 import org.jboss.capedwarf.shared.config.ApplicationConfiguration;
 import org.jboss.capedwarf.shared.config.BackendsXml;
 import org.jboss.capedwarf.shared.config.BackendsXmlParser;
+import org.jboss.capedwarf.shared.config.CacheName;
 import org.jboss.capedwarf.shared.config.CapedwarfConfiguration;
 import org.jboss.capedwarf.shared.config.CapedwarfConfigurationParser;
 import org.jboss.capedwarf.shared.config.CronXml;
@@ -88,6 +91,23 @@ public class CapedwarfXmlsParserProcessor extends CapedwarfWebDeploymentUnitProc
                 safeClose(cdIs);
             }
 
+            // capedwarf-web.xml cache overrides, per app
+            final InputStream overridesIs = getInputStream(deploymentRoot, "WEB-INF/capedwarf-web.xml", false);
+            try {
+                Map<CacheName, CacheOverride> overrides = CacheOverridesParser.parse(overridesIs);
+                if (overrides.isEmpty() == false) {
+                    final DeploymentUnit top = getTopDeploymentUnit(unit);
+                    Map<CacheName, CacheOverride> existing = top.getAttachment(CapedwarfAttachments.CACHE_OVERRIDES);
+                    if (existing == null) {
+                        existing = new ConcurrentHashMap<>();
+                        top.putAttachment(CapedwarfAttachments.CACHE_OVERRIDES, existing);
+                    }
+                    existing.putAll(overrides);
+                }
+            } finally {
+                safeClose(overridesIs);
+            }
+
             // queue.xml
             final InputStream queueIs = getInputStream(deploymentRoot, "WEB-INF/queue.xml", false);
             try {
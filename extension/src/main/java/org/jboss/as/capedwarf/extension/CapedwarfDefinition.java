@@ -2,6 +2,8 @@ package org.jboss.as.capedwarf.extension;
 
 import java.util.EnumSet;
 
+import org.jboss.as.controller.ObjectListAttributeDefinition;
+import org.jboss.as.controller.ObjectTypeAttributeDefinition;
 import org.jboss.as.controller.PathElement;
 import org.jboss.as.controller.ReloadRequiredRemoveStepHandler;
 import org.jboss.as.controller.ReloadRequiredWriteAttributeHandler;
@@ -13,10 +15,13 @@ import org.jboss.as.controller.descriptions.DefaultResourceRemoveDescriptionProv
 import org.jboss.as.controller.descriptions.DescriptionProvider;
 import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
 import org.jboss.as.controller.descriptions.ResourceDescriptionResolver;
+import org.jboss.as.controller.operations.validation.IntRangeValidator;
+import org.jboss.as.controller.operations.validation.LongRangeValidator;
 import org.jboss.as.controller.operations.validation.StringLengthValidator;
 import org.jboss.as.controller.registry.AttributeAccess;
 import org.jboss.as.controller.registry.ManagementResourceRegistration;
 import org.jboss.as.controller.registry.OperationEntry;
+import org.jboss.dmr.ModelNode;
 import org.jboss.dmr.ModelType;
 
 import static org.jboss.as.controller.descriptions.ModelDescriptionConstants.ADD;
@@ -44,6 +49,207 @@ class CapedwarfDefinition extends SimpleResourceDefinition {
                     .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
                     .build();
 
+    protected static final SimpleAttributeDefinition CONSUMER_BATCH_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CONSUMER_BATCH_SIZE, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CONSUMER_BATCH_SIZE)
+                    .setDefaultValue(new ModelNode(1))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition CONSUMER_BATCH_LINGER =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CONSUMER_BATCH_LINGER, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CONSUMER_BATCH_LINGER)
+                    .setDefaultValue(new ModelNode(50L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition CONSUMER_POOL_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CONSUMER_POOL_SIZE, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CONSUMER_POOL_SIZE)
+                    .setDefaultValue(new ModelNode(1))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_NONE)
+                    .build();
+
+    protected static final SimpleAttributeDefinition APP_TASK_QUEUE_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.APP_TASK_QUEUE_SIZE, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.APP_TASK_QUEUE_SIZE)
+                    .setDefaultValue(new ModelNode(32))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition LOCAL_TASK_DISPATCH =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.LOCAL_TASK_DISPATCH, ModelType.BOOLEAN, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.LOCAL_TASK_DISPATCH)
+                    .setDefaultValue(new ModelNode(false))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition LOCAL_TASK_MAX_IN_FLIGHT =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.LOCAL_TASK_MAX_IN_FLIGHT, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.LOCAL_TASK_MAX_IN_FLIGHT)
+                    .setDefaultValue(new ModelNode(64))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition TASK_RESPONSE_CAPTURE_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.TASK_RESPONSE_CAPTURE_SIZE, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.TASK_RESPONSE_CAPTURE_SIZE)
+                    .setDefaultValue(new ModelNode(0))
+                    .setValidator(new IntRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition INDEXING_BACKPRESSURE_THRESHOLD =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.INDEXING_BACKPRESSURE_THRESHOLD, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.INDEXING_BACKPRESSURE_THRESHOLD)
+                    .setDefaultValue(new ModelNode(0L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition SINGLE_NODE_INDEXING_BACKEND =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.SINGLE_NODE_INDEXING_BACKEND, ModelType.BOOLEAN, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.SINGLE_NODE_INDEXING_BACKEND)
+                    .setDefaultValue(new ModelNode(false))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition INDEXING_COMPRESSION_THRESHOLD =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.INDEXING_COMPRESSION_THRESHOLD, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.INDEXING_COMPRESSION_THRESHOLD)
+                    .setDefaultValue(new ModelNode(0))
+                    .setValidator(new IntRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition DATASTORE_NEAR_REAL_TIME =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.DATASTORE_NEAR_REAL_TIME, ModelType.BOOLEAN, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.DATASTORE_NEAR_REAL_TIME)
+                    .setDefaultValue(new ModelNode(false))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition DATASTORE_INDEX_REFRESH_INTERVAL =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.DATASTORE_INDEX_REFRESH_INTERVAL, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.DATASTORE_INDEX_REFRESH_INTERVAL)
+                    .setDefaultValue(new ModelNode(0L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition DATASTORE_INDEX_RAM_BUFFER_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.DATASTORE_INDEX_RAM_BUFFER_SIZE, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.DATASTORE_INDEX_RAM_BUFFER_SIZE)
+                    .setDefaultValue(new ModelNode(0))
+                    .setValidator(new IntRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition LAZY_CACHES =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.LAZY_CACHES, ModelType.STRING, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.LAZY_CACHES)
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition CACHE_IDLE_TIMEOUT =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CACHE_IDLE_TIMEOUT, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CACHE_IDLE_TIMEOUT)
+                    .setDefaultValue(new ModelNode(0L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition CACHE_MEMORY_BUDGET =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CACHE_MEMORY_BUDGET, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CACHE_MEMORY_BUDGET)
+                    .setDefaultValue(new ModelNode(0L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition MEMCACHE_OFF_HEAP_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.MEMCACHE_OFF_HEAP_SIZE, ModelType.LONG, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.MEMCACHE_OFF_HEAP_SIZE)
+                    .setDefaultValue(new ModelNode(0L))
+                    .setValidator(new LongRangeValidator(0, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    protected static final SimpleAttributeDefinition CACHE_OVERRIDE_MAX_ENTRIES =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CACHE_OVERRIDE_MAX_ENTRIES, ModelType.INT, true)
+                    .setAllowExpression(true)
+                    .setXmlName(CapedwarfModel.CACHE_OVERRIDE_MAX_ENTRIES)
+                    .setDefaultValue(new ModelNode(100000))
+                    .setValidator(new IntRangeValidator(1, true, true))
+                    .setFlags(AttributeAccess.Flag.RESTART_ALL_SERVICES)
+                    .build();
+
+    // metrics
+
+    protected static final SimpleAttributeDefinition TASKS_DISPATCHED = metric(CapedwarfModel.TASKS_DISPATCHED, ModelType.LONG);
+    protected static final SimpleAttributeDefinition TASKS_FAILED = metric(CapedwarfModel.TASKS_FAILED, ModelType.LONG);
+    protected static final SimpleAttributeDefinition TASKS_SKIPPED = metric(CapedwarfModel.TASKS_SKIPPED, ModelType.LONG);
+    protected static final SimpleAttributeDefinition TASKS_IN_FLIGHT = metric(CapedwarfModel.TASKS_IN_FLIGHT, ModelType.LONG);
+    protected static final SimpleAttributeDefinition TASK_LATENCY_P50 = metric(CapedwarfModel.TASK_LATENCY_P50, ModelType.DOUBLE);
+    protected static final SimpleAttributeDefinition TASK_LATENCY_P95 = metric(CapedwarfModel.TASK_LATENCY_P95, ModelType.DOUBLE);
+    protected static final SimpleAttributeDefinition TASK_LATENCY_P99 = metric(CapedwarfModel.TASK_LATENCY_P99, ModelType.DOUBLE);
+
+    protected static final ObjectListAttributeDefinition APP_TASK_METRICS =
+            ObjectListAttributeDefinition.Builder.of(CapedwarfModel.APP_TASK_METRICS,
+                    ObjectTypeAttributeDefinition.Builder.of(CapedwarfModel.APP_TASK_METRICS,
+                            metric(CapedwarfModel.APP_ID, ModelType.STRING),
+                            TASKS_DISPATCHED, TASKS_FAILED, TASKS_SKIPPED, TASKS_IN_FLIGHT,
+                            TASK_LATENCY_P50, TASK_LATENCY_P95, TASK_LATENCY_P99
+                    ).build())
+                    .setAllowNull(true)
+                    .setStorageRuntime()
+                    .build();
+
+    protected static final SimpleAttributeDefinition INDEXING_BACKPRESSURE = metric(CapedwarfModel.INDEXING_BACKPRESSURE, ModelType.BOOLEAN);
+    protected static final SimpleAttributeDefinition INDEXING_PENDING_WORKS = metric(CapedwarfModel.INDEXING_PENDING_WORKS, ModelType.LONG);
+
+    protected static final ObjectListAttributeDefinition INDEX_METRICS =
+            ObjectListAttributeDefinition.Builder.of(CapedwarfModel.INDEX_METRICS,
+                    ObjectTypeAttributeDefinition.Builder.of(CapedwarfModel.INDEX_METRICS,
+                            metric(CapedwarfModel.INDEX_NAME, ModelType.STRING),
+                            metric(CapedwarfModel.PENDING_WORKS, ModelType.LONG),
+                            metric(CapedwarfModel.WORKS_APPLIED, ModelType.LONG),
+                            metric(CapedwarfModel.WORKS_PER_SECOND, ModelType.DOUBLE),
+                            metric(CapedwarfModel.LAG, ModelType.LONG),
+                            metric(CapedwarfModel.APPLY_LATENCY, ModelType.DOUBLE)
+                    ).build())
+                    .setAllowNull(true)
+                    .setStorageRuntime()
+                    .build();
+
+    private static SimpleAttributeDefinition metric(String name, ModelType type) {
+        return new SimpleAttributeDefinitionBuilder(name, type, true)
+                .setStorageRuntime()
+                .build();
+    }
+
     private CapedwarfDefinition() {
         super(PathElement.pathElement(
                 ModelDescriptionConstants.SUBSYSTEM, CapedwarfExtension.SUBSYSTEM_NAME),
@@ -60,11 +266,47 @@ class CapedwarfDefinition extends SimpleResourceDefinition {
         rootResourceRegistration.registerOperationHandler(ADD, subsystemAdd, subsystemAddDescription, EnumSet.of(OperationEntry.Flag.RESTART_ALL_SERVICES));
         final DescriptionProvider subsystemRemoveDescription = new DefaultResourceRemoveDescriptionProvider(rootResolver);
         rootResourceRegistration.registerOperationHandler(REMOVE, ReloadRequiredRemoveStepHandler.INSTANCE, subsystemRemoveDescription, EnumSet.of(OperationEntry.Flag.RESTART_ALL_SERVICES));
+        // dead letters
+        rootResourceRegistration.registerOperationHandler(DeadLetterTasksHandler.LIST, DeadLetterTasksHandler.INSTANCE);
+        rootResourceRegistration.registerOperationHandler(DeadLetterTasksHandler.REPLAY, DeadLetterTasksHandler.INSTANCE);
+        // index rebuild
+        rootResourceRegistration.registerOperationHandler(RebuildIndexHandler.REBUILD, RebuildIndexHandler.INSTANCE);
+        rootResourceRegistration.registerOperationHandler(RebuildIndexHandler.STATUS, RebuildIndexHandler.INSTANCE);
     }
 
     @Override
     public void registerAttributes(ManagementResourceRegistration resourceRegistration) {
         resourceRegistration.registerReadWriteAttribute(APPENGINE_API, null, new ReloadRequiredWriteAttributeHandler());
         resourceRegistration.registerReadWriteAttribute(ADMIN_TGT, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CONSUMER_BATCH_SIZE, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CONSUMER_BATCH_LINGER, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CONSUMER_POOL_SIZE, null, new ConsumerPoolSizeWriteHandler());
+        resourceRegistration.registerReadWriteAttribute(APP_TASK_QUEUE_SIZE, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(LOCAL_TASK_DISPATCH, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(LOCAL_TASK_MAX_IN_FLIGHT, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(TASK_RESPONSE_CAPTURE_SIZE, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(INDEXING_BACKPRESSURE_THRESHOLD, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(SINGLE_NODE_INDEXING_BACKEND, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(INDEXING_COMPRESSION_THRESHOLD, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(DATASTORE_NEAR_REAL_TIME, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(DATASTORE_INDEX_REFRESH_INTERVAL, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(DATASTORE_INDEX_RAM_BUFFER_SIZE, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(LAZY_CACHES, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CACHE_IDLE_TIMEOUT, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CACHE_MEMORY_BUDGET, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(MEMCACHE_OFF_HEAP_SIZE, null, new ReloadRequiredWriteAttributeHandler());
+        resourceRegistration.registerReadWriteAttribute(CACHE_OVERRIDE_MAX_ENTRIES, null, new ReloadRequiredWriteAttributeHandler());
+        // metrics
+        resourceRegistration.registerMetric(TASKS_DISPATCHED, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASKS_FAILED, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASKS_SKIPPED, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASKS_IN_FLIGHT, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASK_LATENCY_P50, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASK_LATENCY_P95, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(TASK_LATENCY_P99, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(APP_TASK_METRICS, TaskMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(INDEXING_BACKPRESSURE, IndexingMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(INDEXING_PENDING_WORKS, IndexingMetricsHandler.INSTANCE);
+        resourceRegistration.registerMetric(INDEX_METRICS, IndexingMetricsHandler.INSTANCE);
     }
 }
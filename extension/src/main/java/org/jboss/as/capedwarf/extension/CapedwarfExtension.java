@@ -106,6 +106,24 @@ public class CapedwarfExtension implements Extension {
             context.startSubsystemElement(CapedwarfExtension.NAMESPACE, false);
             CapedwarfDefinition.APPENGINE_API.marshallAsElement(context.getModelNode(),writer);
             CapedwarfDefinition.ADMIN_TGT.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CONSUMER_BATCH_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CONSUMER_BATCH_LINGER.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CONSUMER_POOL_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.APP_TASK_QUEUE_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.LOCAL_TASK_DISPATCH.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.LOCAL_TASK_MAX_IN_FLIGHT.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.TASK_RESPONSE_CAPTURE_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.INDEXING_BACKPRESSURE_THRESHOLD.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.SINGLE_NODE_INDEXING_BACKEND.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.INDEXING_COMPRESSION_THRESHOLD.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.DATASTORE_NEAR_REAL_TIME.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.DATASTORE_INDEX_REFRESH_INTERVAL.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.DATASTORE_INDEX_RAM_BUFFER_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.LAZY_CACHES.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CACHE_IDLE_TIMEOUT.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CACHE_MEMORY_BUDGET.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.MEMCACHE_OFF_HEAP_SIZE.marshallAsElement(context.getModelNode(),writer);
+            CapedwarfDefinition.CACHE_OVERRIDE_MAX_ENTRIES.marshallAsElement(context.getModelNode(),writer);
             writer.writeEndElement();
         }
 
@@ -122,6 +140,42 @@ public class CapedwarfExtension implements Extension {
                     CapedwarfDefinition.APPENGINE_API.parseAndSetParameter(reader.getElementText(), operation, reader);
                 } else if (CapedwarfModel.ADMIN_AUTH.equals(reader.getLocalName())) {
                     CapedwarfDefinition.ADMIN_TGT.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CONSUMER_BATCH_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CONSUMER_BATCH_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CONSUMER_BATCH_LINGER.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CONSUMER_BATCH_LINGER.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CONSUMER_POOL_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CONSUMER_POOL_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.APP_TASK_QUEUE_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.APP_TASK_QUEUE_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.LOCAL_TASK_DISPATCH.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.LOCAL_TASK_DISPATCH.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.LOCAL_TASK_MAX_IN_FLIGHT.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.LOCAL_TASK_MAX_IN_FLIGHT.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.TASK_RESPONSE_CAPTURE_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.TASK_RESPONSE_CAPTURE_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.INDEXING_BACKPRESSURE_THRESHOLD.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.INDEXING_BACKPRESSURE_THRESHOLD.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.SINGLE_NODE_INDEXING_BACKEND.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.SINGLE_NODE_INDEXING_BACKEND.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.INDEXING_COMPRESSION_THRESHOLD.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.INDEXING_COMPRESSION_THRESHOLD.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.DATASTORE_NEAR_REAL_TIME.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.DATASTORE_NEAR_REAL_TIME.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.DATASTORE_INDEX_REFRESH_INTERVAL.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.DATASTORE_INDEX_REFRESH_INTERVAL.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.DATASTORE_INDEX_RAM_BUFFER_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.DATASTORE_INDEX_RAM_BUFFER_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.LAZY_CACHES.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.LAZY_CACHES.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CACHE_IDLE_TIMEOUT.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CACHE_IDLE_TIMEOUT.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CACHE_MEMORY_BUDGET.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CACHE_MEMORY_BUDGET.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.MEMCACHE_OFF_HEAP_SIZE.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.MEMCACHE_OFF_HEAP_SIZE.parseAndSetParameter(reader.getElementText(), operation, reader);
+                } else if (CapedwarfModel.CACHE_OVERRIDE_MAX_ENTRIES.equals(reader.getLocalName())) {
+                    CapedwarfDefinition.CACHE_OVERRIDE_MAX_ENTRIES.parseAndSetParameter(reader.getElementText(), operation, reader);
                 } else {
                     reader.handleAny(list);
                 }
@@ -7,4 +7,64 @@ package org.jboss.as.capedwarf.extension;
 interface CapedwarfModel {
     String APPENGINE_API = "appengine-api";
     String ADMIN_AUTH = "admin-auth";
+    String CONSUMER_BATCH_SIZE = "consumer-batch-size";
+    String CONSUMER_BATCH_LINGER = "consumer-batch-linger";
+    String CONSUMER_POOL_SIZE = "consumer-pool-size";
+    String APP_TASK_QUEUE_SIZE = "app-task-queue-size";
+    String LOCAL_TASK_DISPATCH = "local-task-dispatch";
+    String LOCAL_TASK_MAX_IN_FLIGHT = "local-task-max-in-flight";
+    String TASK_RESPONSE_CAPTURE_SIZE = "task-response-capture-size";
+    String INDEXING_BACKPRESSURE_THRESHOLD = "indexing-backpressure-threshold";
+    String SINGLE_NODE_INDEXING_BACKEND = "single-node-indexing-backend";
+    String INDEXING_COMPRESSION_THRESHOLD = "indexing-compression-threshold";
+    String DATASTORE_NEAR_REAL_TIME = "datastore-near-real-time";
+    String DATASTORE_INDEX_REFRESH_INTERVAL = "datastore-index-refresh-interval";
+    String DATASTORE_INDEX_RAM_BUFFER_SIZE = "datastore-index-ram-buffer-size";
+    String LAZY_CACHES = "lazy-caches";
+    String CACHE_IDLE_TIMEOUT = "cache-idle-timeout";
+    String CACHE_MEMORY_BUDGET = "cache-memory-budget";
+    String MEMCACHE_OFF_HEAP_SIZE = "memcache-off-heap-size";
+    String CACHE_OVERRIDE_MAX_ENTRIES = "cache-override-max-entries";
+    // metrics
+    String TASKS_DISPATCHED = "tasks-dispatched";
+    String TASKS_FAILED = "tasks-failed";
+    String TASKS_SKIPPED = "tasks-skipped";
+    String TASKS_IN_FLIGHT = "tasks-in-flight";
+    String TASK_LATENCY_P50 = "task-latency-p50";
+    String TASK_LATENCY_P95 = "task-latency-p95";
+    String TASK_LATENCY_P99 = "task-latency-p99";
+    String APP_TASK_METRICS = "app-task-metrics";
+    String APP_ID = "app-id";
+    String INDEXING_BACKPRESSURE = "indexing-backpressure";
+    String INDEXING_PENDING_WORKS = "indexing-pending-works";
+    String INDEX_METRICS = "index-metrics";
+    String INDEX_NAME = "index-name";
+    String PENDING_WORKS = "pending-works";
+    String WORKS_APPLIED = "works-applied";
+    String WORKS_PER_SECOND = "works-per-second";
+    String LAG = "lag";
+    String APPLY_LATENCY = "apply-latency";
+    // dead letters
+    String LIST_DEAD_LETTER_TASKS = "list-dead-letter-tasks";
+    String REPLAY_DEAD_LETTER_TASKS = "replay-dead-letter-tasks";
+    String MAX = "max";
+    String MESSAGE_ID = "message-id";
+    String PATH = "path";
+    String CAUSE = "cause";
+    String TIME = "time";
+    // index rebuild
+    String REBUILD_INDEX = "rebuild-index";
+    String INDEX_REBUILD_STATUS = "index-rebuild-status";
+    String CACHE = "cache";
+    String THREADS = "threads";
+    String BATCH_SIZE = "batch-size";
+    String MAX_PER_SECOND = "max-per-second";
+    String RUNNING = "running";
+    String TOTAL = "total";
+    String INDEXED = "indexed";
+    String FAILED = "failed";
+    String DELETED = "deleted";
+    String STARTED = "started";
+    String FINISHED = "finished";
+    String ERROR = "error";
 }
@@ -52,11 +52,22 @@ import javax.jms.Connection;
 import com.sun.media.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 import org.apache.http.client.HttpClient;
 import org.geotoolkit.image.io.plugin.RawTiffImageReader;
+import org.infinispan.manager.EmbeddedCacheManager;
 import org.jboss.as.capedwarf.deployment.*;
+import org.jboss.as.capedwarf.services.CacheActivation;
+import org.jboss.as.capedwarf.services.CacheManagerRegistryService;
+import org.jboss.as.capedwarf.services.CacheStartExecutorService;
 import org.jboss.as.capedwarf.services.ComponentRegistryService;
+import org.jboss.as.capedwarf.services.DatastoreSharding;
 import org.jboss.as.capedwarf.services.HttpClientService;
+import org.jboss.as.capedwarf.services.IndexTuning;
+import org.jboss.as.capedwarf.services.IndexableConfigurationCallback;
+import org.jboss.as.capedwarf.services.IndexingCodec;
+import org.jboss.as.capedwarf.services.IndexingConsumerService;
+import org.jboss.as.capedwarf.services.IndexingMetrics;
 import org.jboss.as.capedwarf.services.OptionalExecutorService;
 import org.jboss.as.capedwarf.services.OptionalThreadFactoryService;
+import org.jboss.as.capedwarf.services.ServletExecutor;
 import org.jboss.as.capedwarf.services.ServletExecutorConsumerService;
 import org.jboss.as.capedwarf.services.SimpleThreadsHandler;
 import org.jboss.as.capedwarf.services.ThreadsHandler;
@@ -113,6 +124,8 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
 
     static final CapedwarfSubsystemAdd INSTANCE = new CapedwarfSubsystemAdd();
 
+    private static final ServiceName OPTIONAL_EXECUTOR = Constants.OPTIONAL_EXECUTOR_NAME;
+
     private boolean initialized;
 
     private CapedwarfSubsystemAdd() {
@@ -157,6 +170,24 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
     protected void populateModel(ModelNode operation, ModelNode model) throws OperationFailedException {
         CapedwarfDefinition.APPENGINE_API.validateAndSet(operation, model);
         CapedwarfDefinition.ADMIN_TGT.validateAndSet(operation, model);
+        CapedwarfDefinition.CONSUMER_BATCH_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.CONSUMER_BATCH_LINGER.validateAndSet(operation, model);
+        CapedwarfDefinition.CONSUMER_POOL_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.APP_TASK_QUEUE_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.LOCAL_TASK_DISPATCH.validateAndSet(operation, model);
+        CapedwarfDefinition.LOCAL_TASK_MAX_IN_FLIGHT.validateAndSet(operation, model);
+        CapedwarfDefinition.TASK_RESPONSE_CAPTURE_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.INDEXING_BACKPRESSURE_THRESHOLD.validateAndSet(operation, model);
+        CapedwarfDefinition.SINGLE_NODE_INDEXING_BACKEND.validateAndSet(operation, model);
+        CapedwarfDefinition.INDEXING_COMPRESSION_THRESHOLD.validateAndSet(operation, model);
+        CapedwarfDefinition.DATASTORE_NEAR_REAL_TIME.validateAndSet(operation, model);
+        CapedwarfDefinition.DATASTORE_INDEX_REFRESH_INTERVAL.validateAndSet(operation, model);
+        CapedwarfDefinition.DATASTORE_INDEX_RAM_BUFFER_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.LAZY_CACHES.validateAndSet(operation, model);
+        CapedwarfDefinition.CACHE_IDLE_TIMEOUT.validateAndSet(operation, model);
+        CapedwarfDefinition.CACHE_MEMORY_BUDGET.validateAndSet(operation, model);
+        CapedwarfDefinition.MEMCACHE_OFF_HEAP_SIZE.validateAndSet(operation, model);
+        CapedwarfDefinition.CACHE_OVERRIDE_MAX_ENTRIES.validateAndSet(operation, model);
     }
 
     /**
@@ -172,6 +203,35 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
         final ModelNode adminTGTModel = CapedwarfDefinition.ADMIN_TGT.resolveModelAttribute(context, model);
         final String adminTGT = adminTGTModel.isDefined() ? adminTGTModel.asString() : null;
 
+        final int batchSize = CapedwarfDefinition.CONSUMER_BATCH_SIZE.resolveModelAttribute(context, model).asInt();
+        final long batchLinger = CapedwarfDefinition.CONSUMER_BATCH_LINGER.resolveModelAttribute(context, model).asLong();
+        final int poolSize = CapedwarfDefinition.CONSUMER_POOL_SIZE.resolveModelAttribute(context, model).asInt();
+        final int appQueueSize = CapedwarfDefinition.APP_TASK_QUEUE_SIZE.resolveModelAttribute(context, model).asInt();
+        final boolean localDispatch = CapedwarfDefinition.LOCAL_TASK_DISPATCH.resolveModelAttribute(context, model).asBoolean();
+        final int localMaxInFlight = CapedwarfDefinition.LOCAL_TASK_MAX_IN_FLIGHT.resolveModelAttribute(context, model).asInt();
+        ServletExecutor.setResponseCaptureSize(CapedwarfDefinition.TASK_RESPONSE_CAPTURE_SIZE.resolveModelAttribute(context, model).asInt());
+        IndexingMetrics.setBackpressureThreshold(CapedwarfDefinition.INDEXING_BACKPRESSURE_THRESHOLD.resolveModelAttribute(context, model).asLong());
+        IndexableConfigurationCallback.setSingleNodeBackend(CapedwarfDefinition.SINGLE_NODE_INDEXING_BACKEND.resolveModelAttribute(context, model).asBoolean());
+        IndexingCodec.setCompressionThreshold(CapedwarfDefinition.INDEXING_COMPRESSION_THRESHOLD.resolveModelAttribute(context, model).asInt());
+        final IndexTuning indexTuning = new IndexTuning(
+                CapedwarfDefinition.DATASTORE_NEAR_REAL_TIME.resolveModelAttribute(context, model).asBoolean(),
+                CapedwarfDefinition.DATASTORE_INDEX_REFRESH_INTERVAL.resolveModelAttribute(context, model).asLong(),
+                CapedwarfDefinition.DATASTORE_INDEX_RAM_BUFFER_SIZE.resolveModelAttribute(context, model).asInt());
+        // not exposed until datastore queries enable the shard filters
+        final DatastoreSharding datastoreSharding = DatastoreSharding.DEFAULT;
+        final ModelNode lazyCaches = CapedwarfDefinition.LAZY_CACHES.resolveModelAttribute(context, model);
+        final CacheActivation cacheActivation;
+        try {
+            cacheActivation = CacheActivation.parse(
+                    lazyCaches.isDefined() ? lazyCaches.asString() : null,
+                    CapedwarfDefinition.CACHE_IDLE_TIMEOUT.resolveModelAttribute(context, model).asLong());
+        } catch (IllegalArgumentException e) {
+            throw new OperationFailedException(e.getMessage(), e);
+        }
+        final long cacheMemoryBudget = CapedwarfDefinition.CACHE_MEMORY_BUDGET.resolveModelAttribute(context, model).asLong();
+        final long memcacheOffHeapSize = CapedwarfDefinition.MEMCACHE_OFF_HEAP_SIZE.resolveModelAttribute(context, model).asLong();
+        final int cacheOverrideMaxEntries = CapedwarfDefinition.CACHE_OVERRIDE_MAX_ENTRIES.resolveModelAttribute(context, model).asInt();
+
         final CapedwarfProperties properties = new CapedwarfProperties(System.getProperties());
         System.setProperties(properties); // override global properties, w/o synched code ...
 
@@ -181,11 +241,14 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
             public void execute(DeploymentProcessorTarget processorTarget) {
                 final ServiceTarget serviceTarget = context.getServiceTarget();
 
-                addQueueConsumer(serviceTarget, newControllers);
+                final QueueConsumerConfig consumerConfig = new QueueConsumerConfig(poolSize, appQueueSize, batchSize, batchLinger, localDispatch, localMaxInFlight);
+                addQueueConsumer(serviceTarget, newControllers, consumerConfig);
+                addIndexingConsumer(serviceTarget, newControllers);
 
                 final ThreadsHandler handler = new SimpleThreadsHandler();
                 putExecutorServiceToRegistry(serviceTarget, newControllers, handler);
                 putThreadFactoryToRegistry(serviceTarget, newControllers, handler);
+                addCacheStartExecutor(serviceTarget, newControllers);
                 addHttpClient(serviceTarget, newControllers);
 
                 addServicesToRegistry(serviceTarget, newControllers);
@@ -212,7 +275,7 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.DEPENDENCIES, Phase.DEPENDENCIES_JPA - 10, new CapedwarfExcludeGaeApiProcessor(appengineAPI)); // before CapedwarfDeploymentProcessor
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.DEPENDENCIES, Phase.DEPENDENCIES_JPA - 7, new CapedwarfEarDeploymentProcessor()); // ear CL deps
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.DEPENDENCIES, Phase.DEPENDENCIES_JPA - 5, new CapedwarfDeploymentProcessor(appengineAPI)); // web CL deps
-                processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.DEPENDENCIES, Phase.DEPENDENCIES_JPA - 1, new CapedwarfCacheEntriesTopProcessor()); // gather cache configs
+                processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.DEPENDENCIES, Phase.DEPENDENCIES_JPA - 1, new CapedwarfCacheEntriesTopProcessor(memcacheOffHeapSize)); // gather cache configs
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_INJECTION_ANNOTATION - 9, new CapedwarfModuleProcessor()); // right after module
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_INJECTION_ANNOTATION - 1, new CapedwarfEnvironmentProcessor(properties)); // after module
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_LOGGING_CONFIG - 1, new CapedwarfLoggingParseProcessor()); // just before AS logging configuration
@@ -225,7 +288,7 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_SAR_SERVICE_COMPONENT + 5, new CapedwarfSubCleanupProcessor()); // we still need module/CL
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_SAR_SERVICE_COMPONENT + 6, new CapedwarfInstanceInfoProcessor()); // web context processor
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.POST_MODULE, Phase.POST_MODULE_SAR_SERVICE_COMPONENT + 7, new CapedwarfWebContextProcessor()); // before web context lifecycle
-                processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.INSTALL, Phase.INSTALL_WAR_DEPLOYMENT - 3, new CapedwarfCacheProcessor()); // after module
+                processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.INSTALL, Phase.INSTALL_WAR_DEPLOYMENT - 3, new CapedwarfCacheProcessor(indexTuning, datastoreSharding, cacheActivation, cacheMemoryBudget, cacheOverrideMaxEntries)); // after module
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.INSTALL, Phase.INSTALL_WAR_DEPLOYMENT - 1, new CapedwarfMuxIdProcessor()); // adjust order as needed
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.INSTALL, Phase.INSTALL_MODULE_JNDI_BINDINGS - 2, new CapedwarfDependenciesProcessor()); // after logging
                 processorTarget.addDeploymentProcessor(Constants.CAPEDWARF, Phase.CLEANUP, Phase.CLEANUP_ANNOTATION_INDEX + 1, new CapedwarfBootProcessor()); // after logging
@@ -292,26 +355,66 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
         newControllers.add(builder.install());
     }
 
-    protected static void addQueueConsumer(final ServiceTarget serviceTarget, final List<ServiceController<?>> newControllers) {
+    protected static void addQueueConsumer(final ServiceTarget serviceTarget, final List<ServiceController<?>> newControllers, final QueueConsumerConfig config) {
         final ServletExecutorConsumerService consumerService = new ServletExecutorConsumerService();
+        consumerService.setPoolSize(config.poolSize);
+        consumerService.setAppQueueSize(config.appQueueSize);
+        consumerService.setBatchSize(config.batchSize);
+        consumerService.setBatchLinger(config.batchLinger);
+        consumerService.setLocalDispatch(config.localDispatch, config.localMaxInFlight);
         final ServiceBuilder<Connection> builder = serviceTarget.addService(ServletExecutorConsumerService.NAME, consumerService);
         builder.addDependency(ContextNames.bindInfoFor("java:/ConnectionFactory").getBinderServiceName(), ManagedReferenceFactory.class, consumerService.getFactory());
         builder.addDependency(ContextNames.bindInfoFor("java:/queue/" + Constants.CAPEDWARF).getBinderServiceName(), ManagedReferenceFactory.class, consumerService.getQueue());
+        builder.addDependency(ServiceBuilder.DependencyType.OPTIONAL, ContextNames.bindInfoFor("java:/queue/" + Constants.CAPEDWARF + "DeadLetter").getBinderServiceName(), ManagedReferenceFactory.class, consumerService.getDeadLetterQueue());
         builder.addDependency(Services.JBOSS_SERVICE_MODULE_LOADER, ModuleLoader.class, consumerService.getLoader());
         builder.addDependency(ServiceName.JBOSS.append("messaging").append("default")); // depending on messaging sub-system impl details ...
+        if (config.localDispatch) {
+            builder.addDependency(OPTIONAL_EXECUTOR, ExecutorService.class, consumerService.getExecutor());
+        }
         newControllers.add(builder.setInitialMode(ServiceController.Mode.ON_DEMAND).install());
     }
 
+    /**
+     * Passive, it only starts once queue/capedwarfIndexing is configured.
+     */
+    protected static void addIndexingConsumer(final ServiceTarget serviceTarget, final List<ServiceController<?>> newControllers) {
+        final IndexingConsumerService consumerService = new IndexingConsumerService();
+        final ServiceBuilder<String> builder = serviceTarget.addService(IndexingConsumerService.NAME, consumerService);
+        builder.addDependency(ContextNames.bindInfoFor("java:/ConnectionFactory").getBinderServiceName(), ManagedReferenceFactory.class, consumerService.getFactory());
+        builder.addDependency(ContextNames.bindInfoFor("java:/queue/" + Constants.CAPEDWARF + "Indexing").getBinderServiceName(), ManagedReferenceFactory.class, consumerService.getQueue());
+        builder.addDependency(EmbeddedCacheManagerService.getServiceName(Constants.CAPEDWARF), EmbeddedCacheManager.class, consumerService.getCacheManager());
+        builder.addDependency(ServiceBuilder.DependencyType.OPTIONAL, OPTIONAL_EXECUTOR, ExecutorService.class, consumerService.getExecutor());
+        builder.addDependency(ServiceName.JBOSS.append("messaging").append("default"));
+        newControllers.add(builder.setInitialMode(ServiceController.Mode.PASSIVE).install());
+    }
+
+    private static class QueueConsumerConfig {
+        private final int poolSize;
+        private final int appQueueSize;
+        private final int batchSize;
+        private final long batchLinger;
+        private final boolean localDispatch;
+        private final int localMaxInFlight;
+
+        private QueueConsumerConfig(int poolSize, int appQueueSize, int batchSize, long batchLinger, boolean localDispatch, int localMaxInFlight) {
+            this.poolSize = poolSize;
+            this.appQueueSize = appQueueSize;
+            this.batchSize = batchSize;
+            this.batchLinger = batchLinger;
+            this.localDispatch = localDispatch;
+            this.localMaxInFlight = localMaxInFlight;
+        }
+    }
+
     protected static void putExecutorServiceToRegistry(ServiceTarget serviceTarget, List<ServiceController<?>> newControllers, ThreadsHandler handler) {
         final ServiceName realExecutor = ThreadsServices.executorName(Constants.CAPEDWARF);
-        final ServiceName optionalExecutor = Constants.CAPEDWARF_NAME.append("OptionalExecutorService");
         final OptionalExecutorService oes = new OptionalExecutorService(handler);
-        final ServiceBuilder<Executor> executorServiceBuilder = serviceTarget.addService(optionalExecutor, oes);
+        final ServiceBuilder<Executor> executorServiceBuilder = serviceTarget.addService(OPTIONAL_EXECUTOR, oes);
         executorServiceBuilder.addDependency(ServiceBuilder.DependencyType.OPTIONAL, realExecutor, ExecutorService.class, oes.getExecutorInjectedValue());
         executorServiceBuilder.setInitialMode(ServiceController.Mode.ON_DEMAND);
         newControllers.add(executorServiceBuilder.install());
 
-        addComponentRegistryService(serviceTarget, newControllers, Keys.EXECUTOR_SERVICE, optionalExecutor);
+        addComponentRegistryService(serviceTarget, newControllers, Keys.EXECUTOR_SERVICE, OPTIONAL_EXECUTOR);
     }
 
     protected static void putThreadFactoryToRegistry(ServiceTarget serviceTarget, List<ServiceController<?>> newControllers, ThreadsHandler handler) {
@@ -326,6 +429,12 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
         addComponentRegistryService(serviceTarget, newControllers, Keys.THREAD_FACTORY, optionalTF);
     }
 
+    protected static void addCacheStartExecutor(ServiceTarget serviceTarget, List<ServiceController<?>> newControllers) {
+        final ServiceBuilder<ExecutorService> builder = serviceTarget.addService(CacheStartExecutorService.NAME, new CacheStartExecutorService());
+        builder.setInitialMode(ServiceController.Mode.ON_DEMAND);
+        newControllers.add(builder.install());
+    }
+
     protected static void addHttpClient(final ServiceTarget serviceTarget, final List<ServiceController<?>> newControllers) {
         final HttpClientService service = new HttpClientService();
         final ServiceBuilder<HttpClient> builder = serviceTarget.addService(Constants.CAPEDWARF_NAME.append(String.valueOf(Keys.HTTP_CLIENT.getSlot())), service);
@@ -352,8 +461,12 @@ class CapedwarfSubsystemAdd extends AbstractBoottimeAddStepHandler {
         ServiceName utServiceName = TxnServices.JBOSS_TXN_USER_TRANSACTION;
         addComponentRegistryService(serviceTarget, newControllers, Keys.USER_TX, utServiceName);
 
-        ServiceName cmServiceName = EmbeddedCacheManagerService.getServiceName(Constants.CAPEDWARF);
-        addComponentRegistryService(serviceTarget, newControllers, Keys.CACHE_MANAGER, cmServiceName);
+        // apps get lazy caches through their activators
+        final CacheManagerRegistryService cmService = new CacheManagerRegistryService();
+        final ServiceBuilder<EmbeddedCacheManager> cmBuilder = serviceTarget.addService(Constants.CAPEDWARF_NAME.append(String.valueOf(Keys.CACHE_MANAGER.getSlot())), cmService);
+        cmBuilder.addDependency(EmbeddedCacheManagerService.getServiceName(Constants.CAPEDWARF), EmbeddedCacheManager.class, cmService.getInjectedValue());
+        cmBuilder.setInitialMode(ServiceController.Mode.ON_DEMAND);
+        newControllers.add(cmBuilder.install());
 
         ServiceName mailServiceName = ServiceName.JBOSS.append("mail-session").append("default");
         addComponentRegistryService(serviceTarget, newControllers, Keys.MAIL_SESSION, mailServiceName);
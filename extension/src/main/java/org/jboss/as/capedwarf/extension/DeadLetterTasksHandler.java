@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.extension;
+
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import org.jboss.as.capedwarf.services.DeadLetterQueue;
+import org.jboss.as.capedwarf.services.ServletExecutorConsumerService;
+import org.jboss.as.controller.OperationContext;
+import org.jboss.as.controller.OperationDefinition;
+import org.jboss.as.controller.OperationFailedException;
+import org.jboss.as.controller.OperationStepHandler;
+import org.jboss.as.controller.SimpleAttributeDefinition;
+import org.jboss.as.controller.SimpleAttributeDefinitionBuilder;
+import org.jboss.as.controller.SimpleOperationDefinitionBuilder;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.as.controller.operations.validation.IntRangeValidator;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.msc.service.ServiceController;
+
+/**
+ * List and replay dead letter tasks.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class DeadLetterTasksHandler implements OperationStepHandler {
+    static final DeadLetterTasksHandler INSTANCE = new DeadLetterTasksHandler();
+
+    private static final SimpleAttributeDefinition APP_ID =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.APP_ID, ModelType.STRING, true)
+                    .build();
+
+    private static final SimpleAttributeDefinition MAX =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.MAX, ModelType.INT, true)
+                    .setDefaultValue(new ModelNode(100))
+                    .setValidator(new IntRangeValidator(1, true, false))
+                    .build();
+
+    static final OperationDefinition LIST =
+            new SimpleOperationDefinitionBuilder(CapedwarfModel.LIST_DEAD_LETTER_TASKS, CapedwarfExtension.getResourceDescriptionResolver(CapedwarfExtension.SUBSYSTEM_NAME))
+                    .setParameters(APP_ID, MAX)
+                    .setReplyType(ModelType.LIST)
+                    .setReplyValueType(ModelType.OBJECT)
+                    .setReadOnly()
+                    .setRuntimeOnly()
+                    .build();
+
+    static final OperationDefinition REPLAY =
+            new SimpleOperationDefinitionBuilder(CapedwarfModel.REPLAY_DEAD_LETTER_TASKS, CapedwarfExtension.getResourceDescriptionResolver(CapedwarfExtension.SUBSYSTEM_NAME))
+                    .setParameters(APP_ID, MAX)
+                    .setReplyType(ModelType.INT)
+                    .setRuntimeOnly()
+                    .build();
+
+    private DeadLetterTasksHandler() {
+    }
+
+    public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+        final ModelNode appIdNode = APP_ID.resolveModelAttribute(context, operation);
+        final String appId = appIdNode.isDefined() ? appIdNode.asString() : null;
+        final int max = MAX.resolveModelAttribute(context, operation).asInt();
+        final boolean replay = CapedwarfModel.REPLAY_DEAD_LETTER_TASKS.equals(operation.require(ModelDescriptionConstants.OP).asString());
+
+        context.addStep(new OperationStepHandler() {
+            public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+                final DeadLetterQueue deadLetters = getDeadLetters(context, replay);
+                try {
+                    if (replay) {
+                        context.getResult().set(deadLetters.replay(appId, max));
+                    } else {
+                        final ModelNode result = context.getResult();
+                        result.setEmptyList();
+                        final List<DeadLetterQueue.Info> infos = deadLetters.list(appId, max);
+                        for (DeadLetterQueue.Info info : infos) {
+                            final ModelNode node = new ModelNode();
+                            node.get(CapedwarfModel.MESSAGE_ID).set(info.getMessageId());
+                            setIfNotNull(node, CapedwarfModel.APP_ID, info.getAppId());
+                            setIfNotNull(node, CapedwarfModel.PATH, info.getPath());
+                            setIfNotNull(node, CapedwarfModel.CAUSE, info.getCause());
+                            node.get(CapedwarfModel.TIME).set(info.getTime());
+                            result.add(node);
+                        }
+                    }
+                } catch (JMSException e) {
+                    throw new OperationFailedException(new ModelNode().set("Cannot access dead letters: " + e));
+                }
+                context.stepCompleted();
+            }
+        }, OperationContext.Stage.RUNTIME);
+
+        context.stepCompleted();
+    }
+
+    private static DeadLetterQueue getDeadLetters(OperationContext context, boolean modify) throws OperationFailedException {
+        final ServiceController<?> controller = context.getServiceRegistry(modify).getService(ServletExecutorConsumerService.NAME);
+        final DeadLetterQueue deadLetters = (controller != null) ? ((ServletExecutorConsumerService) controller.getService()).getDeadLetters() : null;
+        if (deadLetters == null) {
+            throw new OperationFailedException(new ModelNode().set("Dead letter queue is not available, task queue consumer not running or queue/capedwarfDeadLetter not configured."));
+        }
+        return deadLetters;
+    }
+
+    private static void setIfNotNull(ModelNode node, String name, String value) {
+        if (value != null) {
+            node.get(name).set(value);
+        }
+    }
+}
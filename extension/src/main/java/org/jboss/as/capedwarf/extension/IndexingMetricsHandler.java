@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.extension;
+
+import java.util.Map;
+
+import org.jboss.as.capedwarf.services.IndexingMetrics;
+import org.jboss.as.controller.OperationContext;
+import org.jboss.as.controller.OperationFailedException;
+import org.jboss.as.controller.OperationStepHandler;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Read indexing backlog metrics.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class IndexingMetricsHandler implements OperationStepHandler {
+    static final IndexingMetricsHandler INSTANCE = new IndexingMetricsHandler();
+
+    private IndexingMetricsHandler() {
+    }
+
+    public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+        final String name = operation.require(ModelDescriptionConstants.NAME).asString();
+        final IndexingMetrics metrics = IndexingMetrics.getInstance();
+        final ModelNode result = context.getResult();
+        if (CapedwarfModel.INDEXING_BACKPRESSURE.equals(name)) {
+            result.set(metrics.isBackpressure());
+        } else if (CapedwarfModel.INDEXING_PENDING_WORKS.equals(name)) {
+            result.set(metrics.getPendingWorks());
+        } else if (CapedwarfModel.INDEX_METRICS.equals(name)) {
+            result.setEmptyList();
+            for (Map.Entry<String, IndexingMetrics.Stats> entry : metrics.getIndexes().entrySet()) {
+                final IndexingMetrics.Stats stats = entry.getValue();
+                final ModelNode index = new ModelNode();
+                index.get(CapedwarfModel.INDEX_NAME).set(entry.getKey());
+                index.get(CapedwarfModel.PENDING_WORKS).set(stats.getPendingWorks());
+                index.get(CapedwarfModel.WORKS_APPLIED).set(stats.getAppliedWorks());
+                index.get(CapedwarfModel.WORKS_PER_SECOND).set(stats.getWorksPerSecond());
+                index.get(CapedwarfModel.LAG).set(stats.getLag());
+                index.get(CapedwarfModel.APPLY_LATENCY).set(stats.getApplyLatency());
+                result.add(index);
+            }
+        }
+        context.stepCompleted();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.extension;
+
+import java.util.concurrent.Executor;
+
+import org.infinispan.Cache;
+import org.jboss.as.capedwarf.deployment.CapedwarfCacheProcessor;
+import org.jboss.as.capedwarf.services.IndexRebuilder;
+import org.jboss.as.capedwarf.utils.Constants;
+import org.jboss.as.controller.OperationContext;
+import org.jboss.as.controller.OperationDefinition;
+import org.jboss.as.controller.OperationFailedException;
+import org.jboss.as.controller.OperationStepHandler;
+import org.jboss.as.controller.SimpleAttributeDefinition;
+import org.jboss.as.controller.SimpleAttributeDefinitionBuilder;
+import org.jboss.as.controller.SimpleOperationDefinitionBuilder;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.as.controller.operations.validation.IntRangeValidator;
+import org.jboss.as.controller.operations.validation.StringLengthValidator;
+import org.jboss.capedwarf.shared.config.CacheName;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.msc.service.ServiceController;
+
+/**
+ * Rebuild app's cache indexes, and report the rebuild progress.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class RebuildIndexHandler implements OperationStepHandler {
+    static final RebuildIndexHandler INSTANCE = new RebuildIndexHandler();
+
+    private static final SimpleAttributeDefinition APP_ID =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.APP_ID, ModelType.STRING, false)
+                    .setValidator(new StringLengthValidator(1, false))
+                    .build();
+
+    private static final SimpleAttributeDefinition CACHE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.CACHE, ModelType.STRING, true)
+                    .setDefaultValue(new ModelNode(CacheName.DEFAULT.getName()))
+                    .build();
+
+    private static final SimpleAttributeDefinition THREADS =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.THREADS, ModelType.INT, true)
+                    .setDefaultValue(new ModelNode(2))
+                    .setValidator(new IntRangeValidator(1, true, false))
+                    .build();
+
+    private static final SimpleAttributeDefinition BATCH_SIZE =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.BATCH_SIZE, ModelType.INT, true)
+                    .setDefaultValue(new ModelNode(100))
+                    .setValidator(new IntRangeValidator(1, true, false))
+                    .build();
+
+    private static final SimpleAttributeDefinition MAX_PER_SECOND =
+            new SimpleAttributeDefinitionBuilder(CapedwarfModel.MAX_PER_SECOND, ModelType.INT, true)
+                    .setDefaultValue(new ModelNode(0))
+                    .setValidator(new IntRangeValidator(0, true, false))
+                    .build();
+
+    static final OperationDefinition REBUILD =
+            new SimpleOperationDefinitionBuilder(CapedwarfModel.REBUILD_INDEX, CapedwarfExtension.getResourceDescriptionResolver(CapedwarfExtension.SUBSYSTEM_NAME))
+                    .setParameters(APP_ID, CACHE, THREADS, BATCH_SIZE, MAX_PER_SECOND)
+                    .setReplyType(ModelType.OBJECT)
+                    .setRuntimeOnly()
+                    .build();
+
+    static final OperationDefinition STATUS =
+            new SimpleOperationDefinitionBuilder(CapedwarfModel.INDEX_REBUILD_STATUS, CapedwarfExtension.getResourceDescriptionResolver(CapedwarfExtension.SUBSYSTEM_NAME))
+                    .setParameters(APP_ID, CACHE)
+                    .setReplyType(ModelType.OBJECT)
+                    .setReadOnly()
+                    .setRuntimeOnly()
+                    .build();
+
+    private RebuildIndexHandler() {
+    }
+
+    public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+        final String appId = APP_ID.resolveModelAttribute(context, operation).asString();
+        final CacheName cacheName = toCacheName(CACHE.resolveModelAttribute(context, operation).asString());
+        final boolean rebuild = CapedwarfModel.REBUILD_INDEX.equals(operation.require(ModelDescriptionConstants.OP).asString());
+        final int threads = THREADS.resolveModelAttribute(context, operation).asInt();
+        final int batchSize = BATCH_SIZE.resolveModelAttribute(context, operation).asInt();
+        final int maxPerSecond = MAX_PER_SECOND.resolveModelAttribute(context, operation).asInt();
+
+        context.addStep(new OperationStepHandler() {
+            public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+                final IndexRebuilder rebuilder;
+                if (rebuild) {
+                    final Cache cache = getCache(context, appId, cacheName);
+                    try {
+                        rebuilder = IndexRebuilder.start(cacheName, cache, getExecutor(context), threads, batchSize, maxPerSecond);
+                    } catch (IllegalStateException e) {
+                        throw new OperationFailedException(new ModelNode().set(e.getMessage()));
+                    }
+                } else {
+                    rebuilder = IndexRebuilder.get(cacheName.getFullName(appId));
+                    if (rebuilder == null) {
+                        throw new OperationFailedException(new ModelNode().set("No index rebuild of " + cacheName.getName() + " cache for app " + appId));
+                    }
+                }
+                final ModelNode result = context.getResult();
+                result.get(CapedwarfModel.RUNNING).set(rebuilder.isRunning());
+                result.get(CapedwarfModel.TOTAL).set(rebuilder.getTotal());
+                result.get(CapedwarfModel.INDEXED).set(rebuilder.getIndexed());
+                result.get(CapedwarfModel.FAILED).set(rebuilder.getFailed());
+                result.get(CapedwarfModel.DELETED).set(rebuilder.getDeleted());
+                result.get(CapedwarfModel.STARTED).set(rebuilder.getStarted());
+                if (rebuilder.isRunning() == false) {
+                    result.get(CapedwarfModel.FINISHED).set(rebuilder.getFinished());
+                }
+                if (rebuilder.getError() != null) {
+                    result.get(CapedwarfModel.ERROR).set(rebuilder.getError());
+                }
+                context.stepCompleted();
+            }
+        }, OperationContext.Stage.RUNTIME);
+
+        context.stepCompleted();
+    }
+
+    private static CacheName toCacheName(String name) throws OperationFailedException {
+        for (CacheName cn : CacheName.values()) {
+            if (cn.getName().equals(name)) {
+                return cn;
+            }
+        }
+        throw new OperationFailedException(new ModelNode().set("No such cache: " + name));
+    }
+
+    private static Executor getExecutor(OperationContext context) {
+        final ServiceController<?> controller = context.getServiceRegistry(false).getService(Constants.OPTIONAL_EXECUTOR_NAME);
+        return (controller != null && controller.getState() == ServiceController.State.UP) ? (Executor) controller.getValue() : null;
+    }
+
+    private static Cache getCache(OperationContext context, String appId, CacheName cacheName) throws OperationFailedException {
+        final ServiceController<?> controller = context.getServiceRegistry(false).getService(CapedwarfCacheProcessor.toServiceName(appId, cacheName));
+        final Cache cache = (controller != null && controller.getState() == ServiceController.State.UP) ? (Cache) controller.getValue() : null;
+        if (cache == null) {
+            throw new OperationFailedException(new ModelNode().set("Cache " + cacheName.getName() + " of app " + appId + " is not running."));
+        }
+        if (cache.getCacheConfiguration().indexing().enabled() == false) {
+            throw new OperationFailedException(new ModelNode().set("Cache " + cacheName.getName() + " of app " + appId + " is not indexed."));
+        }
+        return cache;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.extension;
+
+import java.util.Map;
+
+import org.jboss.as.capedwarf.services.TaskMetrics;
+import org.jboss.as.controller.OperationContext;
+import org.jboss.as.controller.OperationFailedException;
+import org.jboss.as.controller.OperationStepHandler;
+import org.jboss.as.controller.descriptions.ModelDescriptionConstants;
+import org.jboss.dmr.ModelNode;
+
+/**
+ * Read task execution metrics.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class TaskMetricsHandler implements OperationStepHandler {
+    static final TaskMetricsHandler INSTANCE = new TaskMetricsHandler();
+
+    private TaskMetricsHandler() {
+    }
+
+    public void execute(OperationContext context, ModelNode operation) throws OperationFailedException {
+        final String name = operation.require(ModelDescriptionConstants.NAME).asString();
+        final TaskMetrics metrics = TaskMetrics.getInstance();
+        final ModelNode result = context.getResult();
+        if (CapedwarfModel.APP_TASK_METRICS.equals(name)) {
+            result.setEmptyList();
+            for (Map.Entry<String, TaskMetrics.Stats> entry : metrics.getApps().entrySet()) {
+                final ModelNode app = new ModelNode();
+                app.get(CapedwarfModel.APP_ID).set(entry.getKey());
+                for (String metric : new String[]{CapedwarfModel.TASKS_DISPATCHED, CapedwarfModel.TASKS_FAILED, CapedwarfModel.TASKS_SKIPPED, CapedwarfModel.TASKS_IN_FLIGHT, CapedwarfModel.TASK_LATENCY_P50, CapedwarfModel.TASK_LATENCY_P95, CapedwarfModel.TASK_LATENCY_P99}) {
+                    setValue(app.get(metric), metric, entry.getValue());
+                }
+                result.add(app);
+            }
+        } else {
+            setValue(result, name, metrics.getTotal());
+        }
+        context.stepCompleted();
+    }
+
+    private static void setValue(ModelNode node, String name, TaskMetrics.Stats stats) {
+        switch (name) {
+            case CapedwarfModel.TASKS_DISPATCHED:
+                node.set(stats.getDispatched());
+                break;
+            case CapedwarfModel.TASKS_FAILED:
+                node.set(stats.getFailed());
+                break;
+            case CapedwarfModel.TASKS_SKIPPED:
+                node.set(stats.getSkipped());
+                break;
+            case CapedwarfModel.TASKS_IN_FLIGHT:
+                node.set(stats.getInFlight());
+                break;
+            case CapedwarfModel.TASK_LATENCY_P50:
+                node.set(stats.getLatency(0.50));
+                break;
+            case CapedwarfModel.TASK_LATENCY_P95:
+                node.set(stats.getLatency(0.95));
+                break;
+            case CapedwarfModel.TASK_LATENCY_P99:
+                node.set(stats.getLatency(0.99));
+                break;
+        }
+    }
+}
@@ -37,13 +37,49 @@ import org.infinispan.manager.EmbeddedCacheManager;
 public abstract class AbstractConfigurationCallback implements ConfigurationCallback {
     protected final Logger log = Logger.getLogger(getClass().getName());
 
+    private CacheOverride override;
+    private MemoryBudget memoryBudget;
+
     public ConfigurationBuilder configure(Configuration configuration) {
         ConfigurationBuilder builder = new ConfigurationBuilder();
         builder.read(configuration);
         applyBuilder(builder);
+        if (override != null) {
+            log.info("Applying app's cache override: " + override);
+            override.apply(builder);
+        }
+        if (memoryBudget != null) {
+            memoryBudget.configure(builder);
+        }
         return builder;
     }
 
+    /**
+     * Set app's override of the template config.
+     *
+     * @param override the override, can be null
+     */
+    public void setOverride(CacheOverride override) {
+        this.override = override;
+    }
+
+    /**
+     * Set app's memory budget, shared with its other budgeted caches.
+     *
+     * @param memoryBudget the budget, can be null
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    CacheOverride getOverride() {
+        return override;
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     protected abstract void applyBuilder(ConfigurationBuilder builder);
 
     public void start(EmbeddedCacheManager manager) {
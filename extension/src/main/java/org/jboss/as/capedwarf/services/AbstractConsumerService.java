@@ -22,9 +22,13 @@
 
 package org.jboss.as.capedwarf.services;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.Queue;
@@ -54,52 +58,148 @@ public abstract class AbstractConsumerService<T> implements Service<T> {
 
     protected Connection connection;
 
+    private int poolSize = 1;
+    private int batchSize = 1;
+    private long batchLinger;
+
+    private String name;
+    private Queue destination;
+    private final List<PooledConsumer> consumers = new ArrayList<>();
+
     protected static <T> T cast(Class<T> clazz, ManagedReferenceFactory mrf) {
         return clazz.cast(mrf.getReference().getInstance());
     }
 
     protected abstract MessageListener createMessageListener();
 
-    public void start(StartContext context) throws StartException {
+    /**
+     * The connection factory we register for apps to send messages.
+     *
+     * @param factory the real factory
+     * @return factory to register
+     */
+    protected ConnectionFactory exposeConnectionFactory(ConnectionFactory factory) {
+        return factory;
+    }
+
+    /**
+     * Do we expose our connection factory and queue to apps.
+     *
+     * @return true by default
+     */
+    protected boolean isExposed() {
+        return true;
+    }
+
+    /**
+     * Acknowledge mode of non-batching consumer sessions.
+     * If the provider doesn't support the mode, we fall back to auto acknowledge.
+     *
+     * @return the acknowledge mode, auto acknowledge by default
+     */
+    protected int getAcknowledgeMode() {
+        return Session.AUTO_ACKNOWLEDGE;
+    }
+
+    /**
+     * Do consumers receive messages in transacted batches.
+     *
+     * @return true if batch size is more than one
+     */
+    protected boolean isBatching() {
+        return batchSize > 1;
+    }
+
+    public synchronized void start(StartContext context) throws StartException {
         try {
             final ConnectionFactory cf = cast(ConnectionFactory.class, factory.getValue());
             final Connection qc = cf.createConnection();
-            final Session session = qc.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            final Queue q = cast(Queue.class, queue.getValue());
-            final MessageConsumer consumer = session.createConsumer(q);
-            consumer.setMessageListener(createMessageListener());
+            name = String.valueOf(context.getController().getName());
+            destination = cast(Queue.class, queue.getValue());
+            connection = qc;
+            resize();
 
-            ComponentRegistry registry = ComponentRegistry.getInstance();
-            registry.setComponent(Keys.CONNECTION_FACTORY, cf);
-            registry.setComponent(Keys.QUEUE, q);
+            if (isExposed()) {
+                ComponentRegistry registry = ComponentRegistry.getInstance();
+                registry.setComponent(Keys.CONNECTION_FACTORY, exposeConnectionFactory(cf));
+                registry.setComponent(Keys.QUEUE, destination);
+            }
 
             qc.start();
-            connection = qc;
         } catch (Exception e) {
             throw new StartException("Cannot start JMS connection.", e);
         }
     }
 
-    public void stop(StopContext context) {
+    public synchronized void stop(StopContext context) {
         try {
-            ComponentRegistry registry = ComponentRegistry.getInstance();
-            registry.removeComponent(Keys.CONNECTION_FACTORY);
-            registry.removeComponent(Keys.QUEUE);
+            if (isExposed()) {
+                ComponentRegistry registry = ComponentRegistry.getInstance();
+                registry.removeComponent(Keys.CONNECTION_FACTORY);
+                registry.removeComponent(Keys.QUEUE);
+            }
         } finally {
             try {
                 connection.stop();
             } catch (JMSException e) {
                 log.error("Error stopping JMS connection.", e);
             } finally {
+                for (PooledConsumer consumer : consumers) {
+                    consumer.close();
+                }
+                consumers.clear();
                 try {
                     connection.close();
                 } catch (JMSException e) {
                     log.warn("Error closing JMS connection.", e);
                 }
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Change the number of concurrent consumers.
+     * If the service is already running, consumers are added or removed on the fly.
+     *
+     * @param poolSize the new pool size
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+        if (connection != null) {
+            try {
+                resize();
+            } catch (JMSException e) {
+                log.errorf(e, "Error resizing JMS consumer pool to %s.", poolSize);
             }
         }
     }
 
+    public synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    private void resize() throws JMSException {
+        while (consumers.size() < poolSize) {
+            consumers.add(new PooledConsumer(consumers.size()));
+        }
+        while (consumers.size() > poolSize) {
+            consumers.remove(consumers.size() - 1).close();
+        }
+    }
+
+    protected Queue getDestination() {
+        return destination;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchLinger(long batchLinger) {
+        this.batchLinger = batchLinger;
+    }
+
     public InjectedValue<ManagedReferenceFactory> getFactory() {
         return factory;
     }
@@ -107,4 +207,72 @@ public abstract class AbstractConsumerService<T> implements Service<T> {
     public InjectedValue<ManagedReferenceFactory> getQueue() {
         return queue;
     }
+
+    /**
+     * Single session and consumer, either with a listener or a batching receive loop.
+     */
+    private class PooledConsumer {
+        private final Session session;
+        private final MessageConsumer consumer;
+        private final BatchingConsumer batchingConsumer;
+
+        private PooledConsumer(int index) throws JMSException {
+            final boolean batching = isBatching();
+            session = createSession(batching);
+            consumer = session.createConsumer(destination);
+            if (batching) {
+                batchingConsumer = new BatchingConsumer(session, consumer, createMessageListener(), batchSize, batchLinger);
+                batchingConsumer.start("CapeDwarf JMS batch consumer - " + name + " #" + index);
+            } else {
+                batchingConsumer = null;
+                final MessageListener listener = createMessageListener();
+                if (listener instanceof BatchListener) {
+                    consumer.setMessageListener(new MessageListener() {
+                        public void onMessage(Message message) {
+                            try {
+                                listener.onMessage(message);
+                                ((BatchListener) listener).flush();
+                            } catch (RuntimeException e) {
+                                ((BatchListener) listener).discard();
+                                throw e;
+                            }
+                        }
+                    });
+                } else {
+                    consumer.setMessageListener(listener);
+                }
+            }
+        }
+
+        private Session createSession(boolean batching) throws JMSException {
+            if (batching) {
+                return connection.createSession(true, Session.SESSION_TRANSACTED);
+            }
+            final int mode = getAcknowledgeMode();
+            if (mode != Session.AUTO_ACKNOWLEDGE) {
+                try {
+                    return connection.createSession(false, mode);
+                } catch (JMSException e) {
+                    log.warnf("Acknowledge mode %s not supported, falling back to auto acknowledge: %s", mode, e);
+                }
+            }
+            return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+
+        private void close() {
+            if (batchingConsumer != null) {
+                batchingConsumer.stop();
+            }
+            try {
+                consumer.close();
+            } catch (JMSException e) {
+                log.warn("Error closing JMS consumer.", e);
+            }
+            try {
+                session.close();
+            } catch (JMSException e) {
+                log.warn("Error closing JMS session.", e);
+            }
+        }
+    }
 }
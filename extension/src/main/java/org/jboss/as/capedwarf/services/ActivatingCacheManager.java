@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.Cache;
+import org.infinispan.manager.AbstractDelegatingEmbeddedCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+
+/**
+ * Cache manager exposed to apps.
+ *
+ * Lazy caches are handed out through their {@link CacheActivator},
+ * so they are started with the usual configuration callbacks, and survive idle stop.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class ActivatingCacheManager extends AbstractDelegatingEmbeddedCacheManager {
+    ActivatingCacheManager(EmbeddedCacheManager cm) {
+        super(cm);
+    }
+
+    private static CacheActivator getActivator(String cacheName) {
+        return ComponentRegistry.getInstance().getComponent(CacheActivator.toKey(cacheName));
+    }
+
+    @Override
+    public <K, V> Cache<K, V> getCache(String cacheName) {
+        return getCache(cacheName, true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> Cache<K, V> getCache(String cacheName, boolean createIfAbsent) {
+        final CacheActivator activator = getActivator(cacheName);
+        if (activator == null) {
+            return super.getCache(cacheName, createIfAbsent);
+        }
+        if (createIfAbsent == false && activator.getRunningCache() == null) {
+            return null;
+        }
+        return activator.getCache();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Drains up to batch-size messages (or waits up to linger ms),
+ * hands them to the listener and commits them in one transaction.
+ *
+ * Delivery is at-least-once. While the listener runs, the batch's session is bound to the thread,
+ * so the listener's retries and dead letters are sent as part of the batch's transaction,
+ * and committed together with the acknowledgement of the batch.
+ * If the listener throws, i.e. it couldn't handle the failure itself, or a buffering listener fails,
+ * the whole batch is rolled back and redelivered, possibly to another consumer, running its messages again;
+ * redelivery bumps the delivery count, so the broker's max delivery attempts still apply.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class BatchingConsumer implements Runnable {
+    private static final Logger log = Logger.getLogger(BatchingConsumer.class);
+
+    private static final long RECEIVE_TIMEOUT = 1000L;
+    private static final long STOP_TIMEOUT = 5000L;
+
+    private final Session session;
+    private final MessageConsumer consumer;
+    private final MessageListener listener;
+    private final int batchSize;
+    private final long linger;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    BatchingConsumer(Session session, MessageConsumer consumer, MessageListener listener, int batchSize, long linger) {
+        this.session = session;
+        this.consumer = consumer;
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.linger = linger;
+    }
+
+    void start(String name) {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                final Message first = consumer.receive(RECEIVE_TIMEOUT);
+                if (first == null) {
+                    continue;
+                }
+
+                final List<Message> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                final long deadline = System.currentTimeMillis() + linger;
+                while (batch.size() < batchSize) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    final Message next = (remaining > 0) ? consumer.receive(remaining) : consumer.receiveNoWait();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                process(batch);
+            } catch (Throwable t) {
+                if (running) {
+                    log.error("Error consuming JMS message batch.", t);
+                }
+            }
+        }
+    }
+
+    protected void process(List<Message> batch) throws JMSException {
+        boolean rollback = false;
+        TaskRescheduler.setBatchSession(session);
+        try {
+            for (Message message : batch) {
+                try {
+                    listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    log.warnf(e, "Message %s failed, batch of %s will be rolled back.", message.getJMSMessageID(), batch.size());
+                    rollback = true;
+                    break;
+                }
+            }
+        } finally {
+            TaskRescheduler.setBatchSession(null);
+        }
+
+        if (listener instanceof BatchListener) {
+            if (rollback == false) {
+                try {
+                    ((BatchListener) listener).flush();
+                } catch (RuntimeException e) {
+                    log.warnf(e, "Flush failed, batch of %s will be rolled back.", batch.size());
+                    rollback = true;
+                }
+            }
+            if (rollback) {
+                ((BatchListener) listener).discard(); // nothing was applied, redo all
+            }
+        }
+
+        if (rollback) {
+            session.rollback();
+        } else {
+            session.commit();
+        }
+    }
+}
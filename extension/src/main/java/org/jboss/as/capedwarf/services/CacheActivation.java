@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.capedwarf.shared.config.CacheName;
+
+/**
+ * Which per-app caches are started lazily, and when they are stopped again.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheActivation {
+    public static final CacheActivation DEFAULT = new CacheActivation(Collections.<String>emptySet(), 0);
+
+    private final Set<String> lazyCaches;
+    private final long idleTimeout;
+
+    /**
+     * @param lazyCaches names of caches started on first use, e.g. memcache
+     * @param idleTimeout stop lazy caches after being idle for this many millis, 0 to keep them running
+     */
+    public CacheActivation(Set<String> lazyCaches, long idleTimeout) {
+        this.lazyCaches = new HashSet<>(lazyCaches);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Parse comma separated cache names.
+     *
+     * @param lazyCaches the cache names, can be null
+     * @param idleTimeout the idle timeout
+     * @return new activation
+     * @throws IllegalArgumentException for an unknown cache name
+     */
+    public static CacheActivation parse(String lazyCaches, long idleTimeout) {
+        final Set<String> names = new HashSet<>();
+        if (lazyCaches != null) {
+            for (String name : lazyCaches.split(",")) {
+                name = name.trim();
+                if (name.length() > 0) {
+                    names.add(toCacheName(name).getName());
+                }
+            }
+        }
+        return new CacheActivation(names, idleTimeout);
+    }
+
+    private static CacheName toCacheName(String name) {
+        for (CacheName cn : CacheName.values()) {
+            if (cn.getName().equals(name)) {
+                return cn;
+            }
+        }
+        throw new IllegalArgumentException("No such cache: " + name);
+    }
+
+    public boolean isLazy(String cacheName) {
+        return lazyCaches.contains(cacheName);
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+}
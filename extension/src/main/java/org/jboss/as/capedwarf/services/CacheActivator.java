@@ -0,0 +1,286 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.lifecycle.ComponentStatus;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.stats.Stats;
+import org.jboss.as.capedwarf.utils.Constants;
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.Key;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+import org.jboss.logging.Logger;
+
+/**
+ * Starts a lazy cache on first use, and optionally stops it again once idle.
+ *
+ * Registered in the component registry under {@link #toKey(String)},
+ * apps get it through the cache manager, see {@link ActivatingCacheManager}.
+ * The activator hands out a handle, which re-starts the cache on each use if needed,
+ * so held references survive idle stop; the cache is never stopped during an operation.
+ * Listeners added through the handle are re-added on re-start.
+ * Metadata calls, e.g. getName() or getStatus(), are answered w/o starting the cache.
+ * Objects the cache returns, e.g. withFlags() decorators, are bound to the current cache instance.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class CacheActivator {
+    private static final Logger log = Logger.getLogger(CacheActivator.class);
+
+    private static final long MIN_CHECK_PERIOD = 1000L;
+    private static final long MAX_CHECK_PERIOD = 60 * 1000L;
+    private static final Set<String> METADATA = new HashSet<>(Arrays.asList("toString", "getName", "getStatus", "getCacheConfiguration", "getCacheManager"));
+
+    private static volatile ScheduledExecutorService scheduler;
+
+    private final EmbeddedCacheManager manager;
+    private final String cacheName;
+    private final ConfigurationCallback callback;
+    private final long idleTimeout;
+
+    private final ReadWriteLock inUse = new ReentrantReadWriteLock();
+    private final Set<Object> listeners = new CopyOnWriteArraySet<>();
+    private final AdvancedCache handle;
+
+    private volatile Cache cache;
+    private ScheduledFuture<?> idleCheck;
+    private long lastOperations = -1;
+    private long idleSince;
+
+    CacheActivator(EmbeddedCacheManager manager, String cacheName, ConfigurationCallback callback, long idleTimeout) {
+        this.manager = manager;
+        this.cacheName = cacheName;
+        this.callback = callback;
+        this.idleTimeout = idleTimeout;
+        this.handle = (AdvancedCache) Proxy.newProxyInstance(AdvancedCache.class.getClassLoader(), new Class<?>[]{AdvancedCache.class}, new Handle());
+    }
+
+    public static Key<CacheActivator> toKey(String cacheName) {
+        return new SimpleKey<>(Constants.CAPEDWARF, cacheName, CacheActivator.class);
+    }
+
+    /**
+     * Idle detection needs cache statistics.
+     */
+    static void configure(ConfigurationBuilder builder, long idleTimeout) {
+        if (idleTimeout > 0) {
+            builder.jmxStatistics().enable();
+        }
+    }
+
+    /**
+     * Get the cache handle, the cache is started on first use.
+     *
+     * @return the cache handle
+     */
+    public Cache getCache() {
+        return handle;
+    }
+
+    /**
+     * Get the cache, starting it if needed.
+     *
+     * @return the running cache
+     */
+    private Cache activate() {
+        final Cache current = cache;
+        if (current != null && current.getStatus() == ComponentStatus.RUNNING) {
+            return current;
+        }
+        synchronized (this) {
+            if (cache == null || cache.getStatus() != ComponentStatus.RUNNING) {
+                final long start = System.currentTimeMillis();
+                final Cache started = CacheLifecycleService.startCache(manager, cacheName, callback);
+                for (Object listener : listeners) {
+                    started.addListener(listener);
+                }
+                cache = started;
+                lastOperations = -1;
+                idleSince = System.currentTimeMillis();
+                log.infof("Started lazy cache %s in %sms.", cacheName, idleSince - start);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return the cache if it is running, null otherwise
+     */
+    Cache getRunningCache() {
+        final Cache current = cache;
+        return (current != null && current.getStatus() == ComponentStatus.RUNNING) ? current : null;
+    }
+
+    synchronized void register() {
+        ComponentRegistry.getInstance().setComponent(toKey(cacheName), this);
+        if (idleTimeout > 0) {
+            final long period = Math.max(MIN_CHECK_PERIOD, Math.min(MAX_CHECK_PERIOD, idleTimeout / 2));
+            idleCheck = getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Unregister the activator.
+     *
+     * @return the running cache, to be stopped by the caller
+     */
+    synchronized Cache unregister() {
+        ComponentRegistry.getInstance().removeComponent(toKey(cacheName));
+        if (idleCheck != null) {
+            idleCheck.cancel(false);
+            idleCheck = null;
+        }
+        final Cache current = getRunningCache();
+        cache = null;
+        listeners.clear();
+        return current;
+    }
+
+    private void checkIdle() {
+        if (inUse.writeLock().tryLock() == false) {
+            return; // in use, so not idle
+        }
+        try {
+            synchronized (manager) {
+                synchronized (this) {
+                    final Cache current = getRunningCache();
+                    if (current == null) {
+                        return;
+                    }
+                    final Stats stats = current.getAdvancedCache().getStats();
+                    final long operations = stats.getRetrievals() + stats.getStores() + stats.getRemoveHits() + stats.getRemoveMisses();
+                    final long now = System.currentTimeMillis();
+                    if (operations != lastOperations) {
+                        lastOperations = operations;
+                        idleSince = now;
+                    } else if (now - idleSince >= idleTimeout) {
+                        cache = null;
+                        CacheLifecycleService.stopCache(manager, cacheName, current, callback);
+                        log.infof("Stopped idle cache %s.", cacheName);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            log.warnf(t, "Cannot check idle cache %s.", cacheName);
+        } finally {
+            inUse.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Runs each operation against the running cache, which cannot be stopped meanwhile.
+     */
+    private class Handle implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name) && args == null) {
+                return System.identityHashCode(proxy);
+            } else if ("getAdvancedCache".equals(name)) {
+                return proxy;
+            } else if (args == null && METADATA.contains(name)) {
+                return metadata(method);
+            }
+
+            inUse.readLock().lock();
+            try {
+                final AdvancedCache current = activate().getAdvancedCache();
+                if ("addListener".equals(name) && args != null && args.length == 1) {
+                    listeners.add(args[0]);
+                } else if ("removeListener".equals(name) && args != null && args.length == 1) {
+                    listeners.remove(args[0]);
+                }
+                return method.invoke(current, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                inUse.readLock().unlock();
+            }
+        }
+
+        private Object metadata(Method method) throws Throwable {
+            final Cache current = getRunningCache();
+            if (current != null) {
+                try {
+                    return method.invoke(current.getAdvancedCache());
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            switch (method.getName()) {
+                case "getName":
+                    return cacheName;
+                case "getStatus":
+                    return ComponentStatus.INSTANTIATED; // started on use
+                case "getCacheConfiguration":
+                    return manager.getCacheConfiguration(cacheName);
+                case "getCacheManager":
+                    return manager;
+                default:
+                    return "Lazy cache " + cacheName;
+            }
+        }
+    }
+
+    private static ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (CacheActivator.class) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            final Thread thread = new Thread(r, "CapeDwarf cache idle check");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+}
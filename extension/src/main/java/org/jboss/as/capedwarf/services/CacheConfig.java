@@ -32,4 +32,5 @@ public interface CacheConfig {
     CacheIndexing getIndexing();
     boolean storeAsBinary();
     boolean defensive();
+    long offHeap();
 }
@@ -35,6 +35,7 @@ public class CacheConfigs {
         private CacheIndexing indexing;
         private boolean storeAsBinary;
         private boolean defensive;
+        private long offHeap;
 
         private CacheConfigImpl(CacheName cacheName, int prefix) {
             this.cacheName = cacheName;
@@ -56,6 +57,10 @@ public class CacheConfigs {
         public boolean defensive() {
             return defensive;
         }
+
+        public long offHeap() {
+            return offHeap;
+        }
     }
 
     public static void storeAsBinary(CacheConfig config) {
@@ -70,6 +75,12 @@ public class CacheConfigs {
         }
     }
 
+    public static void offHeap(CacheConfig config, long maxBytes) {
+        if (config instanceof CacheConfigImpl) {
+            CacheConfigImpl.class.cast(config).offHeap = maxBytes;
+        }
+    }
+
     /**
      * DEFAULT = 3 * 1 - 1 = 2
      * SEARCH = 3 * (-1) + 1 = -2
@@ -111,6 +122,12 @@ public class CacheConfigs {
         return config;
     }
 
+    public static CacheConfig createMemcacheConfig(long offHeap) {
+        CacheConfigImpl config = new CacheConfigImpl(CacheName.MEMCACHE, 0);
+        config.offHeap = offHeap;
+        return config;
+    }
+
     public static CacheConfig createCacheConfig(CacheName cacheName) {
         return new CacheConfigImpl(cacheName, 0);
     }
@@ -22,6 +22,9 @@
 
 package org.jboss.as.capedwarf.services;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.infinispan.Cache;
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
@@ -36,6 +39,11 @@ import org.jboss.msc.value.InjectedValue;
 /**
  * Start / Stop cache.
  *
+ * With an executor, the cache is started asynchronously, so an app's caches
+ * do state transfer and index bootstrap concurrently, see {@link CacheStartExecutorService}.
+ * A lazy cache is only defined, and started on first use;
+ * its value is the activator's handle, see {@link CacheActivator#getCache()}.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class CacheLifecycleService extends AbstractConfigurationCallback implements Service<Cache> {
@@ -44,55 +52,162 @@ public class CacheLifecycleService extends AbstractConfigurationCallback impleme
 
     private final InjectedValue<EmbeddedCacheManager> ecmiv = new InjectedValue<>();
     private final InjectedValue<Configuration> civ = new InjectedValue<>();
+    private final InjectedValue<ExecutorService> executor = new InjectedValue<>();
+
+    private final boolean lazy;
+    private final long idleTimeout;
 
-    private Cache cache;
+    private volatile Cache cache;
+    private volatile CacheActivator activator;
 
     public CacheLifecycleService(String cacheName) {
         this(cacheName, null);
     }
 
     public CacheLifecycleService(String cacheName, ConfigurationCallback callback) {
+        this(cacheName, callback, false, 0);
+    }
+
+    /**
+     * @param cacheName the cache name
+     * @param callback the configuration callback
+     * @param lazy only define the cache, it is started on first use through its {@link CacheActivator}
+     * @param idleTimeout stop lazy cache after being idle for this many millis, 0 to keep it running
+     */
+    public CacheLifecycleService(String cacheName, ConfigurationCallback callback, boolean lazy, long idleTimeout) {
         this.cacheName = cacheName;
         this.callback = callback;
+        this.lazy = lazy;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void start(final StartContext context) throws StartException {
+        final ExecutorService es = executor.getOptionalValue();
+        if (es == null) {
+            timedStart();
+            return;
+        }
+
+        final ClassLoader tccl = SecurityActions.setTCCL(null); // null only reads current TCCL
+        context.asynchronous();
+        try {
+            es.execute(new Runnable() {
+                public void run() {
+                    final ClassLoader previous = SecurityActions.setTCCL(tccl);
+                    try {
+                        startAndComplete(context);
+                    } finally {
+                        SecurityActions.setTCCL(previous);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            startAndComplete(context);
+        }
     }
 
-    public void start(StartContext context) throws StartException {
+    private void startAndComplete(StartContext context) {
+        try {
+            timedStart();
+            context.complete();
+        } catch (StartException e) {
+            context.failed(e);
+        } catch (Throwable t) {
+            context.failed(new StartException(t));
+        }
+    }
+
+    private void timedStart() throws StartException {
+        final long start = System.currentTimeMillis();
+        doStart();
+        if (lazy) {
+            log.info(String.format("Defined lazy cache %s.", cacheName));
+        } else {
+            log.info(String.format("Started cache %s in %sms.", cacheName, System.currentTimeMillis() - start));
+        }
+    }
+
+    private void doStart() throws StartException {
         final EmbeddedCacheManager cacheManager = getCacheManager();
 
         final ConfigurationCallback cc = (callback != null) ? callback : this;
 
-        cache = cacheManager.getCache(cacheName, false);
+        if (cacheManager.getCache(cacheName, false) == null) {
+            final ConfigurationBuilder builder = cc.configure(civ.getValue());
+            if (lazy) {
+                CacheActivator.configure(builder, idleTimeout);
+            }
+            cacheManager.defineConfiguration(cacheName, builder.build());
+        }
+
+        if (lazy) {
+            activator = new CacheActivator(cacheManager, cacheName, cc, idleTimeout);
+            activator.register();
+        } else {
+            cache = startCache(cacheManager, cacheName, cc);
+        }
+    }
+
+    public void stop(StopContext context) {
+        synchronized (getCacheManager()) {
+            final Cache tmp;
+            if (activator != null) {
+                tmp = activator.unregister();
+                activator = null;
+            } else {
+                tmp = cache;
+                cache = null;
+            }
+            if (tmp != null) {
+                stopCache(getCacheManager(), cacheName, tmp, (callback != null) ? callback : this);
+            }
+        }
+    }
+
+    /**
+     * Start the defined cache, or re-start a stopped one.
+     */
+    static Cache startCache(EmbeddedCacheManager cacheManager, String cacheName, ConfigurationCallback cc) {
+        Cache cache = cacheManager.getCache(cacheName, false);
         if (cache != null) {
             final ComponentStatus status = cache.getStatus();
             if (status != ComponentStatus.INITIALIZING && status != ComponentStatus.RUNNING) {
                 cc.start(cacheManager);
                 cache.start(); // re-start stopped cache
+                IndexManagerCache.invalidate(cacheName);
                 cc.start(cache);
+                track(cache, cc);
             }
-            return;
+            return cache;
         }
 
-        final ConfigurationBuilder builder = cc.configure(civ.getValue());
-        cacheManager.defineConfiguration(cacheName, builder.build());
-
         cc.start(cacheManager);
         cache = cacheManager.getCache(cacheName, true);
         cc.start(cache);
+        track(cache, cc);
+        return cache;
     }
 
-    public void stop(StopContext context) {
-        synchronized (getCacheManager()) {
-            final Cache tmp = cache;
-            cache = null;
-            if (tmp != null) {
-                final ConfigurationCallback cc = (callback != null) ? callback : this;
-                try {
-                    cc.stop(tmp);
-                } finally {
-                    tmp.stop();
-                    cc.stop(getCacheManager());
-                }
-            }
+    private static void track(Cache cache, ConfigurationCallback cc) {
+        final MemoryBudget budget = MemoryBudget.of(cc);
+        if (budget != null) {
+            budget.track(cache);
+        }
+    }
+
+    static void stopCache(EmbeddedCacheManager cacheManager, String cacheName, Cache cache, ConfigurationCallback cc) {
+        IndexManagerCache.invalidate(cacheName);
+        IndexingMetrics.getInstance().clear(cacheName);
+        IndexRebuilder.clear(cacheName);
+        final MemoryBudget budget = MemoryBudget.of(cc);
+        if (budget != null) {
+            budget.untrack(cache);
+        }
+        try {
+            cc.stop(cache);
+        } finally {
+            cache.stop();
+            cc.stop(cacheManager);
         }
     }
 
@@ -101,7 +216,8 @@ public class CacheLifecycleService extends AbstractConfigurationCallback impleme
     }
 
     public Cache getValue() throws IllegalStateException, IllegalArgumentException {
-        return cache;
+        final CacheActivator ca = activator;
+        return (ca != null) ? ca.getCache() : cache;
     }
 
     protected void applyBuilder(ConfigurationBuilder builder) {
@@ -114,4 +230,8 @@ public class CacheLifecycleService extends AbstractConfigurationCallback impleme
     public InjectedValue<Configuration> getCiv() {
         return civ;
     }
+
+    public InjectedValue<ExecutorService> getExecutor() {
+        return executor;
+    }
 }
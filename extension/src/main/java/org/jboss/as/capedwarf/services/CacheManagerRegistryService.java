@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.jboss.capedwarf.shared.components.Keys;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StartException;
+import org.jboss.msc.service.StopContext;
+
+/**
+ * Registers the CapeDwarf cache manager for apps, wrapped so lazy caches are activated on use.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheManagerRegistryService extends ComponentRegistryService<EmbeddedCacheManager> {
+    private volatile EmbeddedCacheManager manager;
+
+    public CacheManagerRegistryService() {
+        super(Keys.CACHE_MANAGER);
+    }
+
+    @Override
+    public void start(StartContext startContext) throws StartException {
+        manager = new ActivatingCacheManager(getInjectedValue().getValue());
+        super.start(startContext);
+    }
+
+    @Override
+    public void stop(StopContext stopContext) {
+        super.stop(stopContext);
+        manager = null;
+    }
+
+    @Override
+    public EmbeddedCacheManager getValue() throws IllegalStateException, IllegalArgumentException {
+        final EmbeddedCacheManager current = manager;
+        if (current == null) {
+            throw new IllegalStateException("Cache manager not started.");
+        }
+        return current;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionStrategy;
+
+/**
+ * App's override of a cache's template config, from capedwarf-web.xml.
+ *
+ * Only set values are applied.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheOverride {
+    private Integer maxEntries;
+    private EvictionStrategy evictionStrategy;
+    private Long lifespan;
+    private Long maxIdle;
+    private Boolean storeAsBinary;
+    private CacheMode cacheMode;
+
+    public void setMaxEntries(Integer maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setEvictionStrategy(EvictionStrategy evictionStrategy) {
+        this.evictionStrategy = evictionStrategy;
+    }
+
+    public void setLifespan(Long lifespan) {
+        this.lifespan = lifespan;
+    }
+
+    public void setMaxIdle(Long maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public void setStoreAsBinary(Boolean storeAsBinary) {
+        this.storeAsBinary = storeAsBinary;
+    }
+
+    public void setCacheMode(CacheMode cacheMode) {
+        this.cacheMode = cacheMode;
+    }
+
+    /**
+     * Limit max entries to the operator's ceiling.
+     *
+     * @param ceiling the max allowed max entries
+     * @return true if the app's max entries was over the ceiling
+     */
+    public boolean limitMaxEntries(int ceiling) {
+        if (maxEntries != null && maxEntries > ceiling) {
+            maxEntries = ceiling;
+            return true;
+        }
+        return false;
+    }
+
+    boolean hasEviction() {
+        return maxEntries != null || evictionStrategy != null;
+    }
+
+    void apply(ConfigurationBuilder builder) {
+        if (maxEntries != null) {
+            builder.eviction().maxEntries(maxEntries);
+        }
+        if (evictionStrategy != null) {
+            builder.eviction().strategy(evictionStrategy);
+        }
+        if (lifespan != null) {
+            builder.expiration().lifespan(lifespan);
+        }
+        if (maxIdle != null) {
+            builder.expiration().maxIdle(maxIdle);
+        }
+        if (storeAsBinary != null) {
+            builder.storeAsBinary().enabled(storeAsBinary);
+        }
+        if (cacheMode != null) {
+            builder.clustering().cacheMode(cacheMode);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheOverride[maxEntries=" + maxEntries + ", evictionStrategy=" + evictionStrategy + ", lifespan=" + lifespan +
+                ", maxIdle=" + maxIdle + ", storeAsBinary=" + storeAsBinary + ", cacheMode=" + cacheMode + "]";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.as.capedwarf.utils.Constants;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StartException;
+import org.jboss.msc.service.StopContext;
+
+/**
+ * Bounded pool for app cache starts.
+ *
+ * Cache starts can block on state transfer for a long time,
+ * so they don't share the CapeDwarf executor with app work.
+ * Starts rejected by a full pool run on the MSC thread.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheStartExecutorService implements Service<ExecutorService> {
+    public static final ServiceName NAME = Constants.CAPEDWARF_NAME.append("CacheStartExecutor");
+
+    private static final int QUEUE_SIZE = 128;
+    private static final long KEEP_ALIVE = 60;
+
+    private final int poolSize;
+    private volatile ThreadPoolExecutor executor;
+
+    public CacheStartExecutorService() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public CacheStartExecutorService(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public void start(StartContext context) throws StartException {
+        final ThreadPoolExecutor tpe = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new CacheStartThreadFactory());
+        tpe.allowCoreThreadTimeOut(true);
+        executor = tpe;
+    }
+
+    public void stop(StopContext context) {
+        final ExecutorService tmp = executor;
+        executor = null;
+        if (tmp != null) {
+            tmp.shutdown();
+        }
+    }
+
+    public ExecutorService getValue() throws IllegalStateException, IllegalArgumentException {
+        final ExecutorService tmp = executor;
+        if (tmp == null) {
+            throw new IllegalStateException("Cache start executor is not started.");
+        }
+        return tmp;
+    }
+
+    private static class CacheStartThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CapeDwarf cache start - " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
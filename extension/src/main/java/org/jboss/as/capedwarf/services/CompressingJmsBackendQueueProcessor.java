@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+import javax.jms.QueueConnection;
+import javax.jms.QueueSender;
+import javax.jms.QueueSession;
+
+import org.hibernate.search.SearchException;
+import org.hibernate.search.backend.IndexingMonitor;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.OptimizeLuceneWork;
+import org.hibernate.search.backend.impl.jms.JmsBackendQueueTask;
+import org.hibernate.search.backend.impl.jms.JndiJMSBackendQueueProcessor;
+import org.jboss.logging.Logger;
+
+/**
+ * JNDI JMS backend which compresses large serialized works, see {@link IndexingCodec}.
+ *
+ * Use it as worker.backend instead of "jms"; it is configured the same way.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CompressingJmsBackendQueueProcessor extends JndiJMSBackendQueueProcessor {
+    private static final Logger log = Logger.getLogger(CompressingJmsBackendQueueProcessor.class);
+
+    @Override
+    public void applyWork(List<LuceneWork> workList, IndexingMonitor monitor) {
+        if (workList == null) {
+            throw new IllegalArgumentException("workList should not be null");
+        }
+        // like JmsBackendQueueTask, optimize is not sent around
+        final List<LuceneWork> works = new ArrayList<>(workList.size());
+        for (LuceneWork work : workList) {
+            if (work instanceof OptimizeLuceneWork == false) {
+                works.add(work);
+            }
+        }
+        if (works.isEmpty()) {
+            return;
+        }
+
+        final byte[] data = getIndexManager().getSerializer().toSerializedModel(works);
+        QueueConnection connection = null;
+        try {
+            connection = getJMSFactory().createQueueConnection();
+            final QueueSession session = connection.createQueueSession(false, QueueSession.AUTO_ACKNOWLEDGE);
+            final ObjectMessage message = session.createObjectMessage();
+            IndexingCodec.write(message, data);
+            message.setStringProperty(JmsBackendQueueTask.INDEX_NAME_JMS_PROPERTY, getIndexName());
+            final QueueSender sender = session.createSender(getJmsQueue());
+            sender.send(message);
+            session.close();
+        } catch (JMSException e) {
+            throw new SearchException("Unable to send Search work to JMS queue: " + getIndexName(), e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    log.debugf(e, "Unable to close JMS connection for %s.", getIndexName());
+                }
+            }
+        }
+    }
+}
@@ -52,11 +52,25 @@ import org.jboss.capedwarf.shared.modules.ModuleInfo;
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class DatastoreConfigurationCallback extends BasicConfigurationCallback {
+    private static final String ENTITY_CLASS = "com.google.appengine.api.datastore.Entity";
+
     private final List<IndexesXml> indexes;
+    private final IndexTuning tuning;
+    private final DatastoreSharding sharding;
 
     public DatastoreConfigurationCallback(CacheConfig config, String appId, ClassLoader classLoader, List<IndexesXml> indexes) {
+        this(config, appId, classLoader, indexes, IndexTuning.DEFAULT);
+    }
+
+    public DatastoreConfigurationCallback(CacheConfig config, String appId, ClassLoader classLoader, List<IndexesXml> indexes, IndexTuning tuning) {
+        this(config, appId, classLoader, indexes, tuning, DatastoreSharding.DEFAULT);
+    }
+
+    public DatastoreConfigurationCallback(CacheConfig config, String appId, ClassLoader classLoader, List<IndexesXml> indexes, IndexTuning tuning, DatastoreSharding sharding) {
         super(config, appId, classLoader);
         this.indexes = indexes;
+        this.tuning = tuning;
+        this.sharding = sharding;
     }
 
     public ConfigurationBuilder configure(Configuration configuration) {
@@ -83,6 +97,9 @@ public class DatastoreConfigurationCallback extends BasicConfigurationCallback {
             builder.clustering().cacheMode(CacheMode.DIST_ASYNC);
         }
 
+        // after app's override and async force, which can change the cache mode
+        tuning.applyNearRealTime(builder, getIndexName(ENTITY_CLASS));
+
         return builder;
     }
 
@@ -90,7 +107,7 @@ public class DatastoreConfigurationCallback extends BasicConfigurationCallback {
     protected SearchMapping applyIndexing(ConfigurationBuilder builder) {
         SearchMapping mapping = super.applyIndexing(builder);
 
-        String infinispanIndexName = getIndexName("com.google.appengine.api.datastore.Entity");
+        String infinispanIndexName = getIndexName(ENTITY_CLASS);
         IndexingConfigurationBuilder indexing = builder.indexing();
 
         int shardSize = 0;
@@ -110,7 +127,10 @@ public class DatastoreConfigurationCallback extends BasicConfigurationCallback {
         }
 
         indexing.setProperty("hibernate.search." + infinispanIndexName + ".sharding_strategy", "org.jboss.capedwarf.shared.datastore.CapedwarfIndexShardingStrategy");
-        indexing.setProperty("hibernate.search." + infinispanIndexName + ".sharding_strategy.nbr_of_shards", String.valueOf(1 + shardSize));
+        int shards = sharding.apply(mapping, classLoader, ENTITY_CLASS, indexing, infinispanIndexName, 1 + shardSize);
+        indexing.setProperty("hibernate.search." + infinispanIndexName + ".sharding_strategy.nbr_of_shards", String.valueOf(shards));
+
+        tuning.apply(indexing, infinispanIndexName);
 
         return mapping;
     }
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import org.hibernate.search.cfg.SearchMapping;
+import org.hibernate.search.filter.ShardSensitiveOnlyFilter;
+import org.infinispan.configuration.cache.IndexingConfigurationBuilder;
+import org.jboss.logging.Logger;
+
+/**
+ * Datastore entity routing into shards, by kind or by entity group.
+ *
+ * Not exposed on the subsystem yet: only the routing is in place. Until datastore queries,
+ * which live outside this subsystem, enable the kind / ancestor shard filters,
+ * every query would still search all routed shards.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DatastoreSharding {
+    private static final Logger log = Logger.getLogger(DatastoreSharding.class);
+
+    public static final DatastoreSharding DEFAULT = new DatastoreSharding(Mode.NONE, 1);
+
+    public enum Mode {
+        NONE,
+        KIND,
+        ANCESTOR
+    }
+
+    private final Mode mode;
+    private final int shards;
+
+    /**
+     * @param mode the routing mode
+     * @param shards number of shards entities are routed into, replacing the single default shard
+     */
+    public DatastoreSharding(Mode mode, int shards) {
+        this.mode = mode;
+        this.shards = shards;
+    }
+
+    /**
+     * Apply sharding to the entity index.
+     *
+     * @param mapping the search mapping
+     * @param classLoader the app's classloader
+     * @param entityClass the datastore entity class name
+     * @param indexing the indexing builder
+     * @param indexName the entity index name
+     * @param baseShards number of default and composite index shards
+     * @return total number of shards
+     */
+    int apply(SearchMapping mapping, ClassLoader classLoader, String entityClass, IndexingConfigurationBuilder indexing, String indexName, int baseShards) {
+        if (mode == Mode.NONE || shards <= 1) {
+            return baseShards;
+        }
+
+        log.warnf("Experimental %s datastore sharding into %s shards enabled for %s, queries still search all shards.", mode, shards, indexName);
+
+        final Class<?> clazz;
+        try {
+            clazz = classLoader.loadClass(entityClass);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        mapping.entity(clazz).classBridge(ShardKeyBridge.class).param(ShardKeyBridge.MODE, mode.name());
+        mapping.fullTextFilterDef(KindShardingStrategy.KIND_FILTER, ShardSensitiveOnlyFilter.class);
+        mapping.fullTextFilterDef(KindShardingStrategy.ANCESTOR_FILTER, ShardSensitiveOnlyFilter.class);
+
+        final String prefix = "hibernate.search." + indexName + ".";
+        indexing.setProperty(prefix + "sharding_strategy", KindShardingStrategy.class.getName());
+        indexing.setProperty(prefix + KindShardingStrategy.MODE, mode.name());
+        indexing.setProperty(prefix + KindShardingStrategy.BASE_SHARDS, String.valueOf(baseShards));
+
+        // the default shard is the first of the routed shards
+        return baseShards + shards - 1;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.services;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+
+import org.jboss.capedwarf.shared.jms.MessageConstants;
+import org.jboss.logging.Logger;
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.modules.ModuleLoadException;
+import org.jboss.modules.ModuleLoader;
+
+/**
+ * Quarantine for task messages that can never succeed.
+ *
+ * A single JMS queue, partitioned per app by the {@link #APP_ID} property.
+ * Tasks the broker moves here itself, after max delivery attempts, lack that property;
+ * they are matched by the app id the task was sent with.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DeadLetterQueue {
+    private static final Logger log = Logger.getLogger(DeadLetterQueue.class);
+
+    static final String APP_ID = "capedwarf_dlq_app_id";
+    static final String CAUSE = "capedwarf_dlq_cause";
+    static final String TIME = "capedwarf_dlq_time";
+
+    static final String TASK_APP_ID = MessageConstants.PREFIX + MessageConstants.APP_ID;
+    private static final String PATH_PROPERTY = MessageConstants.PREFIX + MessageConstants.PATH;
+    private static final int MAX_CAUSE_LENGTH = 4096;
+    private static final long RECEIVE_TIMEOUT = 500L;
+
+    private final Connection connection;
+    private final Queue deadLetters;
+    private final Queue tasks;
+    private final ModuleLoader loader;
+
+    DeadLetterQueue(Connection connection, Queue deadLetters, Queue tasks, ModuleLoader loader) {
+        this.connection = connection;
+        this.deadLetters = deadLetters;
+        this.tasks = tasks;
+        this.loader = loader;
+    }
+
+    /**
+     * Is the failure permanent, i.e. CapeDwarf cannot resolve or deserialize the task.
+     * Redelivering such message only burns CPU; failures of the task itself are retried.
+     *
+     * @param t the failure
+     * @return true if retry cannot help
+     */
+    static boolean isPermanent(Throwable t) {
+        while (t != null) {
+            if (t instanceof InvalidTaskException) {
+                return true;
+            }
+            t = (t.getCause() != t) ? t.getCause() : null;
+        }
+        return false;
+    }
+
+    /**
+     * Move the message to dead letters.
+     *
+     * @param message the task message
+     * @param appId the app id, can be null
+     * @param cause the failure
+     * @throws JMSException for any JMS error
+     */
+    void quarantine(Message message, String appId, Throwable cause) throws JMSException {
+        final ClassLoader previous = SecurityActions.setTCCL(getClassLoader(message));
+        try {
+            final Session batch = TaskRescheduler.getBatchSession();
+            if (batch != null) {
+                send(batch, message, appId, cause); // committed with the batch
+            } else {
+                final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                try {
+                    send(session, message, appId, cause);
+                } finally {
+                    session.close();
+                }
+            }
+        } finally {
+            SecurityActions.setTCCL(previous);
+        }
+        log.warnf("Task %s of app %s moved to dead letters: %s", message.getJMSMessageID(), appId, cause);
+    }
+
+    private void send(Session session, Message message, String appId, Throwable cause) throws JMSException {
+        final Message copy = TaskRescheduler.copy(session, message);
+        if (appId != null) {
+            copy.setStringProperty(APP_ID, appId);
+        }
+        copy.setStringProperty(CAUSE, toString(cause));
+        copy.setLongProperty(TIME, System.currentTimeMillis());
+        final MessageProducer producer = session.createProducer(deadLetters);
+        try {
+            producer.send(copy, message.getJMSDeliveryMode(), message.getJMSPriority(), Message.DEFAULT_TIME_TO_LIVE);
+        } finally {
+            producer.close();
+        }
+    }
+
+    /**
+     * List dead letters.
+     *
+     * @param appId the app id, null for all apps
+     * @param max max number of entries
+     * @return dead letter infos
+     * @throws JMSException for any JMS error
+     */
+    public List<Info> list(String appId, int max) throws JMSException {
+        final List<Info> infos = new ArrayList<>();
+        final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            final QueueBrowser browser = session.createBrowser(deadLetters, selector(appId));
+            try {
+                final Enumeration<?> messages = browser.getEnumeration();
+                while (messages.hasMoreElements() && infos.size() < max) {
+                    final Message message = (Message) messages.nextElement();
+                    final long time = message.propertyExists(TIME) ? message.getLongProperty(TIME) : message.getJMSTimestamp();
+                    infos.add(new Info(message.getJMSMessageID(), getAppId(message), message.getStringProperty(PATH_PROPERTY), message.getStringProperty(CAUSE), time));
+                }
+            } finally {
+                browser.close();
+            }
+        } finally {
+            session.close();
+        }
+        return infos;
+    }
+
+    /**
+     * Put dead letters back on the task queue, with fresh retry counters.
+     *
+     * @param appId the app id, null for all apps
+     * @param max max number of tasks to replay
+     * @return number of replayed tasks
+     * @throws JMSException for any JMS error
+     */
+    public int replay(String appId, int max) throws JMSException {
+        int count = 0;
+        final Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        try {
+            final MessageConsumer consumer = session.createConsumer(deadLetters, selector(appId));
+            final MessageProducer producer = session.createProducer(tasks);
+            try {
+                Message message;
+                while (count < max && (message = consumer.receive(RECEIVE_TIMEOUT)) != null) {
+                    final ClassLoader previous = SecurityActions.setTCCL(getClassLoader(message));
+                    try {
+                        final Message copy = TaskRescheduler.copy(session, message, APP_ID, CAUSE, TIME, TaskRescheduler.RESCHEDULE_COUNT, TaskRescheduler.FIRST_ATTEMPT, TaskRescheduler.RATE_SLOT);
+                        producer.send(copy, message.getJMSDeliveryMode(), message.getJMSPriority(), Message.DEFAULT_TIME_TO_LIVE);
+                    } finally {
+                        SecurityActions.setTCCL(previous);
+                    }
+                    count++;
+                }
+                session.commit();
+            } catch (JMSException | RuntimeException e) {
+                session.rollback();
+                throw e;
+            } finally {
+                producer.close();
+                consumer.close();
+            }
+        } finally {
+            session.close();
+        }
+        return count;
+    }
+
+    private ClassLoader getClassLoader(Message message) throws JMSException {
+        final String mi = message.getStringProperty(ServletExecutorConsumer.MODULE_PROPERTY);
+        if (mi != null) {
+            try {
+                return loader.loadModule(ModuleIdentifier.fromString(mi)).getClassLoader();
+            } catch (ModuleLoadException | IllegalArgumentException ignored) {
+            }
+        }
+        return DeadLetterQueue.class.getClassLoader();
+    }
+
+    /**
+     * The app of a dead letter, either set on quarantine or the one the task was sent with.
+     */
+    static String getAppId(Message message) throws JMSException {
+        final String appId = message.getStringProperty(APP_ID);
+        return (appId != null) ? appId : message.getStringProperty(TASK_APP_ID);
+    }
+
+    static String selector(String appId) {
+        if (appId == null) {
+            return null;
+        }
+        final String literal = "'" + appId.replace("'", "''") + "'";
+        return APP_ID + " = " + literal + " OR (" + APP_ID + " IS NULL AND " + TASK_APP_ID + " = " + literal + ")";
+    }
+
+    private static String toString(Throwable cause) {
+        final StringWriter writer = new StringWriter();
+        cause.printStackTrace(new PrintWriter(writer));
+        final String trace = writer.toString();
+        return (trace.length() > MAX_CAUSE_LENGTH) ? trace.substring(0, MAX_CAUSE_LENGTH) : trace;
+    }
+
+    public static class Info {
+        private final String messageId;
+        private final String appId;
+        private final String path;
+        private final String cause;
+        private final long time;
+
+        private Info(String messageId, String appId, String path, String cause, long time) {
+            this.messageId = messageId;
+            this.appId = appId;
+            this.path = path;
+            this.cause = cause;
+            this.time = time;
+        }
+
+        public String getMessageId() {
+            return messageId;
+        }
+
+        public String getAppId() {
+            return appId;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getCause() {
+            return cause;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fair-share dispatch of received tasks.
+ *
+ * Consumers park received tasks in a bounded per-app queue and go back to receiving,
+ * so one app's backlog doesn't keep other apps' tasks from being received.
+ * Queued tasks are run on the executor in weighted round-robin order across apps,
+ * every app getting a weighted share of the concurrency.
+ * A consumer offering a task to a full app queue waits until one of the app's tasks is dispatched,
+ * so an app over its share stops its consumers from receiving more of its tasks,
+ * instead of its tasks being pushed back to the JMS queue over and over.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class FairShareScheduler {
+    private final Map<String, AppQueue> apps = new HashMap<>();
+    private final LinkedList<AppQueue> ring = new LinkedList<>();
+    private final Executor executor;
+
+    private int concurrency;
+    private int maxWaiting;
+    private int running;
+    private boolean closed;
+
+    FairShareScheduler(Executor executor, int concurrency, int maxWaiting) {
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.maxWaiting = maxWaiting;
+    }
+
+    void setConcurrency(int concurrency) {
+        final List<Runnable> granted;
+        synchronized (this) {
+            this.concurrency = concurrency;
+            granted = grant();
+        }
+        execute(granted);
+    }
+
+    synchronized void setMaxWaiting(int maxWaiting) {
+        this.maxWaiting = maxWaiting;
+        notifyAll();
+    }
+
+    /**
+     * Queue the task for the app, waiting while the app's queue is full.
+     *
+     * @param appId the app id
+     * @param weight the app's weight
+     * @param cap the app's max concurrency
+     * @param task the task
+     * @return true if queued, false if the scheduler was cleared, e.g. on stop
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean offer(String appId, int weight, int cap, Runnable task) throws InterruptedException {
+        final List<Runnable> granted;
+        synchronized (this) {
+            AppQueue app;
+            while (true) {
+                if (closed) {
+                    return false;
+                }
+                app = apps.get(appId);
+                if (app == null) {
+                    app = new AppQueue(appId);
+                    apps.put(appId, app);
+                }
+                app.weight = Math.max(1, weight);
+                app.cap = Math.max(1, cap);
+                if (app.waiting.size() < maxWaiting) {
+                    break;
+                }
+                wait(); // the app could be removed meanwhile, so we look it up again
+            }
+            app.waiting.add(task);
+            if (ring.contains(app) == false) {
+                ring.add(app);
+            }
+            granted = grant();
+        }
+        execute(granted);
+        return true;
+    }
+
+    /**
+     * Drop all queued tasks, and refuse further ones, e.g. on stop.
+     *
+     * @return the tasks which were not run
+     */
+    synchronized List<Runnable> clear() {
+        closed = true;
+        notifyAll();
+        final List<Runnable> tasks = new ArrayList<>();
+        for (AppQueue app : ring) {
+            tasks.addAll(app.waiting);
+            app.waiting.clear();
+        }
+        ring.clear();
+        for (AppQueue app : new ArrayList<>(apps.values())) {
+            removeIfIdle(app);
+        }
+        return tasks;
+    }
+
+    synchronized int getWaiting(String appId) {
+        final AppQueue app = apps.get(appId);
+        return (app != null) ? app.waiting.size() : 0;
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+
+    synchronized int getRunning(String appId) {
+        final AppQueue app = apps.get(appId);
+        return (app != null) ? app.running : 0;
+    }
+
+    private void finish(AppQueue app) {
+        final List<Runnable> granted;
+        synchronized (this) {
+            running--;
+            app.running--;
+            removeIfIdle(app);
+            granted = grant();
+        }
+        execute(granted);
+    }
+
+    private void execute(List<Runnable> granted) {
+        for (Runnable task : granted) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    private void removeIfIdle(AppQueue app) {
+        if (app.running <= 0 && app.waiting.isEmpty()) {
+            apps.remove(app.appId);
+        }
+    }
+
+    private boolean canRun(AppQueue app) {
+        return running < concurrency && app.running < share(app);
+    }
+
+    /**
+     * App's share of concurrency, relative to the weights of all currently active apps.
+     */
+    private int share(AppQueue app) {
+        int active = 0;
+        for (AppQueue aq : apps.values()) {
+            active += aq.weight;
+        }
+        final int share = (int) Math.ceil(concurrency * (double) app.weight / Math.max(active, app.weight));
+        return Math.max(1, Math.min(app.cap, share));
+    }
+
+    private List<Runnable> grant() {
+        List<Runnable> granted = Collections.emptyList();
+        int misses = 0;
+        while (running < concurrency && ring.isEmpty() == false && misses < ring.size()) {
+            final AppQueue app = ring.getFirst();
+            if (app.credit <= 0) {
+                app.credit = app.weight;
+            }
+            if (canRun(app)) {
+                if (granted.isEmpty()) {
+                    granted = new ArrayList<>();
+                }
+                granted.add(new Granted(app, app.waiting.poll()));
+                notifyAll(); // the app's queue has room again
+                running++;
+                app.running++;
+                misses = 0;
+                if (app.waiting.isEmpty()) {
+                    ring.removeFirst();
+                    app.credit = 0;
+                } else if (--app.credit <= 0) {
+                    ring.addLast(ring.removeFirst());
+                }
+            } else {
+                ring.addLast(ring.removeFirst());
+                misses++;
+            }
+        }
+        return granted;
+    }
+
+    private class Granted implements Runnable {
+        private final AppQueue app;
+        private final Runnable task;
+
+        private Granted(AppQueue app, Runnable task) {
+            this.app = app;
+            this.task = task;
+        }
+
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                finish(app);
+            }
+        }
+    }
+
+    private static class AppQueue {
+        private final String appId;
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private int weight = 1;
+        private int cap = Integer.MAX_VALUE;
+        private int running;
+        private int credit;
+
+        private AppQueue(String appId) {
+            this.appId = appId;
+        }
+    }
+}
@@ -46,8 +46,12 @@ class Hack {
 
         RequestDispatcherImpl rd = RequestDispatcherImpl.class.cast(dispatcher);
 
-        NoopServletResponse response = new NoopServletResponse();
-        rd.mock(request, response);
+        NoopServletResponse response = NoopServletResponse.begin();
+        try {
+            rd.mock(request, response);
+        } finally {
+            response.end();
+        }
 
         // check for dispatch error
         Object attribute = request.getAttribute(RequestDispatcher.ERROR_EXCEPTION);
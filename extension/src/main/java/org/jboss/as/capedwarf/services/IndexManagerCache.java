@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.services;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.search.indexes.serialization.spi.LuceneWorkSerializer;
+import org.hibernate.search.indexes.spi.IndexManager;
+
+/**
+ * Index name to resolved index manager, so indexing messages skip cache and search factory lookups.
+ *
+ * Entries are dropped when their cache is stopped or (re)started.
+ * Each entry also holds the owning app's classloader, used to deserialize the works.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+final class IndexManagerCache {
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, ClassLoader> classLoaders = new ConcurrentHashMap<>();
+
+    private IndexManagerCache() {
+    }
+
+    /**
+     * Cache name of the index, as set by our index naming, cacheName__indexName.
+     *
+     * @param indexName the index name
+     * @return the cache name
+     */
+    static String toCacheName(String indexName) {
+        final int p = indexName.indexOf("__");
+        return (p >= 0) ? indexName.substring(0, p) : indexName;
+    }
+
+    static Entry get(String indexName) {
+        return entries.get(indexName);
+    }
+
+    static void registerClassLoader(String cacheName, ClassLoader classLoader) {
+        classLoaders.put(cacheName, classLoader);
+        invalidate(cacheName);
+    }
+
+    static void unregisterClassLoader(String cacheName) {
+        classLoaders.remove(cacheName);
+        invalidate(cacheName);
+    }
+
+    /**
+     * Cache the index manager.
+     *
+     * @param indexName the index name
+     * @param indexManager the index manager
+     * @param fallback classloader to use if the cache has no app classloader registered
+     * @return new entry
+     */
+    static Entry put(String indexName, IndexManager indexManager, ClassLoader fallback) {
+        final String cacheName = toCacheName(indexName);
+        final ClassLoader cl = classLoaders.get(cacheName);
+        final Entry entry = new Entry(cacheName, indexManager, (cl != null) ? cl : fallback);
+        entries.put(indexName, entry);
+        return entry;
+    }
+
+    /**
+     * Drop all indexes of the cache.
+     *
+     * @param cacheName the cache name
+     */
+    static void invalidate(String cacheName) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (cacheName.equals(iterator.next().cacheName)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    static class Entry {
+        private final String cacheName;
+        private final IndexManager indexManager;
+        private final LuceneWorkSerializer serializer;
+        private final ClassLoader classLoader;
+
+        private Entry(String cacheName, IndexManager indexManager, ClassLoader classLoader) {
+            this.cacheName = cacheName;
+            this.indexManager = indexManager;
+            this.serializer = indexManager.getSerializer();
+            this.classLoader = classLoader;
+        }
+
+        IndexManager getIndexManager() {
+            return indexManager;
+        }
+
+        LuceneWorkSerializer getSerializer() {
+            return serializer;
+        }
+
+        ClassLoader getClassLoader() {
+            return classLoader;
+        }
+    }
+}
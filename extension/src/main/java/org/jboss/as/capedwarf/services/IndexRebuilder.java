@@ -0,0 +1,446 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Synchronization;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.hibernate.search.ProjectionConstants;
+import org.hibernate.search.backend.TransactionContext;
+import org.hibernate.search.backend.spi.Work;
+import org.hibernate.search.backend.spi.WorkType;
+import org.hibernate.search.backend.spi.Worker;
+import org.hibernate.search.engine.spi.SearchFactoryImplementor;
+import org.hibernate.search.indexes.IndexReaderAccessor;
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.context.Flag;
+import org.infinispan.distribution.DistributionManager;
+import org.infinispan.marshall.core.MarshalledEntry;
+import org.infinispan.persistence.manager.PersistenceManager;
+import org.infinispan.persistence.spi.AdvancedCacheLoader;
+import org.infinispan.query.Search;
+import org.infinispan.query.backend.DefaultSearchWorkCreator;
+import org.infinispan.query.backend.KeyTransformationHandler;
+import org.infinispan.query.backend.SearchWorkCreator;
+import org.infinispan.query.impl.ComponentRegistryUtils;
+import org.infinispan.remoting.transport.Address;
+import org.jboss.capedwarf.shared.config.CacheName;
+import org.jboss.capedwarf.shared.datastore.CapedwarfMultiSearchWorkCreator;
+import org.jboss.logging.Logger;
+
+/**
+ * Online index rebuild of a single app's cache.
+ *
+ * Entries are re-indexed with update works, so existing documents stay searchable
+ * while the rebuild is running. Afterwards, documents whose entries no longer exist
+ * are deleted. Only entries this node is primary owner of are re-indexed or deleted,
+ * hence in a cluster the rebuild needs to run on every node.
+ *
+ * Keys are streamed from the data container and the cache stores in batches,
+ * so the total only reaches its final value once all keys have been dispatched.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class IndexRebuilder implements Runnable {
+    private static final Logger log = Logger.getLogger(IndexRebuilder.class);
+
+    private static final ConcurrentMap<String, IndexRebuilder> rebuilds = new ConcurrentHashMap<>();
+
+    private static final TransactionContext NO_TRANSACTION = new TransactionContext() {
+        public boolean isTransactionInProgress() {
+            return false;
+        }
+
+        public Object getTransactionIdentifier() {
+            return this;
+        }
+
+        public void registerSynchronization(Synchronization synchronization) {
+            throw new UnsupportedOperationException("Not in transaction");
+        }
+    };
+
+    private final Cache<Object, Object> cache;
+    private final SearchWorkCreator<Object> creator;
+    private final int threads;
+    private final int batchSize;
+    private final RateLimiter limiter;
+    private final Semaphore permits;
+
+    private Executor executor;
+    private AdvancedCache<Object, Object> local;
+    private SearchFactoryImplementor factory;
+    private KeyTransformationHandler keyTransformation;
+    private List<Object> batch;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final long started = System.currentTimeMillis();
+    private volatile long finished;
+    private volatile boolean cancelled;
+    private volatile String error;
+
+    private IndexRebuilder(Cache<Object, Object> cache, SearchWorkCreator<Object> creator, int threads, int batchSize, double maxPerSecond) {
+        this.cache = cache;
+        this.creator = creator;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.limiter = (maxPerSecond > 0) ? RateLimiter.create(maxPerSecond) : null;
+        this.permits = new Semaphore(threads);
+    }
+
+    /**
+     * Start rebuilding the cache's indexes in the background.
+     *
+     * @param cacheName the cache name
+     * @param cache the running cache
+     * @param executor CapeDwarf's executor, null if there is none
+     * @param threads max number of batches indexed at once
+     * @param batchSize number of entries handed to a thread at once
+     * @param maxPerSecond max number of re-indexed entries per second, 0 for no limit
+     * @return the rebuild
+     * @throws IllegalStateException if a rebuild of this cache is already running
+     */
+    @SuppressWarnings("unchecked")
+    public static IndexRebuilder start(CacheName cacheName, Cache cache, Executor executor, int threads, int batchSize, double maxPerSecond) {
+        final SearchWorkCreator<Object> creator = (cacheName == CacheName.DEFAULT) ? new CapedwarfMultiSearchWorkCreator() : new DefaultSearchWorkCreator<Object>();
+        final IndexRebuilder rebuilder = new IndexRebuilder(cache, creator, threads, batchSize, maxPerSecond);
+        final String name = cache.getName();
+        final IndexRebuilder previous = rebuilds.putIfAbsent(name, rebuilder);
+        if (previous != null) {
+            if (previous.isRunning() || rebuilds.replace(name, previous, rebuilder) == false) {
+                throw new IllegalStateException("Index rebuild of " + name + " is already running.");
+            }
+        }
+        rebuilder.executor = executor;
+        try {
+            if (executor == null) {
+                throw new RejectedExecutionException("No executor");
+            }
+            executor.execute(rebuilder);
+        } catch (RejectedExecutionException e) {
+            // no (free) CapeDwarf executor, rebuild with our own threads
+            final ExecutorService pool = Executors.newCachedThreadPool(new RebuildThreadFactory(name));
+            rebuilder.executor = pool;
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        rebuilder.run();
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            });
+        }
+        return rebuilder;
+    }
+
+    /**
+     * Get the last rebuild of the cache.
+     *
+     * @param cacheName the full cache name
+     * @return the rebuild or null if there was none
+     */
+    public static IndexRebuilder get(String cacheName) {
+        return rebuilds.get(cacheName);
+    }
+
+    /**
+     * Cancel and forget the rebuild of the cache.
+     *
+     * @param cacheName the full cache name
+     */
+    public static void clear(String cacheName) {
+        final IndexRebuilder rebuilder = rebuilds.remove(cacheName);
+        if (rebuilder != null) {
+            rebuilder.cancel();
+        }
+    }
+
+    public void run() {
+        try {
+            factory = (SearchFactoryImplementor) Search.getSearchManager(cache).getSearchFactory();
+            keyTransformation = ComponentRegistryUtils.getQueryInterceptor(cache).getKeyTransformationHandler();
+            local = cache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_LOCKING);
+            batch = new ArrayList<>(batchSize);
+            log.infof("Rebuilding indexes of %s, %s batches at once.", cache.getName(), threads);
+
+            streamKeys();
+            final List<Object> rest;
+            synchronized (this) {
+                rest = batch;
+                batch = null;
+            }
+            if (rest.isEmpty() == false) {
+                dispatch(rest);
+            }
+            // wait for the dispatched batches
+            permits.acquire(threads);
+            permits.release(threads);
+
+            if (cancelled == false) {
+                deleteStale();
+            }
+            if (cancelled == false) {
+                factory.getWorker().flushWorks(NO_TRANSACTION);
+            }
+            log.infof("Rebuilt indexes of %s, %s entries indexed, %s failed, %s stale documents deleted, in %sms.", cache.getName(), indexed.get(), failed.get(), deleted.get(), System.currentTimeMillis() - started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+            error = "Interrupted";
+        } catch (Throwable t) {
+            cancelled = true;
+            error = String.valueOf(t);
+            log.warnf(t, "Index rebuild of %s failed.", cache.getName());
+        } finally {
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    private void streamKeys() throws InterruptedException {
+        final AdvancedCache<Object, Object> ac = cache.getAdvancedCache();
+        final DistributionManager dm = ac.getDistributionManager();
+        final Address self = ac.getRpcManager() != null ? ac.getRpcManager().getAddress() : null;
+
+        final DataContainer container = ac.getDataContainer();
+        for (Object key : container.keySet()) {
+            if (cancelled) {
+                return;
+            }
+            if (isPrimaryOwner(dm, self, key)) {
+                add(key);
+            }
+        }
+        final PersistenceManager pm = ac.getComponentRegistry().getComponent(PersistenceManager.class);
+        if (pm != null && cancelled == false) {
+            pm.processOnAllStores(new AdvancedCacheLoader.KeyFilter() {
+                public boolean shouldLoadKey(Object key) {
+                    // in-memory entries were already dispatched
+                    return container.containsKey(key) == false && isPrimaryOwner(dm, self, key);
+                }
+            }, new AdvancedCacheLoader.CacheLoaderTask<Object, Object>() {
+                public void processEntry(MarshalledEntry<Object, Object> entry, AdvancedCacheLoader.TaskContext context) throws InterruptedException {
+                    if (cancelled) {
+                        context.stop();
+                    } else {
+                        add(entry.getKey());
+                    }
+                }
+            }, false, false);
+        }
+    }
+
+    /**
+     * Add the key to the current batch, and hand over the batch once full.
+     * Stores may call this concurrently, hence the batch is swapped under the monitor,
+     * but dispatched, which may wait for a permit, outside of it.
+     */
+    private void add(Object key) throws InterruptedException {
+        final List<Object> full;
+        synchronized (this) {
+            total.incrementAndGet();
+            batch.add(key);
+            if (batch.size() < batchSize) {
+                return;
+            }
+            full = batch;
+            batch = new ArrayList<>(batchSize);
+        }
+        dispatch(full);
+    }
+
+    /**
+     * Delete documents of entries which no longer exist; update works never remove them.
+     */
+    @SuppressWarnings("unchecked")
+    private void deleteStale() throws IOException {
+        final AdvancedCache<Object, Object> ac = cache.getAdvancedCache();
+        final DistributionManager dm = ac.getDistributionManager();
+        final Address self = ac.getRpcManager() != null ? ac.getRpcManager().getAddress() : null;
+        final ClassLoader cl = ac.getClassLoader();
+        final Worker worker = factory.getWorker();
+        final IndexReaderAccessor readers = factory.getIndexReaderAccessor();
+
+        for (Class<?> type : factory.getIndexedTypes()) {
+            final String idName = factory.getIndexBinding(type).getDocumentBuilder().getIdKeywordName();
+            final FieldSelector selector = new MapFieldSelector(idName, ProjectionConstants.OBJECT_CLASS);
+            final IndexReader reader = readers.open(type);
+            try {
+                for (int i = 0; i < reader.maxDoc() && cancelled == false; i++) {
+                    if (reader.isDeleted(i)) {
+                        continue;
+                    }
+                    final Document document = reader.document(i, selector);
+                    final String id = document.get(idName);
+                    // an index can be shared by several types
+                    if (id == null || type.getName().equals(document.get(ProjectionConstants.OBJECT_CLASS)) == false) {
+                        continue;
+                    }
+                    final Object key = keyTransformation.stringToKey(id, cl);
+                    if (isPrimaryOwner(dm, self, key) && local.containsKey(key) == false) {
+                        worker.performWork(new Work(type, id, WorkType.DELETE), NO_TRANSACTION);
+                        deleted.incrementAndGet();
+                    }
+                }
+            } finally {
+                readers.close(reader);
+            }
+        }
+    }
+
+    private void dispatch(List<Object> keys) throws InterruptedException {
+        final Batch task = new Batch(keys);
+        permits.acquire();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // executor is saturated, index the batch ourselves
+            task.run();
+        }
+    }
+
+    private static boolean isPrimaryOwner(DistributionManager dm, Address self, Object key) {
+        return dm == null || self == null || self.equals(dm.getPrimaryLocation(key));
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isRunning() {
+        return finished == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getIndexed() {
+        return indexed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getFinished() {
+        return finished;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    private class Batch implements Runnable {
+        private final List<Object> keys;
+
+        private Batch(List<Object> keys) {
+            this.keys = keys;
+        }
+
+        public void run() {
+            try {
+                index();
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void index() {
+            final Worker worker = factory.getWorker();
+            for (Object key : keys) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                if (limiter != null) {
+                    limiter.acquire();
+                }
+                try {
+                    final Object value = local.get(key);
+                    if (value != null && factory.getIndexBinding(value.getClass()) != null) {
+                        final Collection<Work> works = creator.createPerEntityWorks(value, keyTransformation.keyToString(key), WorkType.UPDATE);
+                        for (Work work : works) {
+                            worker.performWork(work, NO_TRANSACTION);
+                        }
+                    }
+                    indexed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.debugf(e, "Cannot re-index %s in %s.", key, cache.getName());
+                }
+            }
+        }
+    }
+
+    private static class RebuildThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String name;
+
+        private RebuildThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CapeDwarf index rebuild - " + name + " - " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.cache.IndexingConfigurationBuilder;
+import org.jboss.logging.Logger;
+
+/**
+ * Index manager and writer tuning, e.g. near-real-time readers.
+ *
+ * The near-real-time index manager always applies changes locally, ignoring the indexing backend,
+ * and keeps the index writer open. It cannot be switched off once members join,
+ * so it is only used for caches which are not clustered, where no other node writes the index.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class IndexTuning {
+    private static final Logger log = Logger.getLogger(IndexTuning.class);
+
+    public static final IndexTuning DEFAULT = new IndexTuning(false, 0, 0);
+
+    private final boolean nearRealTime;
+    private final long refreshInterval;
+    private final int ramBufferSize;
+
+    /**
+     * @param nearRealTime use near-real-time index manager
+     * @param refreshInterval async reader refresh period in millis, 0 for HSearch default
+     * @param ramBufferSize index writer RAM buffer in MB, 0 for HSearch default
+     */
+    public IndexTuning(boolean nearRealTime, long refreshInterval, int ramBufferSize) {
+        this.nearRealTime = nearRealTime;
+        this.refreshInterval = refreshInterval;
+        this.ramBufferSize = ramBufferSize;
+    }
+
+    /**
+     * Apply tuning to the index.
+     *
+     * @param indexing the indexing builder
+     * @param indexName the index name, shards inherit its settings
+     */
+    void apply(IndexingConfigurationBuilder indexing, String indexName) {
+        final String prefix = "hibernate.search." + indexName + ".";
+        if (refreshInterval > 0) {
+            indexing.setProperty(prefix + "reader.strategy", "async");
+            indexing.setProperty(prefix + "reader.async_refresh_period_ms", String.valueOf(refreshInterval));
+        }
+        if (ramBufferSize > 0) {
+            indexing.setProperty(prefix + "indexwriter.ram_buffer_size", String.valueOf(ramBufferSize));
+        }
+    }
+
+    /**
+     * Apply near-real-time index manager, once the cache mode is final.
+     *
+     * @param builder the cache config builder
+     * @param indexName the index name, shards inherit its settings
+     */
+    void applyNearRealTime(ConfigurationBuilder builder, String indexName) {
+        if (nearRealTime == false) {
+            return;
+        }
+        if (builder.clustering().cacheMode().isClustered()) {
+            log.warnf("Ignoring near-real-time for %s, the index of a clustered cache is written by other members too, use a local cache.", indexName);
+            return;
+        }
+        final String prefix = "hibernate.search." + indexName + ".";
+        final IndexingConfigurationBuilder indexing = builder.indexing();
+        // NRT keeps the writer open, no other node writes a local cache's index
+        indexing.setProperty(prefix + "indexmanager", "near-real-time");
+        indexing.setProperty(prefix + "exclusive_index_use", "true");
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.jboss.logging.Logger;
+
+/**
+ * One serial worker per index name, running on a shared executor.
+ *
+ * Works of an index are applied in order, different indexes in parallel.
+ * Callers await the returned task before acknowledging the works' messages.
+ * A worker is dropped once its index has nothing left to apply.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class IndexWorkers {
+    private static final Logger log = Logger.getLogger(IndexWorkers.class);
+
+    private static final int MAX_RUN = 16; // batches per worker run, before yielding to other indexes
+
+    private final Executor executor;
+    private final ConcurrentMap<String, Worker> workers = new ConcurrentHashMap<>();
+
+    IndexWorkers(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Apply works on the index's worker.
+     *
+     * @param indexManager the index manager
+     * @param works the works
+     * @param cl the classloader to apply works with
+     * @param enqueued oldest enqueue time of the works
+     * @return the task, to await
+     */
+    Task submit(IndexManager indexManager, List<LuceneWork> works, ClassLoader cl, long enqueued) {
+        final Task task = new Task(indexManager, works, cl, enqueued);
+        if (executor == null) {
+            task.run();
+            return task;
+        }
+
+        final String indexName = indexManager.getIndexName();
+        while (true) {
+            Worker worker = workers.get(indexName);
+            if (worker == null) {
+                final Worker fresh = new Worker(indexName);
+                worker = workers.putIfAbsent(indexName, fresh);
+                if (worker == null) {
+                    worker = fresh;
+                }
+            }
+            if (worker.submit(task)) {
+                return task;
+            }
+            // worker retired meanwhile, get a new one
+        }
+    }
+
+    static class Task implements Runnable {
+        private final IndexManager indexManager;
+        private final List<LuceneWork> works;
+        private final ClassLoader cl;
+        private final long enqueued;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        private Task(IndexManager indexManager, List<LuceneWork> works, ClassLoader cl, long enqueued) {
+            this.indexManager = indexManager;
+            this.works = works;
+            this.cl = cl;
+            this.enqueued = enqueued;
+        }
+
+        public void run() {
+            final ClassLoader previous = SecurityActions.setTCCL(cl);
+            final long start = System.nanoTime();
+            try {
+                indexManager.performOperations(works, null);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                IndexingMetrics.getInstance().applied(indexManager.getIndexName(), works.size(), enqueued, System.nanoTime() - start);
+                SecurityActions.setTCCL(previous);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Wait until the works are applied.
+         *
+         * @throws IllegalStateException if applying failed or we were interrupted
+         */
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while applying works to index " + indexManager.getIndexName(), e);
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Error applying " + works.size() + " works to index " + indexManager.getIndexName(), failure);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final String indexName;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>(); // guarded by this
+        private boolean scheduled;
+        private boolean retired;
+
+        private Worker(String indexName) {
+            this.indexName = indexName;
+        }
+
+        private boolean submit(Task task) {
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                tasks.add(task);
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            schedule();
+            return true;
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.debugf("Executor rejected index worker %s, applying works inline.", indexName);
+                run();
+            }
+        }
+
+        public void run() {
+            int count = 0;
+            while (true) {
+                final Task task;
+                synchronized (this) {
+                    if (tasks.isEmpty()) {
+                        scheduled = false;
+                        retired = true;
+                        workers.remove(indexName, this);
+                        return;
+                    }
+                    if (count++ == MAX_RUN) {
+                        break;
+                    }
+                    task = tasks.poll();
+                }
+                task.run();
+            }
+            schedule(); // still scheduled, let other indexes run first
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.hibernate.search.Environment;
 import org.hibernate.search.backend.impl.jgroups.JGroupsChannelProvider;
 import org.hibernate.search.cfg.EntityMapping;
 import org.hibernate.search.cfg.SearchMapping;
+import org.infinispan.Cache;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
 import org.infinispan.configuration.cache.IndexingConfigurationBuilder;
 import org.infinispan.configuration.cache.StoreAsBinaryConfigurationBuilder;
@@ -40,6 +41,9 @@ import org.jgroups.JChannel;
  */
 public abstract class IndexableConfigurationCallback extends AbstractConfigurationCallback {
     private static final int INDEXING_CACHES = 6;
+    private static final String WORKER_BACKEND = "hibernate.search.default.worker.backend";
+
+    private static volatile boolean singleNodeBackend;
 
     protected final CacheConfig config;
     protected final String appId;
@@ -54,6 +58,15 @@ public abstract class IndexableConfigurationCallback extends AbstractConfigurati
         this.classLoader = classLoader;
     }
 
+    /**
+     * Use local backend while the cluster has a single member.
+     *
+     * @param singleNodeBackend the flag
+     */
+    public static void setSingleNodeBackend(boolean singleNodeBackend) {
+        IndexableConfigurationCallback.singleNodeBackend = singleNodeBackend;
+    }
+
     protected SearchMapping applyIndexing(ConfigurationBuilder builder) {
         final CacheIndexing ci = config.getIndexing();
         if (ci == null)
@@ -74,6 +87,11 @@ public abstract class IndexableConfigurationCallback extends AbstractConfigurati
         short muxId = (short) ((INDEXING_CACHES / 2) * generator.getValue().getMuxId(appId) * ci.getPrefix() + ci.getOffset());
         indexing.setProperty(JGroupsChannelProvider.MUX_ID, muxId);
 
+        if (singleNodeBackend) {
+            SingleNodeBackendQueueProcessor.setChannel(channel.getValue());
+            indexing.setProperty(WORKER_BACKEND, SingleNodeBackendQueueProcessor.class.getName());
+        }
+
         // do we store as binary - e.g. Modules
         final StoreAsBinaryConfigurationBuilder storeAsBinaryConfigurationBuilder = builder.storeAsBinary();
         storeAsBinaryConfigurationBuilder.enabled(config.storeAsBinary());
@@ -81,6 +99,22 @@ public abstract class IndexableConfigurationCallback extends AbstractConfigurati
         return mapping;
     }
 
+    @Override
+    public void start(Cache cache) {
+        super.start(cache);
+        // index works of this cache are deserialized with the app's classloader
+        IndexManagerCache.registerClassLoader(cache.getName(), classLoader);
+    }
+
+    @Override
+    public void stop(Cache cache) {
+        try {
+            IndexManagerCache.unregisterClassLoader(cache.getName());
+        } finally {
+            super.stop(cache);
+        }
+    }
+
     protected String getIndexName(String className) {
         return config.getName() + "_" + appId + "__" + className;
     }
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+
+/**
+ * Optional Deflate compression of serialized index works on the indexing queue.
+ *
+ * Compressed messages are flagged with the codec property, so consumers can
+ * handle mixed traffic and messages from plain HSearch JMS backends.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class IndexingCodec {
+    static final String CODEC_PROPERTY = "capedwarf_codec";
+    static final String LENGTH_PROPERTY = "capedwarf_codec_length";
+    static final String DEFLATE = "deflate";
+
+    private static volatile int threshold;
+
+    private IndexingCodec() {
+    }
+
+    /**
+     * Compress serialized works of at least this many bytes.
+     *
+     * @param threshold the threshold in bytes, 0 disables compression
+     */
+    public static void setCompressionThreshold(int threshold) {
+        IndexingCodec.threshold = threshold;
+    }
+
+    static void write(ObjectMessage message, byte[] data) throws JMSException {
+        final int limit = threshold;
+        if (limit > 0 && data.length >= limit) {
+            final byte[] compressed = compress(data);
+            if (compressed.length < data.length) {
+                message.setObject(compressed);
+                message.setStringProperty(CODEC_PROPERTY, DEFLATE);
+                message.setIntProperty(LENGTH_PROPERTY, data.length);
+                return;
+            }
+        }
+        message.setObject(data);
+    }
+
+    static byte[] read(ObjectMessage message) throws JMSException {
+        final byte[] data = (byte[]) message.getObject();
+        final String codec = message.getStringProperty(CODEC_PROPERTY);
+        if (codec == null) {
+            return data;
+        }
+        if (DEFLATE.equals(codec) == false) {
+            throw new JMSException("Unknown indexing codec: " + codec);
+        }
+        try {
+            return decompress(data, message.getIntProperty(LENGTH_PROPERTY));
+        } catch (DataFormatException e) {
+            final JMSException jmse = new JMSException("Corrupted compressed index works: " + e.getMessage());
+            jmse.setLinkedException(e);
+            throw jmse;
+        }
+    }
+
+    private static byte[] compress(byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2);
+            final byte[] buffer = new byte[8192];
+            while (deflater.finished() == false) {
+                baos.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data, int length) throws DataFormatException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            final byte[] result = new byte[length];
+            int n = 0;
+            while (n < length && inflater.finished() == false) {
+                final int read = inflater.inflate(result, n, length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated data");
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new DataFormatException("Expected " + length + " bytes, inflated " + n);
+            }
+            return result;
+        } finally {
+            inflater.end();
+        }
+    }
+}
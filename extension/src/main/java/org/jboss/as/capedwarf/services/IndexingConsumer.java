@@ -22,10 +22,13 @@
 
 package org.jboss.as.capedwarf.services;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
 import javax.jms.JMSException;
 import javax.jms.Message;
-import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
 
 import org.hibernate.search.backend.LuceneWork;
@@ -36,24 +39,32 @@ import org.infinispan.manager.EmbeddedCacheManager;
 import org.infinispan.query.Search;
 import org.jboss.logging.Logger;
 import org.jboss.modules.Module;
-import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleIdentifier;
 
 /**
  * JMS consumer for indexing.
  *
+ * Works are buffered per index until the batch is flushed,
+ * works for the same entity are merged, and each index gets a single performOperations call,
+ * on that index's worker. Flush waits for all of them, and fails if any index failed,
+ * so the batch is redelivered.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  * @author Matej Lazar
  */
-class IndexingConsumer implements MessageListener {
+class IndexingConsumer implements BatchListener {
 
     private static final Logger log = Logger.getLogger(IndexingConsumer.class);
 
     private EmbeddedCacheManager manager;
+    private final IndexWorkers workers;
     private volatile Module capedwarfModule;
 
-    IndexingConsumer(EmbeddedCacheManager manager) {
+    private final Map<IndexManager, PendingWorks> pending = new LinkedHashMap<>();
+
+    IndexingConsumer(EmbeddedCacheManager manager, IndexWorkers workers) {
         this.manager = manager;
+        this.workers = workers;
     }
 
     protected Module getCapedwarfModule() {
@@ -80,24 +91,28 @@ class IndexingConsumer implements MessageListener {
         final ObjectMessage objectMessage = (ObjectMessage) message;
         try {
             final String indexName = objectMessage.getStringProperty("HSearchIndexName"); // from JmsBackendQueueTask
-            final String cacheName = indexName.split("__")[0];
-            final Cache cache = manager.getCache(cacheName, false);
-            if (cache == null) {
-                log.warnf("No such cache: %s.", cacheName);
-                return;
-            }
-
-            final SearchFactoryImplementor factory = (SearchFactoryImplementor) Search.getSearchManager(cache).getSearchFactory();
-            final IndexManager indexManager = factory.getAllIndexesManager().getIndexManager(indexName);
-            if (indexManager == null) {
-                log.warnf("Message received for undefined index: %s.", indexName);
-                return;
+            IndexManagerCache.Entry entry = IndexManagerCache.get(indexName);
+            if (entry == null) {
+                entry = resolve(indexName);
+                if (entry == null) {
+                    return;
+                }
             }
-            final ModuleClassLoader cl = getCapedwarfModule().getClassLoader(); // TODO -- per app?
-            final ClassLoader previous = SecurityActions.setTCCL(cl);
+            final IndexManager indexManager = entry.getIndexManager();
+            final ClassLoader previous = SecurityActions.setTCCL(entry.getClassLoader());
             try {
-                final List<LuceneWork> queue = indexManager.getSerializer().toLuceneWorks((byte[]) objectMessage.getObject());
-                indexManager.performOperations(queue, null);
+                final List<LuceneWork> queue = entry.getSerializer().toLuceneWorks(IndexingCodec.read(objectMessage));
+                PendingWorks works = pending.get(indexManager);
+                if (works == null) {
+                    works = new PendingWorks(entry.getClassLoader());
+                    pending.put(indexManager, works);
+                }
+                for (LuceneWork work : queue) {
+                    works.add(work);
+                }
+                works.received(queue.size());
+                works.enqueued(message.getJMSTimestamp());
+                IndexingMetrics.getInstance().received(indexName, queue.size());
             } finally {
                 SecurityActions.setTCCL(previous);
             }
@@ -107,4 +122,69 @@ class IndexingConsumer implements MessageListener {
             log.error("Illegal object retrieved from message.", e);
         }
     }
+
+    private IndexManagerCache.Entry resolve(String indexName) {
+        final String cacheName = IndexManagerCache.toCacheName(indexName);
+        final Cache cache = manager.getCache(cacheName, false);
+        if (cache == null) {
+            log.warnf("No such cache: %s.", cacheName);
+            return null;
+        }
+
+        final SearchFactoryImplementor factory = (SearchFactoryImplementor) Search.getSearchManager(cache).getSearchFactory();
+        final IndexManager indexManager = factory.getAllIndexesManager().getIndexManager(indexName);
+        if (indexManager == null) {
+            log.warnf("Message received for undefined index: %s.", indexName);
+            return null;
+        }
+        return IndexManagerCache.put(indexName, indexManager, getCapedwarfModule().getClassLoader());
+    }
+
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final Map<IndexManager, PendingWorks> batch = new LinkedHashMap<>(pending);
+        pending.clear();
+        try {
+            final List<IndexWorkers.Task> tasks = new ArrayList<>(batch.size());
+            for (Map.Entry<IndexManager, PendingWorks> entry : batch.entrySet()) {
+                final List<LuceneWork> works = entry.getValue().toList();
+                if (works.isEmpty() == false) {
+                    tasks.add(workers.submit(entry.getKey(), works, entry.getValue().getClassLoader(), entry.getValue().getEnqueued()));
+                }
+            }
+            // the batch is only acknowledged once all indexes applied their works
+            RuntimeException failure = null;
+            for (IndexWorkers.Task task : tasks) {
+                try {
+                    task.await();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            done(batch);
+        }
+    }
+
+    public void discard() {
+        try {
+            done(pending);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private static void done(Map<IndexManager, PendingWorks> batch) {
+        final IndexingMetrics metrics = IndexingMetrics.getInstance();
+        for (Map.Entry<IndexManager, PendingWorks> entry : batch.entrySet()) {
+            metrics.done(entry.getKey().getIndexName(), entry.getValue().getReceived());
+        }
+    }
 }
@@ -22,15 +22,28 @@
 
 package org.jboss.as.capedwarf.services;
 
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
 import javax.jms.MessageListener;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
 
 import org.infinispan.manager.EmbeddedCacheManager;
 import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StartException;
+import org.jboss.msc.service.StopContext;
 import org.jboss.msc.value.InjectedValue;
 
 /**
  * Indexing consumer service
  *
+ * Consumes queue/capedwarfIndexing, fed by the JMS indexing backend,
+ * and lets indexing metrics count the messages still waiting in it.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class IndexingConsumerService extends AbstractConsumerService<String> {
@@ -38,9 +51,66 @@ public class IndexingConsumerService extends AbstractConsumerService<String> {
     public static final ServiceName NAME = ServiceName.JBOSS.append("capedwarf").append("indexing");
 
     private InjectedValue<EmbeddedCacheManager> manager = new InjectedValue<EmbeddedCacheManager>();
+    private InjectedValue<ExecutorService> executor = new InjectedValue<ExecutorService>();
+    private IndexWorkers workers;
+
+    public IndexingConsumerService() {
+        // coalesce index works of a burst into a single apply per index
+        setBatchSize(256);
+        setBatchLinger(20);
+    }
+
+    @Override
+    protected boolean isExposed() {
+        return false; // apps use the tasks queue
+    }
 
     protected MessageListener createMessageListener() {
-        return new IndexingConsumer(manager.getValue());
+        if (workers == null) {
+            workers = new IndexWorkers(executor.getOptionalValue());
+        }
+        return new IndexingConsumer(manager.getValue(), workers);
+    }
+
+    @Override
+    public synchronized void start(StartContext context) throws StartException {
+        super.start(context);
+        IndexingMetrics.setQueueProbe(new IndexingMetrics.QueueProbe() {
+            public long count(long limit) throws Exception {
+                return countMessages(limit);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stop(StopContext context) {
+        IndexingMetrics.setQueueProbe(null);
+        super.stop(context);
+        workers = null;
+    }
+
+    private long countMessages(long limit) throws JMSException {
+        final Connection current = connection;
+        if (current == null) {
+            return 0;
+        }
+        final Session session = current.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            final QueueBrowser browser = session.createBrowser(getDestination());
+            try {
+                long count = 0;
+                final Enumeration<?> messages = browser.getEnumeration();
+                while (count < limit && messages.hasMoreElements()) {
+                    messages.nextElement();
+                    count++;
+                }
+                return count;
+            } finally {
+                browser.close();
+            }
+        } finally {
+            session.close();
+        }
     }
 
     public String getValue() throws IllegalStateException, IllegalArgumentException {
@@ -50,4 +120,8 @@ public class IndexingConsumerService extends AbstractConsumerService<String> {
     public InjectedValue<EmbeddedCacheManager> getCacheManager() {
         return manager;
     }
+
+    public InjectedValue<ExecutorService> getExecutor() {
+        return executor;
+    }
 }
@@ -0,0 +1,302 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.as.capedwarf.services;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.as.capedwarf.utils.Constants;
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.Key;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+import org.jboss.logging.Logger;
+
+/**
+ * Indexing backlog metrics, per index, and optional backpressure.
+ *
+ * The backlog is made of index change messages still waiting in the indexing queue,
+ * counted with a queue browser once per second on a background thread, so consumers never wait on it,
+ * and of works received by the indexing consumer, but not yet applied.
+ *
+ * Datastore writers can check the {@link #BACKPRESSURE} flag in the component registry
+ * before enqueueing more index work.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class IndexingMetrics {
+    private static final Logger log = Logger.getLogger(IndexingMetrics.class);
+    private static final IndexingMetrics INSTANCE = new IndexingMetrics();
+
+    /**
+     * Set while the indexing backlog is over the threshold.
+     */
+    public static final Key<AtomicBoolean> BACKPRESSURE = new SimpleKey<>(Constants.CAPEDWARF, "indexing", AtomicBoolean.class);
+
+    private static final long RATE_WINDOW = 1000L; // millis
+    private static final double ALPHA = 0.2; // apply latency smoothing
+    private static final long PROBE_PERIOD = 1000L; // millis
+    private static final long MIN_PROBE_LIMIT = 10000L;
+
+    private final ConcurrentMap<String, Stats> indexes = new ConcurrentHashMap<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicBoolean backpressure = new AtomicBoolean();
+    private volatile long threshold;
+
+    private ScheduledExecutorService sampler;
+    private volatile long queued;
+
+    private IndexingMetrics() {
+    }
+
+    public static IndexingMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts messages waiting in the indexing queue.
+     */
+    interface QueueProbe {
+        /**
+         * @param limit stop counting at this many messages
+         * @return number of messages, at most the limit
+         * @throws Exception for any error
+         */
+        long count(long limit) throws Exception;
+    }
+
+    /**
+     * Set the indexing queue probe, null if the queue is not consumed.
+     * The probe is run periodically on a background thread.
+     *
+     * @param probe the probe
+     */
+    static void setQueueProbe(final QueueProbe probe) {
+        synchronized (INSTANCE) {
+            if (INSTANCE.sampler != null) {
+                INSTANCE.sampler.shutdownNow();
+                INSTANCE.sampler = null;
+            }
+            INSTANCE.queued = 0;
+            if (probe != null) {
+                INSTANCE.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "CapeDwarf indexing queue probe");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                INSTANCE.sampler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        INSTANCE.sample(probe);
+                    }
+                }, 0, PROBE_PERIOD, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Enable backpressure, once the backlog reaches this size.
+     * The flag is cleared when the backlog drops under half of it.
+     *
+     * @param threshold pending works threshold, 0 disables backpressure
+     */
+    public static void setBackpressureThreshold(long threshold) {
+        INSTANCE.threshold = threshold;
+        if (threshold > 0) {
+            ComponentRegistry.getInstance().setComponent(BACKPRESSURE, INSTANCE.backpressure);
+        } else {
+            ComponentRegistry.getInstance().removeComponent(BACKPRESSURE);
+            INSTANCE.backpressure.set(false);
+        }
+    }
+
+    private Stats stats(String indexName) {
+        Stats stats = indexes.get(indexName);
+        if (stats == null) {
+            final Stats fresh = new Stats();
+            stats = indexes.putIfAbsent(indexName, fresh);
+            if (stats == null) {
+                stats = fresh;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Works were received from the queue.
+     *
+     * @param indexName the index name
+     * @param works number of works
+     */
+    void received(String indexName, int works) {
+        stats(indexName).pending.addAndGet(works);
+        checkBackpressure(received.addAndGet(works));
+    }
+
+    /**
+     * Received works were applied or discarded.
+     *
+     * @param indexName the index name
+     * @param works number of received works
+     */
+    void done(String indexName, int works) {
+        stats(indexName).pending.addAndGet(-works);
+        checkBackpressure(received.addAndGet(-works));
+    }
+
+    /**
+     * Works were applied.
+     *
+     * @param indexName the index name
+     * @param works number of works
+     * @param enqueued oldest JMS timestamp of the works
+     * @param latency apply time in nanos
+     */
+    void applied(String indexName, int works, long enqueued, long latency) {
+        stats(indexName).applied(works, (enqueued > 0) ? System.currentTimeMillis() - enqueued : 0, latency);
+    }
+
+    /**
+     * Count messages waiting in the indexing queue.
+     */
+    private void sample(QueueProbe qp) {
+        try {
+            queued = qp.count(Math.max(MIN_PROBE_LIMIT, 2 * threshold));
+        } catch (Exception e) {
+            log.debugf(e, "Cannot count indexing queue messages.");
+        }
+        checkBackpressure(received.get());
+    }
+
+    private void checkBackpressure(long inProcess) {
+        final long limit = threshold;
+        if (limit <= 0) {
+            return;
+        }
+        final long current = Math.max(0, inProcess) + queued;
+        if (current > limit) {
+            backpressure.compareAndSet(false, true);
+        } else if (current < limit / 2) {
+            backpressure.compareAndSet(true, false);
+        }
+    }
+
+    /**
+     * Drop metrics of the cache's indexes.
+     *
+     * @param cacheName the cache name
+     */
+    void clear(String cacheName) {
+        final Iterator<Map.Entry<String, Stats>> iterator = indexes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Stats> entry = iterator.next();
+            if (cacheName.equals(IndexManagerCache.toCacheName(entry.getKey()))) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public boolean isBackpressure() {
+        return backpressure.get();
+    }
+
+    /**
+     * @return index change messages waiting in the queue, plus received works not yet applied
+     */
+    public long getPendingWorks() {
+        return queued + Math.max(0, received.get());
+    }
+
+    public Map<String, Stats> getIndexes() {
+        return Collections.unmodifiableMap(indexes);
+    }
+
+    public static final class Stats {
+        private final AtomicLong pending = new AtomicLong();
+        private volatile long applied;
+        private volatile long lag;
+        private volatile double latency;
+        private volatile double rate;
+        private long windowStart = System.currentTimeMillis();
+        private long windowCount;
+
+        private synchronized void applied(int works, long lag, long latency) {
+            this.applied += works;
+            this.lag = lag;
+            final double millis = latency / 1000000.0;
+            this.latency = (this.latency == 0) ? millis : ALPHA * millis + (1 - ALPHA) * this.latency;
+
+            final long now = System.currentTimeMillis();
+            windowCount += works;
+            final long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW) {
+                rate = windowCount * 1000.0 / elapsed;
+                windowStart = now;
+                windowCount = 0;
+            }
+        }
+
+        /**
+         * @return works received from the queue, waiting to be applied
+         */
+        public long getPendingWorks() {
+            return Math.max(0, pending.get());
+        }
+
+        /**
+         * @return total applied works
+         */
+        public long getAppliedWorks() {
+            return applied;
+        }
+
+        /**
+         * @return enqueue to apply lag of the last batch, in millis
+         */
+        public long getLag() {
+            return lag;
+        }
+
+        /**
+         * @return smoothed batch apply latency, in millis
+         */
+        public double getApplyLatency() {
+            return latency;
+        }
+
+        /**
+         * @return applied works per second, 0 if idle
+         */
+        public synchronized double getWorksPerSecond() {
+            return (System.currentTimeMillis() - windowStart > 2 * RATE_WINDOW) ? 0 : rate;
+        }
+    }
+}
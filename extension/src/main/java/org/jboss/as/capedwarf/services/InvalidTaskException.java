@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.io.ObjectStreamException;
+
+import javax.jms.MessageFormatException;
+
+import org.jboss.modules.ModuleLoadException;
+
+/**
+ * Task message which CapeDwarf cannot resolve or deserialize, e.g. missing property
+ * or request creator class; retrying such task cannot help.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class InvalidTaskException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    InvalidTaskException(String message) {
+        super(message);
+    }
+
+    private InvalidTaskException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * Mark a failure to resolve or deserialize the task as invalid task, if retry cannot help.
+     *
+     * @param e the failure while resolving or deserializing the task
+     * @return invalid task exception, or the original failure
+     */
+    static Exception wrap(Exception e) {
+        for (Throwable t = e; t != null; t = (t.getCause() != t) ? t.getCause() : null) {
+            if (t instanceof InvalidTaskException) {
+                return e;
+            }
+            if (t instanceof ClassNotFoundException
+                    || t instanceof LinkageError
+                    || t instanceof ClassCastException
+                    || t instanceof IllegalArgumentException
+                    || t instanceof InstantiationException
+                    || t instanceof IllegalAccessException
+                    || t instanceof ObjectStreamException
+                    || t instanceof MessageFormatException
+                    || t instanceof ModuleLoadException) {
+                return new InvalidTaskException(e);
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.lucene.document.Document;
+import org.hibernate.search.filter.FullTextFilterImplementor;
+import org.hibernate.search.indexes.spi.IndexManager;
+import org.hibernate.search.store.IndexShardingStrategy;
+import org.jboss.capedwarf.shared.datastore.CapedwarfIndexShardingStrategy;
+
+/**
+ * Splits the default datastore shard into shards routed by entity kind or entity group.
+ *
+ * Composite index shards are still handled by CapedwarfIndexShardingStrategy.
+ * Queries enable {@link #KIND_FILTER} or {@link #ANCESTOR_FILTER} to only open the matching shard.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class KindShardingStrategy implements IndexShardingStrategy {
+    public static final String FIELD = "__capedwarf_shard_key";
+    public static final String KIND_FILTER = "__capedwarf_kind";
+    public static final String ANCESTOR_FILTER = "__capedwarf_ancestor";
+    public static final String KIND = "kind";
+    public static final String ANCESTOR = "ancestor";
+
+    static final String MODE = "sharding_strategy.mode";
+    static final String BASE_SHARDS = "sharding_strategy.base_shards";
+
+    private final IndexShardingStrategy delegate = new CapedwarfIndexShardingStrategy();
+
+    private DatastoreSharding.Mode mode;
+    private IndexManager[] all;
+    private IndexManager defaultShard;
+    private IndexManager[] routed;
+
+    public void initialize(Properties properties, IndexManager[] indexManagers) {
+        mode = DatastoreSharding.Mode.valueOf(properties.getProperty(MODE));
+        final int base = Integer.parseInt(properties.getProperty(BASE_SHARDS));
+
+        delegate.initialize(properties, Arrays.copyOf(indexManagers, base));
+
+        all = indexManagers;
+        defaultShard = indexManagers[0];
+        routed = new IndexManager[indexManagers.length - base + 1];
+        routed[0] = defaultShard;
+        System.arraycopy(indexManagers, base, routed, 1, indexManagers.length - base);
+    }
+
+    public IndexManager[] getIndexManagersForAllShards() {
+        return all;
+    }
+
+    public IndexManager getIndexManagerForAddition(Class<?> entity, Serializable id, String idInString, Document document) {
+        final IndexManager im = delegate.getIndexManagerForAddition(entity, id, idInString, document);
+        if (im == defaultShard) {
+            final String key = document.get(FIELD);
+            if (key != null) {
+                return routed[ShardKeyBridge.shard(key, routed.length)];
+            }
+        }
+        return im;
+    }
+
+    public IndexManager[] getIndexManagersForDeletion(Class<?> entity, Serializable id, String idInString) {
+        // the id does not carry the shard key
+        return replaceDefault(delegate.getIndexManagersForDeletion(entity, id, idInString), routed);
+    }
+
+    public IndexManager[] getIndexManagersForQuery(FullTextFilterImplementor[] fullTextFilters) {
+        IndexManager[] selected = routed;
+        for (FullTextFilterImplementor filter : fullTextFilters) {
+            final String key;
+            if (mode == DatastoreSharding.Mode.KIND && KIND_FILTER.equals(filter.getName())) {
+                final Object kind = filter.getParameter(KIND);
+                key = (kind != null) ? kind.toString() : null;
+            } else if (mode == DatastoreSharding.Mode.ANCESTOR && ANCESTOR_FILTER.equals(filter.getName())) {
+                key = ShardKeyBridge.rootOf(filter.getParameter(ANCESTOR));
+            } else {
+                key = null;
+            }
+            if (key != null) {
+                selected = new IndexManager[]{routed[ShardKeyBridge.shard(key, routed.length)]};
+                break;
+            }
+        }
+        return replaceDefault(delegate.getIndexManagersForQuery(fullTextFilters), selected);
+    }
+
+    private IndexManager[] replaceDefault(IndexManager[] managers, IndexManager[] replacements) {
+        final List<IndexManager> result = new ArrayList<>(managers.length + replacements.length);
+        for (IndexManager im : managers) {
+            if (im == defaultShard) {
+                result.addAll(Arrays.asList(replacements));
+            } else {
+                result.add(im);
+            }
+        }
+        return result.toArray(new IndexManager[result.size()]);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
+import javax.jms.CompletionListener;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.servlet.ServletContext;
+
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+import org.jboss.capedwarf.shared.jms.MessageConstants;
+import org.jboss.logging.Logger;
+
+/**
+ * In-VM fast path for task messages.
+ *
+ * Non-persistent and deferred tasks, sent w/o delay from a non-transacted session,
+ * whose target app is deployed on this node, are handed to the CapeDwarf executor
+ * instead of making a round trip through the queue.
+ * If the target is not local or too many local tasks are already in flight, we fall back to JMS.
+ * The executor gets a copy of the message, as the sender may re-use the message once send returns.
+ * Failing local tasks are retried through JMS by the consumer, as any other task.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class LocalTaskDispatcher {
+    private static final Logger log = Logger.getLogger(LocalTaskDispatcher.class);
+
+    private static final String DEFERRED_PATH = "/_ah/queue/__deferred__";
+    private static final String SCHEDULED_DELIVERY = "_HQ_SCHED_DELIVERY";
+    private static final String APP_ID_PROPERTY = MessageConstants.PREFIX + MessageConstants.APP_ID;
+    private static final String MODULE_ID_PROPERTY = MessageConstants.PREFIX + MessageConstants.MODULE_ID;
+    private static final String PATH_PROPERTY = MessageConstants.PREFIX + MessageConstants.PATH;
+
+    private final MessageListener listener;
+    private final Queue queue;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    LocalTaskDispatcher(MessageListener listener, Queue queue, Executor executor, int maxInFlight) {
+        this.listener = listener;
+        this.queue = queue;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Wrap connection factory, so its producers first try local dispatch.
+     *
+     * @param factory the real factory
+     * @return wrapped factory
+     */
+    ConnectionFactory wrap(ConnectionFactory factory) {
+        return proxy(factory, ConnectionFactory.class, new Handler(factory, null, null));
+    }
+
+    /**
+     * Try to dispatch the message locally.
+     *
+     * @param session the sender's session, creates the dispatched copy
+     * @return true if dispatched, false if it should go through JMS
+     */
+    boolean tryDispatch(Session session, Destination destination, Message message, int deliveryMode, long deliveryDelay) throws JMSException {
+        if (queue.equals(destination) == false || deliveryDelay > 0 || message.propertyExists(SCHEDULED_DELIVERY)) {
+            return false;
+        }
+        if (message instanceof BytesMessage || message instanceof StreamMessage) {
+            return false; // body is not readable before send
+        }
+        final String path = message.getStringProperty(PATH_PROPERTY);
+        if (deliveryMode != DeliveryMode.NON_PERSISTENT && DEFERRED_PATH.equals(path) == false) {
+            return false;
+        }
+        final String appId = message.getStringProperty(APP_ID_PROPERTY);
+        final String moduleId = message.getStringProperty(MODULE_ID_PROPERTY);
+        if (appId == null || moduleId == null || ComponentRegistry.getInstance().getComponent(new SimpleKey<>(appId, moduleId, ServletContext.class)) == null) {
+            return false; // not deployed here
+        }
+
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        final Message copy;
+        try {
+            copy = TaskRescheduler.copy(session, message);
+            copy.setJMSDeliveryMode(deliveryMode);
+        } catch (JMSException | RuntimeException e) {
+            inFlight.decrementAndGet();
+            log.debugf(e, "Cannot copy local task to %s, sending it through JMS.", path);
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        listener.onMessage(copy);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+    }
+
+    private static <T> T proxy(Object target, Class<T> main, InvocationHandler handler) {
+        final Set<Class<?>> interfaces = new LinkedHashSet<>();
+        interfaces.add(main);
+        for (Class<?> clazz = target.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            for (Class<?> iface : clazz.getInterfaces()) {
+                if (iface.getName().startsWith("javax.jms.")) {
+                    interfaces.add(iface);
+                }
+            }
+        }
+        return main.cast(Proxy.newProxyInstance(main.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()]), handler));
+    }
+
+    private class Handler implements InvocationHandler {
+        private final Object target;
+        private final Destination destination;
+        private final Session session;
+
+        private Handler(Object target, Destination destination, Session session) {
+            this.target = target;
+            this.destination = destination;
+            this.session = session;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (target instanceof MessageProducer && "send".equals(name) && send((MessageProducer) target, args)) {
+                return null;
+            }
+
+            final Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+
+            if (result instanceof Connection && name.startsWith("create")) {
+                return proxy(result, Connection.class, new Handler(result, null, null));
+            } else if (result instanceof Session && name.startsWith("create") && ((Session) result).getTransacted() == false) {
+                return proxy(result, Session.class, new Handler(result, null, (Session) result));
+            } else if (result instanceof MessageProducer && name.startsWith("create") && session != null) {
+                final Destination producerDestination = (args != null && args.length > 0 && args[0] instanceof Destination) ? (Destination) args[0] : null;
+                return proxy(result, MessageProducer.class, new Handler(result, producerDestination, session));
+            }
+            return result;
+        }
+
+        private boolean send(MessageProducer producer, Object[] args) throws JMSException {
+            Destination target = destination;
+            Message message = null;
+            Integer deliveryMode = null;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof CompletionListener) {
+                    return false;
+                } else if (args[i] instanceof Destination) {
+                    target = (Destination) args[i];
+                } else if (args[i] instanceof Message) {
+                    message = (Message) args[i];
+                    if (i + 1 < args.length && args[i + 1] instanceof Integer) {
+                        deliveryMode = (Integer) args[i + 1];
+                    }
+                }
+            }
+            if (message == null || target == null) {
+                return false;
+            }
+            final int mode = (deliveryMode != null) ? deliveryMode : producer.getDeliveryMode();
+            return tryDispatch(session, target, message, mode, producer.getDeliveryDelay());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionStrategy;
+
+/**
+ * Memcache configuration callback.
+ *
+ * With off-heap size set, only a small hot set of values stays on heap;
+ * the rest is passivated to the {@link OffHeapStore}.
+ * App's eviction overrides would replace the hot set limit, so they are ignored then.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MemcacheConfigurationCallback extends AbstractConfigurationCallback {
+    static final int HOT_ENTRIES = 1000;
+
+    private final CacheConfig config;
+
+    public MemcacheConfigurationCallback(CacheConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public ConfigurationBuilder configure(Configuration configuration) {
+        final ConfigurationBuilder builder = super.configure(configuration);
+        if (config.offHeap() > 0) {
+            final CacheOverride override = getOverride();
+            if (override != null && override.hasEviction()) {
+                log.warning("Ignoring memcache eviction override, off-heap store keeps a hot set of " + HOT_ENTRIES + " entries on heap.");
+            }
+            applyHotSet(builder);
+        }
+        return builder;
+    }
+
+    private static void applyHotSet(ConfigurationBuilder builder) {
+        builder.eviction().strategy(EvictionStrategy.LIRS).maxEntries(HOT_ENTRIES);
+    }
+
+    protected void applyBuilder(ConfigurationBuilder builder) {
+        final long offHeap = config.offHeap();
+        if (offHeap > 0) {
+            applyHotSet(builder);
+            builder.persistence().passivation(true)
+                .addStore(OffHeapStoreConfigurationBuilder.class)
+                    .maxBytes(offHeap)
+                    .fetchPersistentState(true)
+                    .purgeOnStartup(true);
+        }
+    }
+}
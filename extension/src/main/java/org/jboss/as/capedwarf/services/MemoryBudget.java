@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.marshall.StreamingMarshaller;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.marshall.core.MarshalledValue;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryActivated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryLoaded;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryActivatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryLoadedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.jboss.logging.Logger;
+
+/**
+ * Per-app byte budget for the values held in memory by the app's caches.
+ *
+ * Tracked caches store values as binary, so an entry's size is the length of its marshalled value.
+ * Entries get into memory by writes, and by loads and activations from the cache store.
+ * Once the budget is exceeded, the oldest written entries of the largest cache are evicted from memory;
+ * with a cache store they are still loaded from there on next read.
+ * Writes are tracked w/o locking, in a concurrent map ordered by a per-cache write sequence.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class MemoryBudget {
+    private static final Logger log = Logger.getLogger(MemoryBudget.class);
+
+    private static final int DEFAULT_ESTIMATE = 256;
+
+    private static volatile ExecutorService evictor;
+
+    private final String appId;
+    private final long maxBytes;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final ConcurrentMap<String, Tracker> trackers = new ConcurrentHashMap<>();
+
+    public MemoryBudget(String appId, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + maxBytes);
+        }
+        this.appId = appId;
+        this.maxBytes = maxBytes;
+    }
+
+    static MemoryBudget of(ConfigurationCallback cc) {
+        return (cc instanceof AbstractConfigurationCallback) ? AbstractConfigurationCallback.class.cast(cc).getMemoryBudget() : null;
+    }
+
+    /**
+     * Values must be stored as binary, for cheap and stable size estimates.
+     */
+    void configure(ConfigurationBuilder builder) {
+        builder.storeAsBinary().enable().storeValuesAsBinary(true);
+    }
+
+    void track(Cache cache) {
+        final Tracker tracker = new Tracker(cache);
+        if (trackers.putIfAbsent(cache.getName(), tracker) == null) {
+            cache.addListener(tracker);
+        }
+    }
+
+    void untrack(Cache cache) {
+        final Tracker tracker = trackers.remove(cache.getName());
+        if (tracker != null) {
+            cache.removeListener(tracker);
+            used.addAndGet(-tracker.clear());
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return used.get();
+    }
+
+    private void added(long delta) {
+        if (used.addAndGet(delta) > maxBytes && evicting.compareAndSet(false, true)) {
+            // evict off the writing thread, which can still hold the entry's lock
+            getEvictor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        evict();
+                    } finally {
+                        evicting.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void evict() {
+        int count = 0;
+        while (used.get() > maxBytes) {
+            Tracker victim = null;
+            for (Tracker tracker : trackers.values()) {
+                if (victim == null || tracker.bytes.get() > victim.bytes.get()) {
+                    victim = tracker;
+                }
+            }
+            if (victim == null || victim.evictEldest() == false) {
+                break;
+            }
+            count++;
+        }
+        if (count > 0) {
+            log.debugf("Evicted %s entries of app %s, using %s of %s bytes.", count, appId, used.get(), maxBytes);
+        }
+    }
+
+    static int estimate(Cache cache, Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof MarshalledValue) {
+            return MarshalledValue.class.cast(value).getRaw().length;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        try {
+            final StreamingMarshaller marshaller = cache.getAdvancedCache().getComponentRegistry().getCacheMarshaller();
+            return marshaller.objectToByteBuffer(value).length;
+        } catch (Exception e) {
+            return DEFAULT_ESTIMATE;
+        }
+    }
+
+    private static ExecutorService getEvictor() {
+        if (evictor == null) {
+            synchronized (MemoryBudget.class) {
+                if (evictor == null) {
+                    evictor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            final Thread thread = new Thread(r, "CapeDwarf memory budget eviction");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                }
+            }
+        }
+        return evictor;
+    }
+
+    @Listener
+    public class Tracker {
+        private final Cache cache;
+        private final ConcurrentMap<Object, Size> sizes = new ConcurrentHashMap<>();
+        private final ConcurrentNavigableMap<Long, Object> order = new ConcurrentSkipListMap<>(); // write sequence -> key
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Tracker(Cache cache) {
+            this.cache = cache;
+        }
+
+        @CacheEntryModified
+        public void modified(CacheEntryModifiedEvent event) {
+            if (event.isPre() == false) {
+                put(event.getKey(), estimate(cache, event.getValue()));
+            }
+        }
+
+        @CacheEntryLoaded
+        public void loaded(CacheEntryLoadedEvent event) {
+            if (event.isPre() == false) {
+                put(event.getKey(), estimate(cache, event.getValue()));
+            }
+        }
+
+        @CacheEntryActivated
+        public void activated(CacheEntryActivatedEvent event) {
+            if (event.isPre() == false) {
+                put(event.getKey(), estimate(cache, event.getValue()));
+            }
+        }
+
+        @CacheEntryRemoved
+        public void removed(CacheEntryRemovedEvent event) {
+            if (event.isPre() == false) {
+                remove(event.getKey());
+            }
+        }
+
+        @CacheEntryInvalidated
+        public void invalidated(CacheEntryInvalidatedEvent event) {
+            remove(event.getKey());
+        }
+
+        @CacheEntriesEvicted
+        public void evicted(CacheEntriesEvictedEvent event) {
+            for (Object key : event.getEntries().keySet()) {
+                remove(key);
+            }
+        }
+
+        private void put(Object key, int size) {
+            final Size current = new Size(size, sequence.incrementAndGet());
+            final Size previous = sizes.put(key, current);
+            if (previous != null) {
+                order.remove(previous.sequence, key);
+            }
+            order.put(current.sequence, key);
+            final long delta = size - (previous != null ? previous.size : 0);
+            bytes.addAndGet(delta);
+            added(delta);
+        }
+
+        private void remove(Object key) {
+            final Size previous = sizes.remove(key);
+            if (previous != null) {
+                untracked(key, previous);
+            }
+        }
+
+        private void untracked(Object key, Size previous) {
+            order.remove(previous.sequence, key);
+            bytes.addAndGet(-previous.size);
+            used.addAndGet(-previous.size);
+        }
+
+        /**
+         * Evict the eldest written entry; its size is released by the eviction event.
+         *
+         * @return true if an entry was evicted
+         */
+        private boolean evictEldest() {
+            Map.Entry<Long, Object> eldest;
+            while ((eldest = order.firstEntry()) != null) {
+                final Object key = eldest.getValue();
+                final Size current = sizes.get(key);
+                if (current == null || current.sequence != eldest.getKey()) {
+                    order.remove(eldest.getKey(), key); // overwritten or removed meanwhile
+                    continue;
+                }
+                try {
+                    cache.evict(key);
+                } catch (Exception e) {
+                    log.debugf("Cannot evict %s from %s: %s", key, cache.getName(), e);
+                    // still in memory, try the other entries first next time
+                    final Size moved = new Size(current.size, sequence.incrementAndGet());
+                    if (sizes.replace(key, current, moved)) {
+                        order.remove(current.sequence, key);
+                        order.put(moved.sequence, key);
+                    }
+                    return false;
+                }
+                if (sizes.remove(key, current)) {
+                    untracked(key, current); // no event, the entry was not in memory anymore
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private long clear() {
+            sizes.clear();
+            order.clear();
+            return bytes.getAndSet(0);
+        }
+    }
+
+    private static final class Size {
+        private final int size;
+        private final long sequence;
+
+        private Size(int size, long sequence) {
+            this.size = size;
+            this.sequence = sequence;
+        }
+    }
+}
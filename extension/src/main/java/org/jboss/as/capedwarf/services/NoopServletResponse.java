@@ -24,7 +24,10 @@ package org.jboss.as.capedwarf.services;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Locale;
@@ -43,9 +46,85 @@ import javax.servlet.http.HttpServletResponse;
 class NoopServletResponse implements HttpServletResponse {
 
     private static ServletOutputStream NOOP_SOS = new NoopServletOutputStream();
-    private static PrintWriter NOOP_PW = new PrintWriter(new NoopOutputStream());
+
+    private static final ThreadLocal<NoopServletResponse> responses = new ThreadLocal<>();
+    private static volatile int captureSize;
 
     private int status = SC_OK;
+    private boolean inUse;
+
+    private CaptureOutputStream capture;
+    private final PrintWriter noopWriter = new PrintWriter(new NoopWriter()); // per instance, PrintWriter locks
+    private ServletOutputStream sos = NOOP_SOS;
+    private PrintWriter pw = noopWriter;
+
+    /**
+     * Keep status and first N bytes of the output, for diagnostics.
+     *
+     * @param size the capture size, 0 disables capture
+     */
+    static void setCaptureSize(int size) {
+        captureSize = Math.max(0, size);
+    }
+
+    /**
+     * Get this thread's response, reset for the next dispatch.
+     * Nested dispatches get their own instance.
+     *
+     * @return the response
+     */
+    static NoopServletResponse begin() {
+        NoopServletResponse response = responses.get();
+        if (response == null) {
+            response = new NoopServletResponse();
+            responses.set(response);
+        } else if (response.inUse) {
+            response = new NoopServletResponse();
+        }
+        response.start();
+        return response;
+    }
+
+    private void start() {
+        inUse = true;
+        status = SC_OK;
+        final int size = captureSize;
+        if (size > 0) {
+            if (capture == null || capture.buffer.length != size) {
+                capture = new CaptureOutputStream(size);
+                sos = new CaptureServletOutputStream(capture);
+                pw = new PrintWriter(new OutputStreamWriter(capture, StandardCharsets.UTF_8));
+            }
+            capture.reset();
+        } else {
+            capture = null;
+            sos = NOOP_SOS;
+            pw = noopWriter;
+        }
+    }
+
+    /**
+     * Dispatch is done, the response can be reused by this thread.
+     */
+    void end() {
+        if (capture != null) {
+            pw.flush();
+        }
+        inUse = false;
+    }
+
+    /**
+     * Captured output, if capture is enabled.
+     *
+     * @return first N bytes of the output or null
+     */
+    String getCapturedOutput() {
+        if (capture == null) {
+            return null;
+        }
+        pw.flush();
+        return new String(capture.buffer, 0, capture.count, StandardCharsets.UTF_8) + (capture.total > capture.count ? "..." : "");
+    }
 
     public String getCharacterEncoding() {
         return "UTF-8";
@@ -56,11 +135,11 @@ class NoopServletResponse implements HttpServletResponse {
     }
 
     public ServletOutputStream getOutputStream() throws IOException {
-        return NOOP_SOS;
+        return sos;
     }
 
     public PrintWriter getWriter() throws IOException {
-        return NOOP_PW;
+        return pw;
     }
 
     public void setCharacterEncoding(String charset) {
@@ -84,6 +163,10 @@ class NoopServletResponse implements HttpServletResponse {
     }
 
     public void resetBuffer() {
+        if (capture != null) {
+            pw.flush();
+            capture.reset();
+        }
     }
 
     public boolean isCommitted() {
@@ -91,6 +174,8 @@ class NoopServletResponse implements HttpServletResponse {
     }
 
     public void reset() {
+        status = SC_OK;
+        resetBuffer();
     }
 
     public void setLocale(Locale loc) {
@@ -103,8 +188,20 @@ class NoopServletResponse implements HttpServletResponse {
     public void setContentLengthLong(long len) {
     }
 
-    private static class NoopOutputStream extends OutputStream {
-        public void write(int b) throws IOException {
+    private static class NoopWriter extends Writer {
+        public void write(int c) throws IOException {
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+        }
+
+        public void write(String str, int off, int len) throws IOException {
+        }
+
+        public void flush() throws IOException {
+        }
+
+        public void close() throws IOException {
         }
     }
 
@@ -112,6 +209,63 @@ class NoopServletResponse implements HttpServletResponse {
         public void write(int b) throws IOException {
         }
 
+        public void write(byte[] b, int off, int len) throws IOException {
+        }
+
+        public boolean isReady() {
+            return true;
+        }
+
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+
+    private static class CaptureOutputStream extends OutputStream {
+        private final byte[] buffer;
+        private int count;
+        private long total;
+
+        private CaptureOutputStream(int size) {
+            buffer = new byte[size];
+        }
+
+        private void reset() {
+            count = 0;
+            total = 0;
+        }
+
+        public void write(int b) throws IOException {
+            if (count < buffer.length) {
+                buffer[count++] = (byte) b;
+            }
+            total++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            final int n = Math.min(len, buffer.length - count);
+            if (n > 0) {
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+            }
+            total += len;
+        }
+    }
+
+    private static class CaptureServletOutputStream extends ServletOutputStream {
+        private final CaptureOutputStream delegate;
+
+        private CaptureServletOutputStream(CaptureOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        public void write(int b) throws IOException {
+            delegate.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+        }
+
         public boolean isReady() {
             return true;
         }
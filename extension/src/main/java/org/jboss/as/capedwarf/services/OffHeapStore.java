@@ -0,0 +1,482 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.infinispan.commons.io.ByteBuffer;
+import org.infinispan.commons.io.ByteBufferFactory;
+import org.infinispan.marshall.core.MarshalledEntry;
+import org.infinispan.marshall.core.MarshalledEntryFactory;
+import org.infinispan.metadata.InternalMetadata;
+import org.infinispan.persistence.spi.AdvancedLoadWriteStore;
+import org.infinispan.persistence.spi.InitializationContext;
+import org.infinispan.persistence.spi.PersistenceException;
+import org.infinispan.util.TimeService;
+import org.jboss.logging.Logger;
+
+/**
+ * Store which keeps marshalled values in direct memory slabs.
+ *
+ * Keys and metadata stay on heap. Slabs are split into chunks of doubling size classes,
+ * and once the budget is used up, a size class evicts its least recently used entries.
+ * A size class w/o any slab takes one over from the size class with most slabs,
+ * evicting that slab's entries, as memcached's slab reassignment does.
+ * Values larger than a slab, or which still don't get a chunk, are dropped, as an evicted entry would be,
+ * so the store never holds more than its budget.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class OffHeapStore<K, V> implements AdvancedLoadWriteStore<K, V> {
+    private static final Logger log = Logger.getLogger(OffHeapStore.class);
+
+    static final int SLAB_SIZE = 1024 * 1024;
+    private static final int MIN_CHUNK = 64;
+
+    private final ConcurrentMap<K, Slot> index = new ConcurrentHashMap<>();
+    private final AtomicInteger slabs = new AtomicInteger();
+
+    private MarshalledEntryFactory<K, V> entryFactory;
+    private ByteBufferFactory bufferFactory;
+    private TimeService timeService;
+    private String cacheName;
+    private int maxSlabs;
+    private volatile List<SizeClass> classes;
+
+    @SuppressWarnings("unchecked")
+    public void init(InitializationContext ctx) {
+        final OffHeapStoreConfiguration configuration = ctx.getConfiguration();
+        entryFactory = ctx.getMarshalledEntryFactory();
+        bufferFactory = ctx.getByteBufferFactory();
+        timeService = ctx.getTimeService();
+        cacheName = ctx.getCache().getName();
+        maxSlabs = (int) Math.max(1, configuration.maxBytes() / SLAB_SIZE);
+    }
+
+    public void start() {
+        final List<SizeClass> list = new ArrayList<>();
+        for (int size = MIN_CHUNK; size <= SLAB_SIZE; size *= 2) {
+            list.add(new SizeClass(size));
+        }
+        classes = list;
+        log.infof("Off-heap store for %s limited to %s slabs of %s bytes.", cacheName, maxSlabs, SLAB_SIZE);
+    }
+
+    public void stop() {
+        index.clear();
+        classes = null; // direct memory is released once the slabs are collected
+        slabs.set(0);
+    }
+
+    public void write(MarshalledEntry<? extends K, ? extends V> entry) {
+        final K key = entry.getKey();
+        final ByteBuffer value = entry.getValueBytes();
+        if (value == null) {
+            delete(key);
+            return;
+        }
+        final InternalMetadata metadata = entry.getMetadata();
+        final long expiry = (metadata != null) ? metadata.expiryTime() : -1;
+        final Slot slot = allocate(key, value, toBytes(entry.getMetadataBytes()), expiry);
+        if (slot == null) {
+            delete(key); // the previous value is stale
+            return;
+        }
+        final Slot previous = index.put(key, slot);
+        if (previous != null) {
+            previous.free();
+        }
+        if (slot.isFreed()) {
+            index.remove(key, slot); // evicted before it was indexed
+        }
+    }
+
+    public MarshalledEntry<K, V> load(Object key) {
+        final Slot slot = index.get(key);
+        if (slot == null || expire(slot, timeService.wallClockTime())) {
+            return null;
+        }
+        final byte[] value = slot.read();
+        if (value == null) {
+            return null;
+        }
+        return entryFactory.newMarshalledEntry(key, toBuffer(value), toBuffer(slot.metadata));
+    }
+
+    public boolean contains(Object key) {
+        final Slot slot = index.get(key);
+        return (slot != null && expire(slot, timeService.wallClockTime()) == false);
+    }
+
+    public boolean delete(Object key) {
+        final Slot slot = index.remove(key);
+        if (slot != null) {
+            slot.free();
+            return true;
+        }
+        return false;
+    }
+
+    public void process(KeyFilter<? super K> filter, CacheLoaderTask<K, V> task, Executor executor, boolean fetchValue, boolean fetchMetadata) {
+        final SimpleTaskContext context = new SimpleTaskContext();
+        final long now = timeService.wallClockTime();
+        for (Map.Entry<K, Slot> entry : index.entrySet()) {
+            if (context.isStopped()) {
+                break;
+            }
+            final K key = entry.getKey();
+            final Slot slot = entry.getValue();
+            if ((filter != null && filter.shouldLoadKey(key) == false) || expire(slot, now)) {
+                continue;
+            }
+            final ByteBuffer value;
+            if (fetchValue) {
+                final byte[] bytes = slot.read();
+                if (bytes == null) {
+                    continue; // evicted meanwhile
+                }
+                value = toBuffer(bytes);
+            } else {
+                value = null;
+            }
+            try {
+                task.processEntry(entryFactory.newMarshalledEntry(key, value, fetchMetadata ? toBuffer(slot.metadata) : null), context);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException(e);
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public void clear() {
+        for (K key : index.keySet()) {
+            delete(key);
+        }
+    }
+
+    public void purge(Executor threadPool, PurgeListener<? super K> listener) {
+        final long now = timeService.wallClockTime();
+        for (Map.Entry<K, Slot> entry : index.entrySet()) {
+            if (expire(entry.getValue(), now) && listener != null) {
+                listener.entryPurged(entry.getKey());
+            }
+        }
+    }
+
+    private boolean expire(Slot slot, long now) {
+        if (slot.expiry > 0 && slot.expiry < now) {
+            if (index.remove(slot.key, slot)) {
+                slot.free();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private Slot allocate(K key, ByteBuffer value, byte[] metadata, long expiry) {
+        final int length = value.getLength();
+        final SizeClass sc = classFor(length);
+        if (sc == null) {
+            log.debugf("Value of %s is too large for off-heap store %s, dropping it: %s bytes.", key, cacheName, length);
+            return null;
+        }
+        Slot slot = sc.store(key, value, metadata, expiry);
+        if (slot == null) {
+            // no slab of its own yet, and no free slab left
+            final java.nio.ByteBuffer slab = reassignSlab(sc);
+            if (slab != null) {
+                slot = sc.store(key, value, metadata, expiry, slab);
+            }
+        }
+        if (slot == null) {
+            log.debugf("No off-heap memory left for size class %s of %s, dropping %s.", sc.chunkSize, cacheName, key);
+        }
+        return slot;
+    }
+
+    /**
+     * Take a slab from the size class with most slabs, evicting its entries.
+     *
+     * @param recipient the size class w/o memory
+     * @return the slab, or null if no other size class has one
+     */
+    private synchronized java.nio.ByteBuffer reassignSlab(SizeClass recipient) {
+        final List<SizeClass> current = classes;
+        if (current == null) {
+            return null;
+        }
+        SizeClass donor = null;
+        int most = 0;
+        for (SizeClass sc : current) {
+            final int count = sc.slabCount();
+            if (sc != recipient && count > most) {
+                donor = sc;
+                most = count;
+            }
+        }
+        return (donor != null) ? donor.releaseSlab() : null;
+    }
+
+    private SizeClass classFor(int length) {
+        final List<SizeClass> current = classes;
+        if (current != null) {
+            for (SizeClass sc : current) {
+                if (length <= sc.chunkSize) {
+                    return sc;
+                }
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer toBuffer(byte[] bytes) {
+        return (bytes != null) ? bufferFactory.newByteBuffer(bytes, 0, bytes.length) : null;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[buffer.getLength()];
+        System.arraycopy(buffer.getBuf(), buffer.getOffset(), bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private final class SizeClass {
+        private final int chunkSize;
+        private final int chunksPerSlab;
+        private final List<java.nio.ByteBuffer> memory = new ArrayList<>(); // null for reassigned slabs
+        private final ArrayDeque<Integer> free = new ArrayDeque<>();
+        private final LinkedHashSet<Slot> lru = new LinkedHashSet<>();
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = SLAB_SIZE / chunkSize;
+        }
+
+        private Slot store(K key, ByteBuffer value, byte[] metadata, long expiry) {
+            return store(key, value, metadata, expiry, null);
+        }
+
+        /**
+         * Store the value.
+         *
+         * @param slab reassigned slab to add, can be null
+         * @return the slot, or null if no chunk is available
+         */
+        private synchronized Slot store(K key, ByteBuffer value, byte[] metadata, long expiry, java.nio.ByteBuffer slab) {
+            if (slab != null) {
+                addSlab(slab);
+            }
+            int address = allocate();
+            if (address < 0) {
+                address = evictEldest();
+                if (address < 0) {
+                    return null;
+                }
+            }
+            final int length = value.getLength();
+            final Slot slot = new Slot(key, this, address, length, metadata, expiry);
+            write(address, value.getBuf(), value.getOffset(), length);
+            lru.add(slot);
+            return slot;
+        }
+
+        private int allocate() {
+            if (free.isEmpty()) {
+                if (slabs.incrementAndGet() > maxSlabs) {
+                    slabs.decrementAndGet();
+                    return -1;
+                }
+                addSlab(java.nio.ByteBuffer.allocateDirect(SLAB_SIZE));
+            }
+            return free.poll();
+        }
+
+        private void addSlab(java.nio.ByteBuffer slab) {
+            int index = memory.indexOf(null);
+            if (index < 0) {
+                index = memory.size();
+                memory.add(slab);
+            } else {
+                memory.set(index, slab);
+            }
+            final int first = index * chunksPerSlab;
+            for (int i = 0; i < chunksPerSlab; i++) {
+                free.add(first + i);
+            }
+        }
+
+        private synchronized int slabCount() {
+            int count = 0;
+            for (java.nio.ByteBuffer slab : memory) {
+                if (slab != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Release the slab of the least recently used entry, evicting all entries in it.
+         * The slab stays counted against the budget, it is handed over to another size class.
+         *
+         * @return the slab, or null if none
+         */
+        private synchronized java.nio.ByteBuffer releaseSlab() {
+            int victim = -1;
+            if (lru.isEmpty() == false) {
+                victim = lru.iterator().next().address / chunksPerSlab;
+            } else {
+                for (int i = 0; i < memory.size() && victim < 0; i++) {
+                    if (memory.get(i) != null) {
+                        victim = i;
+                    }
+                }
+            }
+            if (victim < 0) {
+                return null;
+            }
+            final Iterator<Slot> iterator = lru.iterator();
+            while (iterator.hasNext()) {
+                final Slot slot = iterator.next();
+                if (slot.address / chunksPerSlab == victim) {
+                    iterator.remove();
+                    slot.freed = true;
+                    index.remove(slot.key, slot);
+                }
+            }
+            final Iterator<Integer> addresses = free.iterator();
+            while (addresses.hasNext()) {
+                if (addresses.next() / chunksPerSlab == victim) {
+                    addresses.remove();
+                }
+            }
+            final java.nio.ByteBuffer slab = memory.set(victim, null);
+            slab.clear();
+            return slab;
+        }
+
+        private int evictEldest() {
+            final Iterator<Slot> iterator = lru.iterator();
+            if (iterator.hasNext() == false) {
+                return -1;
+            }
+            final Slot victim = iterator.next();
+            iterator.remove();
+            victim.freed = true;
+            index.remove(victim.key, victim);
+            return victim.address;
+        }
+
+        private java.nio.ByteBuffer chunk(int address) {
+            final java.nio.ByteBuffer buffer = memory.get(address / chunksPerSlab).duplicate();
+            buffer.position((address % chunksPerSlab) * chunkSize);
+            return buffer;
+        }
+
+        private void write(int address, byte[] bytes, int offset, int length) {
+            chunk(address).put(bytes, offset, length);
+        }
+
+        private byte[] read(int address, int length) {
+            final byte[] bytes = new byte[length];
+            chunk(address).get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Off-heap chunk.
+     */
+    private final class Slot {
+        private final K key;
+        private final SizeClass sizeClass;
+        private final int address;
+        private final int length;
+        private final byte[] metadata;
+        private final long expiry;
+        private boolean freed; // guarded by sizeClass
+
+        private Slot(K key, SizeClass sizeClass, int address, int length, byte[] metadata, long expiry) {
+            this.key = key;
+            this.sizeClass = sizeClass;
+            this.address = address;
+            this.length = length;
+            this.metadata = metadata;
+            this.expiry = expiry;
+        }
+
+        private byte[] read() {
+            synchronized (sizeClass) {
+                if (freed) {
+                    return null;
+                }
+                sizeClass.lru.remove(this);
+                sizeClass.lru.add(this);
+                return sizeClass.read(address, length);
+            }
+        }
+
+        private boolean isFreed() {
+            synchronized (sizeClass) {
+                return freed;
+            }
+        }
+
+        private void free() {
+            synchronized (sizeClass) {
+                if (freed == false) {
+                    freed = true;
+                    sizeClass.lru.remove(this);
+                    sizeClass.free.push(address);
+                }
+            }
+        }
+    }
+
+    private static class SimpleTaskContext implements TaskContext {
+        private volatile boolean stopped;
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import org.infinispan.commons.configuration.Builder;
+import org.infinispan.configuration.cache.AbstractStoreConfigurationBuilder;
+import org.infinispan.configuration.cache.PersistenceConfigurationBuilder;
+
+/**
+ * Off-heap store config builder.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class OffHeapStoreConfigurationBuilder extends AbstractStoreConfigurationBuilder<OffHeapStoreConfiguration, OffHeapStoreConfigurationBuilder> {
+    private long maxBytes = 64L * 1024 * 1024;
+
+    public OffHeapStoreConfigurationBuilder(PersistenceConfigurationBuilder builder) {
+        super(builder);
+    }
+
+    public OffHeapStoreConfigurationBuilder maxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public void validate() {
+        super.validate();
+        if (maxBytes < OffHeapStore.SLAB_SIZE) {
+            throw new IllegalStateException("Off-heap store needs at least one slab of " + OffHeapStore.SLAB_SIZE + " bytes: " + maxBytes);
+        }
+    }
+
+    public OffHeapStoreConfiguration create() {
+        return new OffHeapStoreConfiguration(purgeOnStartup, fetchPersistentState, ignoreModifications, async.create(), singletonStore.create(), preload, shared, properties, maxBytes);
+    }
+
+    public Builder<?> read(OffHeapStoreConfiguration template) {
+        maxBytes = template.maxBytes();
+        purgeOnStartup = template.purgeOnStartup();
+        fetchPersistentState = template.fetchPersistentState();
+        ignoreModifications = template.ignoreModifications();
+        async.read(template.async());
+        singletonStore.read(template.singletonStore());
+        preload = template.preload();
+        shared = template.shared();
+        properties = template.properties();
+        return this;
+    }
+
+    public OffHeapStoreConfigurationBuilder self() {
+        return this;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.search.backend.DeleteLuceneWork;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.UpdateLuceneWork;
+
+/**
+ * Works of a single index, in order.
+ *
+ * Delete and update remove any earlier work for the same entity, as they delete by id first.
+ * Works w/o id (purge all, optimize, flush) are barriers, nothing is merged across them.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class PendingWorks {
+    private final Map<WorkKey, List<LuceneWork>> works = new LinkedHashMap<>();
+    private final ClassLoader classLoader;
+    private int received;
+    private int generation;
+    private long enqueued; // oldest JMS timestamp
+
+    PendingWorks(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    void add(LuceneWork work) {
+        final String id = work.getIdInString();
+        final WorkKey key = new WorkKey((id != null) ? work.getEntityClass() : null, id, generation);
+        List<LuceneWork> list;
+        if (work instanceof DeleteLuceneWork || work instanceof UpdateLuceneWork) {
+            works.remove(key); // superseded, and re-added at the end
+            list = null;
+        } else {
+            list = works.get(key);
+        }
+        if (list == null) {
+            list = new ArrayList<>(1);
+            works.put(key, list);
+        }
+        list.add(work);
+        if (id == null) {
+            generation++;
+        }
+    }
+
+    /**
+     * Count received works, before merging.
+     *
+     * @param count number of received works
+     */
+    void received(int count) {
+        received += count;
+    }
+
+    void enqueued(long timestamp) {
+        if (timestamp > 0 && (enqueued == 0 || timestamp < enqueued)) {
+            enqueued = timestamp;
+        }
+    }
+
+    List<LuceneWork> toList() {
+        final List<LuceneWork> result = new ArrayList<>(works.size());
+        for (List<LuceneWork> list : works.values()) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    int getReceived() {
+        return received;
+    }
+
+    long getEnqueued() {
+        return enqueued;
+    }
+
+    private static class WorkKey {
+        private final Class<?> entityClass;
+        private final String id;
+        private final int generation;
+
+        private WorkKey(Class<?> entityClass, String id, int generation) {
+            this.entityClass = entityClass;
+            this.id = id;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof WorkKey == false) {
+                return false;
+            }
+            final WorkKey other = (WorkKey) o;
+            return generation == other.generation && (id != null ? id.equals(other.id) : other.id == null) && (entityClass != null ? entityClass.equals(other.entityClass) : other.entityClass == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (entityClass != null) ? entityClass.hashCode() : 0;
+            result = 31 * result + (id != null ? id.hashCode() : 0);
+            return 31 * result + generation;
+        }
+    }
+}
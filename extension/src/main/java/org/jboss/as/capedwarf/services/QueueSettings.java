@@ -0,0 +1,260 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+import org.jboss.capedwarf.shared.config.ApplicationConfiguration;
+import org.jboss.capedwarf.shared.config.QueueXml;
+import org.jboss.capedwarf.shared.jms.MessageConstants;
+
+/**
+ * Executor view of an app's queue.xml.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+final class QueueSettings {
+    static final String DEFAULT_QUEUE = "default";
+    /**
+     * Optional message property holding the task's queue name.
+     */
+    static final String QUEUE_NAME = MessageConstants.PREFIX + "queue_name";
+
+    private static final String PATH_PROPERTY = MessageConstants.PREFIX + MessageConstants.PATH;
+    private static final String QUEUE_PATH_PREFIX = "/_ah/queue/";
+    private static final String DEFERRED_QUEUE_PATH = "__deferred__";
+
+    private static final int MAX_WEIGHT = 100;
+    private static final QueueSettings DEFAULTS = new QueueSettings(null);
+    private static final Map<QueueXml, QueueSettings> cache = Collections.synchronizedMap(new WeakHashMap<QueueXml, QueueSettings>());
+
+    private final int weight;
+    private final int concurrencyCap;
+    private final Map<String, Limits> limits = new HashMap<>();
+    private final Map<String, RetryPolicy> retries = new HashMap<>();
+
+    private QueueSettings(QueueXml queueXml) {
+        double capacity = 0;
+        int cap = 0;
+        boolean capped = (queueXml != null);
+        if (queueXml != null) {
+            for (Map.Entry<String, QueueXml.Queue> entry : queueXml.getQueues().entrySet()) {
+                final QueueXml.Queue queue = entry.getValue();
+                final Object rate = queue.getRate();
+                final Object bucketSize = queue.getBucketSize();
+                final Object maxConcurrent = queue.getMaxConcurrentRequests();
+                final double perSecond = toRate(rate);
+                final int bucket = toInt(bucketSize, 0);
+                final int mc = toInt(maxConcurrent, 0);
+                limits.put(entry.getKey(), new Limits(perSecond, bucket > 0 ? bucket : (int) Math.max(1, Math.ceil(perSecond)), mc));
+                retries.put(entry.getKey(), toRetryPolicy(queue.getRetryParameters()));
+                capacity += Math.max(perSecond, bucket);
+                if (mc > 0) {
+                    cap += mc;
+                } else {
+                    capped = false;
+                }
+            }
+        }
+        this.weight = (int) Math.max(1, Math.min(MAX_WEIGHT, Math.round(capacity)));
+        this.concurrencyCap = capped && cap > 0 ? cap : Integer.MAX_VALUE;
+    }
+
+    static QueueSettings get(String appId, String moduleId) {
+        final ApplicationConfiguration configuration = ComponentRegistry.getInstance().getComponent(new SimpleKey<>(appId, moduleId, ApplicationConfiguration.class));
+        final QueueXml queueXml = (configuration != null) ? configuration.getQueueXml() : null;
+        if (queueXml == null) {
+            return DEFAULTS;
+        }
+        QueueSettings settings = cache.get(queueXml);
+        if (settings == null) {
+            settings = new QueueSettings(queueXml);
+            cache.put(queueXml, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * Weight derived from queues' rate and bucket size, in [1, 100].
+     */
+    int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Sum of max-concurrent-requests, if every queue defines it.
+     */
+    int getConcurrencyCap() {
+        return concurrencyCap;
+    }
+
+    /**
+     * Task's queue name.
+     *
+     * Producers don't set the queue name property, so we derive it from the task's
+     * default url, /_ah/queue/&lt;queue name&gt;, if it names one of the app's queues.
+     * Otherwise, e.g. for custom urls and deferred tasks, we fall back to the default queue.
+     *
+     * @param message the task message
+     * @return the queue name, never null
+     * @throws JMSException for any JMS error
+     */
+    String getQueueName(Message message) throws JMSException {
+        final String name = message.getStringProperty(QUEUE_NAME);
+        if (name != null) {
+            return name;
+        }
+        final String path = message.getStringProperty(PATH_PROPERTY);
+        if (path != null && path.startsWith(QUEUE_PATH_PREFIX)) {
+            final int end = path.indexOf('/', QUEUE_PATH_PREFIX.length());
+            final String segment = path.substring(QUEUE_PATH_PREFIX.length(), (end > 0) ? end : path.length());
+            if (DEFERRED_QUEUE_PATH.equals(segment) == false && limits.containsKey(segment)) {
+                return segment;
+            }
+        }
+        return DEFAULT_QUEUE;
+    }
+
+    /**
+     * Limits of a named queue.
+     *
+     * @param queueName the queue name
+     * @return queue's limits or null if no such queue
+     */
+    Limits getLimits(String queueName) {
+        return limits.get(queueName);
+    }
+
+    /**
+     * Retry policy of a named queue, falling back to default queue's policy.
+     *
+     * @param queueName the queue name, can be null
+     * @return retry policy
+     */
+    RetryPolicy getRetryPolicy(String queueName) {
+        RetryPolicy policy = (queueName != null) ? retries.get(queueName) : null;
+        if (policy == null) {
+            policy = retries.get(DEFAULT_QUEUE);
+        }
+        return (policy != null) ? policy : RetryPolicy.DEFAULT;
+    }
+
+    private static RetryPolicy toRetryPolicy(QueueXml.RetryParameters rp) {
+        if (rp == null) {
+            return RetryPolicy.DEFAULT;
+        }
+        final Object retryLimit = rp.getTaskRetryLimit();
+        final Object ageLimit = rp.getTaskAgeLimit();
+        final Object minBackoff = rp.getMinBackoffSeconds();
+        final Object maxBackoff = rp.getMaxBackoffSeconds();
+        final Object maxDoublings = rp.getMaxDoublings();
+        return RetryPolicy.create(retryLimit, ageLimit, minBackoff, maxBackoff, maxDoublings);
+    }
+
+    /**
+     * Parse queue.xml rate, e.g. 5/s, 10/m, 100/h, 1/d.
+     *
+     * @param rate the rate
+     * @return tasks per second
+     */
+    static double toRate(Object rate) {
+        if (rate == null) {
+            return 0;
+        }
+        if (rate instanceof Number) {
+            return ((Number) rate).doubleValue();
+        }
+        final String value = rate.toString().trim();
+        final int p = value.indexOf('/');
+        try {
+            final double amount = Double.parseDouble(p > 0 ? value.substring(0, p).trim() : value);
+            final String unit = p > 0 ? value.substring(p + 1).trim() : "s";
+            switch (unit) {
+                case "m":
+                    return amount / 60;
+                case "h":
+                    return amount / 3600;
+                case "d":
+                    return amount / 86400;
+                default:
+                    return amount;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static int toInt(Object value, int defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Rate, bucket size and max concurrent requests of a single queue.
+     */
+    static final class Limits {
+        private final double rate;
+        private final int bucketSize;
+        private final int maxConcurrentRequests;
+
+        Limits(double rate, int bucketSize, int maxConcurrentRequests) {
+            this.rate = rate;
+            this.bucketSize = bucketSize;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+
+        /**
+         * @return tasks per second, 0 if not limited
+         */
+        double getRate() {
+            return rate;
+        }
+
+        int getBucketSize() {
+            return bucketSize;
+        }
+
+        /**
+         * @return max concurrent requests, 0 if not limited
+         */
+        int getMaxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+    }
+}
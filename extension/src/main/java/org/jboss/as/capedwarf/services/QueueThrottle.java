@@ -0,0 +1,172 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Token bucket and concurrency limit of a single app's named queue.
+ *
+ * Tokens are reserved: a task over the rate takes a future slot, so tasks over the rate
+ * are spread at the queue's rate, instead of all coming back at the same time.
+ * Concurrency permits are only taken once the task is dispatched; a task over
+ * max concurrent requests is parked, and handed the permit of the next finished task.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class QueueThrottle {
+    private final QueueSettings.Limits limits;
+    private final double ratePerMilli;
+    private final int maxConcurrent;
+    private final Queue<Runnable> parked = new ArrayDeque<>();
+
+    private double tokens;
+    private long last;
+    private int running;
+
+    QueueThrottle(QueueSettings.Limits limits) {
+        this.limits = limits;
+        this.ratePerMilli = limits.getRate() / 1000;
+        this.maxConcurrent = limits.getMaxConcurrentRequests();
+        this.tokens = limits.getBucketSize();
+        this.last = System.nanoTime();
+    }
+
+    /**
+     * Reserve a token. Tokens can go negative, every reservation over the rate
+     * gets its own slot, after the slots already reserved.
+     *
+     * @return 0 if the task may run now, otherwise the delay in millis until its reserved slot
+     */
+    synchronized long reserve() {
+        if (ratePerMilli <= 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        tokens = Math.min(limits.getBucketSize(), tokens + ((now - last) / 1000000.0) * ratePerMilli);
+        last = now;
+        tokens -= 1;
+        return (tokens >= 0) ? 0 : (long) Math.ceil(-tokens / ratePerMilli);
+    }
+
+    /**
+     * Take a concurrency permit, or park the task until one is released.
+     *
+     * @param task the task
+     * @return true if the permit was taken, false if the task was parked
+     */
+    synchronized boolean acquire(Runnable task) {
+        if (maxConcurrent <= 0 || running < maxConcurrent) {
+            running++;
+            return true;
+        }
+        parked.add(task);
+        return false;
+    }
+
+    /**
+     * Take a concurrency permit, waiting for one if needed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (maxConcurrent > 0 && running >= maxConcurrent) {
+            wait();
+        }
+        running++;
+    }
+
+    /**
+     * Release the permit; if a task is parked, the permit is handed over to it.
+     *
+     * @return the parked task, which now holds the permit and should be run by the caller, or null
+     */
+    synchronized Runnable release() {
+        final Runnable next = parked.poll();
+        if (next == null) {
+            running--;
+            notify();
+        }
+        return next;
+    }
+
+    /**
+     * Drop all parked tasks, e.g. on stop.
+     *
+     * @return the tasks which were not run
+     */
+    synchronized List<Runnable> clear() {
+        final List<Runnable> tasks = new ArrayList<>(parked);
+        parked.clear();
+        return tasks;
+    }
+
+    /**
+     * Throttles per app and queue name.
+     */
+    static class Registry {
+        private final ConcurrentMap<String, QueueThrottle> throttles = new ConcurrentHashMap<>();
+
+        /**
+         * Get the throttle.
+         *
+         * @param appId the app id
+         * @param queueName the queue name
+         * @param settings app's current queue settings
+         * @return throttle or null if the queue is unknown
+         */
+        QueueThrottle get(String appId, String queueName, QueueSettings settings) {
+            final QueueSettings.Limits limits = settings.getLimits(queueName);
+            if (limits == null) {
+                return null;
+            }
+            final String key = appId + "#" + queueName;
+            QueueThrottle throttle = throttles.get(key);
+            while (throttle == null || throttle.limits != limits) {
+                // new queue or re-deployed app with new queue.xml
+                final QueueThrottle fresh = new QueueThrottle(limits);
+                final boolean replaced = (throttle == null) ? throttles.putIfAbsent(key, fresh) == null : throttles.replace(key, throttle, fresh);
+                throttle = replaced ? fresh : throttles.get(key);
+            }
+            return throttle;
+        }
+
+        /**
+         * Drop parked tasks of all throttles.
+         *
+         * @return the tasks which were not run
+         */
+        List<Runnable> clear() {
+            final List<Runnable> tasks = new ArrayList<>();
+            for (QueueThrottle throttle : throttles.values()) {
+                tasks.addAll(throttle.clear());
+            }
+            return tasks;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+/**
+ * Task retry policy, as described by queue.xml retry-parameters.
+ *
+ * Backoff starts at min-backoff-seconds, doubles max-doublings times,
+ * then grows linearly by 2^max-doublings * min-backoff-seconds, never exceeding max-backoff-seconds.
+ * If both task-retry-limit and task-age-limit are set, the task is retried until both are reached.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+final class RetryPolicy {
+    static final RetryPolicy DEFAULT = new RetryPolicy(-1, -1, 0.1, 3600, 16);
+
+    private final int retryLimit;
+    private final long ageLimit;
+    private final double minBackoff;
+    private final double maxBackoff;
+    private final int maxDoublings;
+
+    private RetryPolicy(int retryLimit, long ageLimit, double minBackoff, double maxBackoff, int maxDoublings) {
+        this.retryLimit = retryLimit;
+        this.ageLimit = ageLimit;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = Math.max(minBackoff, maxBackoff);
+        this.maxDoublings = Math.max(0, maxDoublings);
+    }
+
+    static RetryPolicy create(Object retryLimit, Object ageLimit, Object minBackoff, Object maxBackoff, Object maxDoublings) {
+        if (retryLimit == null && ageLimit == null && minBackoff == null && maxBackoff == null && maxDoublings == null) {
+            return DEFAULT;
+        }
+        return new RetryPolicy(
+            QueueSettings.toInt(retryLimit, DEFAULT.retryLimit),
+            ageLimit != null ? toMillis(ageLimit) : DEFAULT.ageLimit,
+            toDouble(minBackoff, DEFAULT.minBackoff),
+            toDouble(maxBackoff, DEFAULT.maxBackoff),
+            QueueSettings.toInt(maxDoublings, DEFAULT.maxDoublings));
+    }
+
+    /**
+     * Can we retry once more.
+     *
+     * @param retry the retry number, 1-based
+     * @param firstAttempt time of the first attempt
+     * @return true if retry is allowed
+     */
+    boolean canRetry(int retry, long firstAttempt) {
+        final boolean countExceeded = retryLimit >= 0 && retry > retryLimit;
+        final boolean ageExceeded = ageLimit >= 0 && System.currentTimeMillis() - firstAttempt > ageLimit;
+        if (retryLimit >= 0 && ageLimit >= 0) {
+            return (countExceeded && ageExceeded) == false;
+        }
+        return countExceeded == false && ageExceeded == false;
+    }
+
+    /**
+     * Delay before the retry.
+     *
+     * @param retry the retry number, 1-based
+     * @return delay in millis
+     */
+    long getDelay(int retry) {
+        final int n = Math.max(1, retry) - 1;
+        final double seconds;
+        if (n <= maxDoublings) {
+            seconds = minBackoff * Math.pow(2, n);
+        } else {
+            final double step = minBackoff * Math.pow(2, maxDoublings);
+            seconds = step + (n - maxDoublings) * step;
+        }
+        return (long) (Math.min(seconds, maxBackoff) * 1000);
+    }
+
+    private static double toDouble(Object value, double defaultValue) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Parse task-age-limit, e.g. 30s, 10m, 3h, 2d; plain numbers are seconds.
+     */
+    private static long toMillis(Object value) {
+        if (value instanceof Number) {
+            return (long) (((Number) value).doubleValue() * 1000);
+        }
+        final String age = value.toString().trim();
+        if (age.isEmpty()) {
+            return -1;
+        }
+        final char unit = age.charAt(age.length() - 1);
+        final long multiplier;
+        switch (unit) {
+            case 'm':
+                multiplier = 60 * 1000L;
+                break;
+            case 'h':
+                multiplier = 60 * 60 * 1000L;
+                break;
+            case 'd':
+                multiplier = 24 * 60 * 60 * 1000L;
+                break;
+            default:
+                multiplier = 1000L;
+        }
+        try {
+            final String amount = Character.isDigit(unit) ? age : age.substring(0, age.length() - 1);
+            return (long) (Double.parseDouble(amount.trim()) * multiplier);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -40,6 +40,15 @@ import org.jboss.capedwarf.shared.components.SimpleKey;
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
 public class ServletExecutor {
+    /**
+     * Keep the first N bytes of task output for diagnostics.
+     *
+     * @param size the capture size, 0 disables capture
+     */
+    public static void setResponseCaptureSize(int size) {
+        NoopServletResponse.setCaptureSize(size);
+    }
+
     /**
      * Dispatch custom request.
      *
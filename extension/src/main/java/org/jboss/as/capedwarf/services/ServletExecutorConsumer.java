@@ -47,6 +47,9 @@ import org.jboss.modules.ModuleLoader;
 /**
  * JMS consumer for servlet executor.
  *
+ * Received tasks are parked on the fair-share scheduler and dispatched on its executor;
+ * messages are only acknowledged once the task was handled, so parked tasks survive a crash.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  * @author <a href="mailto:mluksa@redhat.com">Marko Luksa</a>
  */
@@ -55,35 +58,66 @@ class ServletExecutorConsumer implements MessageListener {
 
     private static final String JMSX_DELIVERY_COUNT = "JMSXDeliveryCount";
 
+    static final String MODULE_PROPERTY = MessageConstants.PREFIX + MessageConstants.MODULE;
+    private static final String APP_ID_PROPERTY = MessageConstants.PREFIX + MessageConstants.APP_ID;
+    private static final String MODULE_ID_PROPERTY = MessageConstants.PREFIX + MessageConstants.MODULE_ID;
+    private static final String FACTORY_PROPERTY = MessageConstants.PREFIX + MessageConstants.FACTORY;
+
     private final ModuleLoader loader;
+    private final FairShareScheduler scheduler;
+    private final boolean acknowledge;
+    private final QueueThrottle.Registry throttles;
+    private final TaskRescheduler rescheduler;
+    private final TaskResolutionCache cache = new TaskResolutionCache();
+    private final DeadLetterQueue deadLetters;
+    private final TaskMetrics metrics = TaskMetrics.getInstance();
 
-    public ServletExecutorConsumer(ModuleLoader loader) {
+    /**
+     * @param scheduler the fair-share scheduler, null to run tasks inline, as part of a transacted batch
+     * @param acknowledge do we acknowledge messages once handled, false for batched and in-VM messages
+     */
+    public ServletExecutorConsumer(ModuleLoader loader, FairShareScheduler scheduler, boolean acknowledge, QueueThrottle.Registry throttles, TaskRescheduler rescheduler, DeadLetterQueue deadLetters) {
         this.loader = loader;
+        this.scheduler = scheduler;
+        this.acknowledge = acknowledge;
+        this.throttles = throttles;
+        this.rescheduler = rescheduler;
+        this.deadLetters = deadLetters;
     }
 
     protected String getValue(final Message message, final String key) throws Exception {
         final String value = message.getStringProperty(MessageConstants.PREFIX + key);
         if (value == null)
-            throw new IllegalArgumentException("Null value for key: " + key);
+            throw new InvalidTaskException("Null value for key: " + key);
         return value;
     }
 
-    protected ModuleIdentifier parseModuleIdentifier(Message msg) throws Exception {
-        String mi = getValue(msg, MessageConstants.MODULE);
-        return ModuleIdentifier.fromString(mi);
+    /**
+     * Locally dispatched messages were never delivered by JMS.
+     */
+    private static int getDeliveryCount(Message message) throws Exception {
+        return message.propertyExists(JMSX_DELIVERY_COUNT) ? message.getIntProperty(JMSX_DELIVERY_COUNT) : 1;
+    }
+
+    private static String getProperty(final Message message, final String name) throws Exception {
+        final String value = message.getStringProperty(name);
+        if (value == null)
+            throw new InvalidTaskException("Null value for property: " + name);
+        return value;
     }
 
-    private ServletRequestCreator getServletRequestCreator(String appId, String module, ClassLoader cl, Message message) throws Exception {
-        final String factoryClass = getValue(message, MessageConstants.FACTORY);
-        ServletRequestCreator factory;
+    private ServletRequestCreator getServletRequestCreator(String appId, String module, ClassLoader cl, String factoryClass) throws Exception {
         final Key<Map<String, ServletRequestCreator>> key = new MapKey<>(appId, module, Slot.SERVLET_REQUEST_CREATOR);
-        ComponentRegistry registry = ComponentRegistry.getInstance();
-        Map<String, ServletRequestCreator> map = new ConcurrentHashMap<>();
-        Map<String, ServletRequestCreator> factories = registry.putIfAbsent(key, map);
+        final ComponentRegistry registry = ComponentRegistry.getInstance();
+        Map<String, ServletRequestCreator> factories = registry.getComponent(key);
         if (factories == null) {
-            factories = map;
+            final Map<String, ServletRequestCreator> map = new ConcurrentHashMap<>();
+            factories = registry.putIfAbsent(key, map);
+            if (factories == null) {
+                factories = map;
+            }
         }
-        factory = factories.get(factoryClass);
+        ServletRequestCreator factory = factories.get(factoryClass);
         if (factory == null) {
             @SuppressWarnings("unchecked")
             Class<ServletRequestCreator> clazz = (Class<ServletRequestCreator>) cl.loadClass(factoryClass);
@@ -93,49 +127,301 @@ class ServletExecutorConsumer implements MessageListener {
         return factory;
     }
 
+    /**
+     * Resolve module, servlet context and request creator.
+     *
+     * @return new cache entry or null if the app is gone
+     */
+    private TaskResolutionCache.Entry resolve(String mi, String appId, String moduleId, String factoryClass) throws Exception {
+        final Module module = loadModule(ModuleIdentifier.fromString(mi));
+        if (module == null) {
+            return null;
+        }
+
+        final SimpleKey<ServletContext> key = new SimpleKey<>(appId, moduleId, ServletContext.class);
+        final ServletContext context = ComponentRegistry.getInstance().getComponent(key);
+        if (context == null) {
+            log.warn("No matching ServletContext, app (" + appId + ") already undeployed?");
+            return null;
+        }
+
+        final ServletRequestCreator creator = getServletRequestCreator(appId, moduleId, module.getClassLoader(), factoryClass);
+        final QueueSettings settings = QueueSettings.get(appId, moduleId);
+        return new TaskResolutionCache.Entry(appId, moduleId, factoryClass, module, context, creator, settings);
+    }
+
     public void onMessage(Message message) {
+        ClassLoader cl = null;
+        int maxAttempts = -1;
         try {
-            int maxAttempts = message.getIntProperty(MessageConstants.MAX_ATTEMPTS);
-            int currentAttemptNumber = message.getIntProperty(JMSX_DELIVERY_COUNT); // 1-based
+            maxAttempts = message.getIntProperty(MessageConstants.MAX_ATTEMPTS);
+            int currentAttemptNumber = getDeliveryCount(message) + TaskRescheduler.getRescheduleCount(message); // 1-based
             if (maxAttempts != -1 && currentAttemptNumber > maxAttempts) {
+                // redelivered after its last attempt, e.g. node crashed while running it
+                giveUp(message, currentAttemptNumber - 1, new IllegalStateException("Redelivered after max attempts: " + maxAttempts));
+                metrics.skipped(message.getStringProperty(APP_ID_PROPERTY));
+                acknowledge(message);
                 return;
             }
 
-            final ModuleIdentifier identifier = parseModuleIdentifier(message);
-            final Module module = loadModule(identifier);
-            if (module == null) {
-                return;
+            final String mi = getProperty(message, MODULE_PROPERTY);
+            final String appId = getProperty(message, APP_ID_PROPERTY);
+            final String moduleId = getProperty(message, MODULE_ID_PROPERTY);
+            final String factoryClass = getProperty(message, FACTORY_PROPERTY);
+
+            TaskResolutionCache.Entry entry = cache.get(mi, appId, moduleId, factoryClass);
+            if (entry == null) {
+                final long generation = cache.getGeneration();
+                try {
+                    entry = resolve(mi, appId, moduleId, factoryClass);
+                } catch (Exception e) {
+                    throw InvalidTaskException.wrap(e);
+                }
+                if (entry == null) {
+                    metrics.skipped(appId);
+                    acknowledge(message);
+                    return;
+                }
+                cache.put(mi, entry, generation);
             }
 
-            final String appId = getValue(message, MessageConstants.APP_ID);
-            final String moduleId = getValue(message, MessageConstants.MODULE_ID);
-            final SimpleKey<ServletContext> key = new SimpleKey<>(appId, moduleId, ServletContext.class);
-            final ServletContext context = ComponentRegistry.getInstance().getComponent(key);
-            if (context == null) {
-                log.warn("No matching ServletContext, app (" + appId + ") already undeployed?");
-                return;
+            cl = entry.getModule().getClassLoader();
+            final QueueSettings settings = entry.getSettings();
+            final String queueName = settings.getQueueName(message);
+            final QueueThrottle throttle = throttles.get(appId, queueName, settings);
+            if (throttle != null && TaskRescheduler.hasRateSlot(message) == false) {
+                final long delay = throttle.reserve();
+                if (delay > 0) {
+                    // over queue's rate, delay it to its reserved slot
+                    rescheduler.delayToSlot(message, delay, cl);
+                    acknowledge(message);
+                    return;
+                }
+            }
+            final Dispatch dispatch = new Dispatch(message, entry, queueName, throttle, maxAttempts);
+            if (scheduler == null) {
+                dispatch.run(); // batched, the batch is acknowledged once it's done
+            } else {
+                park(dispatch);
             }
+        } catch (Exception e) {
+            failed(message, cl, RetryPolicy.DEFAULT, maxAttempts, e);
+        }
+    }
 
-            final ClassLoader cl = module.getClassLoader();
-            final ServletRequestCreator creator = getServletRequestCreator(appId, moduleId, cl, message);
-            final HttpServletRequest request = creator.createServletRequest(context, message);
-            final String path = getValue(message, MessageConstants.PATH);
+    /**
+     * Park the task on the scheduler. While the app's queue is full, this blocks the consumer,
+     * so it stops receiving tasks until one of the app's tasks is dispatched.
+     */
+    private void park(Dispatch dispatch) {
+        final TaskResolutionCache.Entry entry = dispatch.entry;
+        final QueueSettings settings = entry.getSettings();
+        try {
+            if (scheduler.offer(entry.getAppId(), settings.getWeight(), settings.getConcurrencyCap(), dispatch) == false) {
+                dispatch.abandon(); // stopping
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dispatch.abandon();
+        }
+    }
 
-            creator.prepare(request, appId, moduleId);
+    /**
+     * Give up a parked task, which won't be run, e.g. on stop.
+     *
+     * @param task the task, as queued on the scheduler
+     */
+    static void abandon(Runnable task) {
+        if (task instanceof Dispatch) {
+            ((Dispatch) task).abandon();
+        }
+    }
+
+    /**
+     * Handle unexpected failure.
+     *
+     * Tasks were already handed over by JMS, so we push them back to the queue with a backoff,
+     * and only then acknowledge them. Batched tasks are pushed back within the batch's transaction;
+     * if that's not possible, we fail the batch, so it's redelivered.
+     */
+    private void failed(Message message, ClassLoader cl, RetryPolicy policy, int maxAttempts, Exception cause) {
+        if (quarantine(message, cause)) {
+            acknowledge(message);
+            return;
+        }
+        try {
+            retry(message, policy, maxAttempts, (cl != null) ? cl : getClass().getClassLoader(), cause);
+            acknowledge(message);
+        } catch (Exception e) {
+            if (scheduler == null) {
+                log.errorf(cause, "Error handling servlet execution, cannot push task back to the queue: %s", e);
+                throw new RuntimeException(e);
+            } else if (acknowledge) {
+                // not acknowledged, JMS redelivers it once the consumer is closed
+                log.errorf(cause, "Error handling servlet execution, cannot push task back to the queue: %s", e);
+            } else {
+                log.errorf(cause, "Error handling in-VM servlet execution, cannot push task back to the queue, task is lost: %s", e);
+            }
+        }
+    }
+
+    private void acknowledge(Message message) {
+        if (acknowledge) {
             try {
-                final HttpServletResponse response = ServletExecutor.dispatch(appId, path, context, request);
-                if (creator.isValid(request, response) == false) {
-                    throw new RuntimeException(String.format("Invalid response for path %s, status was %s", path, response.getStatus()));
+                message.acknowledge();
+            } catch (Exception e) {
+                log.warnf("Cannot acknowledge task %s: %s", message, e);
+            }
+        }
+    }
+
+    /**
+     * Servlet dispatch of a received task.
+     */
+    private class Dispatch implements Runnable {
+        private final Message message;
+        private final TaskResolutionCache.Entry entry;
+        private final String queueName;
+        private final QueueThrottle throttle;
+        private final int maxAttempts;
+
+        private Dispatch(Message message, TaskResolutionCache.Entry entry, String queueName, QueueThrottle throttle, int maxAttempts) {
+            this.message = message;
+            this.entry = entry;
+            this.queueName = queueName;
+            this.throttle = throttle;
+            this.maxAttempts = maxAttempts;
+        }
+
+        /**
+         * Take the queue's concurrency permit and run the task, together with the parked
+         * tasks it hands its permit to. Batched tasks wait for the permit, as they're part of the batch.
+         */
+        public void run() {
+            if (throttle != null) {
+                if (scheduler == null) {
+                    try {
+                        throttle.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException("Interrupted waiting for queue " + queueName + " of " + entry.getAppId(), e);
+                    }
+                } else if (throttle.acquire(this) == false) {
+                    return; // parked, run once a running task of the queue finishes
+                }
+            }
+            Dispatch current = this;
+            while (current != null) {
+                try {
+                    current.execute();
+                } finally {
+                    current = (throttle != null) ? (Dispatch) throttle.release() : null;
                 }
-            } finally {
-                creator.finish();
             }
-        } catch (RuntimeException e) {
-            log.error("Error handling servlet execution.", e);
-            throw e;
+        }
+
+        private void execute() {
+            final String appId = entry.getAppId();
+            final ClassLoader cl = entry.getModule().getClassLoader();
+            final RetryPolicy policy = entry.getSettings().getRetryPolicy(queueName);
+            try {
+                final HttpServletRequest request;
+                final String path;
+                try {
+                    request = entry.getCreator().createServletRequest(entry.getContext(), message);
+                    path = getValue(message, MessageConstants.PATH);
+                } catch (Exception e) {
+                    // broken message is quarantined as permanent failure, no point in retrying it
+                    throw InvalidTaskException.wrap(e);
+                }
+                final long start = metrics.start(appId);
+                boolean success = false;
+                try {
+                    dispatch(appId, entry.getModuleId(), path, entry.getContext(), request, entry.getCreator());
+                    success = true;
+                } catch (Exception e) {
+                    retry(message, policy, maxAttempts, cl, e);
+                } finally {
+                    metrics.finish(appId, start, success);
+                }
+                acknowledge(message);
+            } catch (Exception e) {
+                failed(message, cl, policy, maxAttempts, e);
+            }
+        }
+
+        /**
+         * Only in-VM tasks need to be pushed back to the queue, JMS redelivers unacknowledged messages.
+         */
+        private void abandon() {
+            try {
+                if (acknowledge == false && scheduler != null) {
+                    rescheduler.reschedule(message, 0, entry.getModule().getClassLoader(), false);
+                }
+            } catch (Exception e) {
+                log.errorf(e, "Cannot push task of %s back to the queue.", entry.getAppId());
+            }
+        }
+    }
+
+    /**
+     * Move permanently failing message to dead letters, instead of redelivering it over and over.
+     *
+     * @return true if the message was quarantined
+     */
+    private boolean quarantine(Message message, Exception cause) {
+        if (deadLetters == null || DeadLetterQueue.isPermanent(cause) == false) {
+            return false;
+        }
+        try {
+            final String id = message.getStringProperty(APP_ID_PROPERTY);
+            deadLetters.quarantine(message, id, cause);
+            metrics.skipped(id);
+            return true;
         } catch (Exception e) {
-            log.error("Error handling servlet execution.", e);
-            throw new RuntimeException(e);
+            log.errorf(e, "Cannot move task to dead letters, cause: %s", cause);
+            return false;
+        }
+    }
+
+    protected void dispatch(String appId, String moduleId, String path, ServletContext context, HttpServletRequest request, ServletRequestCreator creator) throws Exception {
+        creator.prepare(request, appId, moduleId);
+        try {
+            final HttpServletResponse response = ServletExecutor.dispatch(appId, path, context, request);
+            if (creator.isValid(request, response) == false) {
+                final String output = (response instanceof NoopServletResponse) ? ((NoopServletResponse) response).getCapturedOutput() : null;
+                throw new RuntimeException(String.format("Invalid response for path %s, status was %s%s", path, response.getStatus(), output != null ? ", output: " + output : ""));
+            }
+        } finally {
+            creator.finish();
+        }
+    }
+
+    /**
+     * Re-enqueue failed task with a backoff delay, instead of immediate redelivery.
+     */
+    private void retry(Message message, RetryPolicy policy, int maxAttempts, ClassLoader cl, Exception cause) throws Exception {
+        final int retry = TaskRescheduler.getRescheduleCount(message) + 1;
+        final int attempts = getDeliveryCount(message) + retry - 1;
+        if ((maxAttempts != -1 && attempts >= maxAttempts) || policy.canRetry(retry, TaskRescheduler.getFirstAttempt(message)) == false) {
+            giveUp(message, attempts, cause);
+            return;
+        }
+        final long delay = policy.getDelay(retry);
+        log.warnf("Task %s failed (%s), retry #%s in %s ms.", message.getJMSMessageID(), cause, retry, delay);
+        rescheduler.reschedule(message, delay, cl, true);
+    }
+
+    /**
+     * No more retries, move the task to dead letters, if configured, so it can be replayed.
+     */
+    private void giveUp(Message message, int attempts, Exception cause) throws Exception {
+        final String appId = message.getStringProperty(APP_ID_PROPERTY);
+        if (deadLetters == null) {
+            log.warnf(cause, "Task %s failed, no more retries after %s attempt(s).", message.getJMSMessageID(), attempts);
+        } else {
+            log.debugf("Task %s failed, no more retries after %s attempt(s).", message.getJMSMessageID(), attempts);
+            deadLetters.quarantine(message, appId, cause);
         }
     }
 
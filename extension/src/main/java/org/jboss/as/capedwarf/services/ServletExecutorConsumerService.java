@@ -22,33 +22,194 @@
 
 package org.jboss.as.capedwarf.services;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
 import javax.jms.MessageListener;
+import javax.jms.Queue;
 
+import org.jboss.as.naming.ManagedReferenceFactory;
 import org.jboss.modules.ModuleLoader;
 import org.jboss.msc.service.ServiceName;
+import org.jboss.msc.service.StartContext;
+import org.jboss.msc.service.StartException;
+import org.jboss.msc.service.StopContext;
 import org.jboss.msc.value.InjectedValue;
 
 /**
  * Servlet executor consumer service
  *
+ * Consumers only receive tasks and park them on the fair-share scheduler,
+ * which runs them on its own pool, pool size being the max number of concurrent tasks.
+ * Messages are individually acknowledged once the task is handled, so delivery stays at-least-once.
+ * With consumer batching, tasks run in their transacted batch, w/o fair-share scheduling.
+ *
  * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
  */
 public class ServletExecutorConsumerService extends AbstractConsumerService<Connection> {
 
     public static final ServiceName NAME = ServiceName.JBOSS.append("capedwarf").append("consumer");
 
+    /**
+     * We don't depend on HornetQ directly, see HornetQJMSConstants.INDIVIDUAL_ACKNOWLEDGE.
+     */
+    private static final int INDIVIDUAL_ACKNOWLEDGE = 101;
+
     private InjectedValue<ModuleLoader> loader = new InjectedValue<ModuleLoader>();
+    private InjectedValue<ExecutorService> executor = new InjectedValue<ExecutorService>();
+    private InjectedValue<ManagedReferenceFactory> deadLetterQueue = new InjectedValue<ManagedReferenceFactory>();
+
+    private boolean localDispatch;
+    private int localMaxInFlight = 64;
+
+    private int appQueueSize = 32;
+
+    private ExecutorService pool;
+    private FairShareScheduler scheduler;
+    private final QueueThrottle.Registry throttles = new QueueThrottle.Registry();
+
+    @Override
+    public synchronized void start(StartContext context) throws StartException {
+        if (isBatching() == false) {
+            pool = Executors.newCachedThreadPool(new DispatchThreadFactory());
+            scheduler = new FairShareScheduler(pool, getPoolSize(), appQueueSize);
+        }
+        super.start(context);
+    }
+
+    @Override
+    public synchronized void stop(StopContext context) {
+        abandonParked();
+        try {
+            super.stop(context);
+        } finally {
+            abandonParked(); // received before consumers were closed
+            scheduler = null;
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    /**
+     * JMS redelivers unacknowledged parked tasks, in-VM ones are pushed back to the queue.
+     */
+    private void abandonParked() {
+        if (scheduler != null) {
+            for (Runnable task : scheduler.clear()) {
+                ServletExecutorConsumer.abandon(task);
+            }
+        }
+        for (Runnable task : throttles.clear()) {
+            ServletExecutorConsumer.abandon(task);
+        }
+    }
+
+    /**
+     * HornetQ's individual acknowledge, so parked tasks are only acknowledged once handled.
+     *
+     * Tasks are acknowledged from the dispatch pool, not from the session's delivery thread.
+     * JMS sessions are single threaded, but HornetQ's individual acknowledge only sends
+     * the acknowledgement of that single message over the session's channel, which is thread safe,
+     * so it may run concurrently with the delivery of the next message; no other session operation
+     * is used from the dispatch pool.
+     */
+    @Override
+    protected int getAcknowledgeMode() {
+        return INDIVIDUAL_ACKNOWLEDGE;
+    }
 
     protected MessageListener createMessageListener() {
-        return new ServletExecutorConsumer(loader.getValue());
+        return createListener(isBatching() == false);
+    }
+
+    private ServletExecutorConsumer createListener(boolean acknowledge) {
+        return new ServletExecutorConsumer(loader.getValue(), scheduler, acknowledge, throttles, new TaskRescheduler(connection, getDestination()), getDeadLetters());
+    }
+
+    /**
+     * Dead letters, if the dead letter queue is configured.
+     *
+     * @return dead letters or null
+     */
+    public synchronized DeadLetterQueue getDeadLetters() {
+        final ManagedReferenceFactory mrf = deadLetterQueue.getOptionalValue();
+        if (mrf == null || connection == null) {
+            return null;
+        }
+        return new DeadLetterQueue(connection, cast(Queue.class, mrf), getDestination(), loader.getValue());
+    }
+
+    @Override
+    protected ConnectionFactory exposeConnectionFactory(ConnectionFactory factory) {
+        final ExecutorService es = executor.getOptionalValue();
+        if (localDispatch && es != null) {
+            // in-VM messages are never acknowledged
+            return new LocalTaskDispatcher(createListener(false), getDestination(), es, localMaxInFlight).wrap(factory);
+        }
+        return factory;
+    }
+
+    @Override
+    public synchronized void setPoolSize(int poolSize) {
+        if (scheduler != null) {
+            scheduler.setConcurrency(poolSize);
+        }
+        super.setPoolSize(poolSize);
+    }
+
+    /**
+     * Max number of received tasks an app can have waiting to be dispatched;
+     * consumers receiving further tasks of the app wait until one of its tasks is dispatched.
+     *
+     * @param appQueueSize the per-app queue size
+     */
+    public synchronized void setAppQueueSize(int appQueueSize) {
+        this.appQueueSize = appQueueSize;
+        if (scheduler != null) {
+            scheduler.setMaxWaiting(appQueueSize);
+        }
     }
 
     public Connection getValue() throws IllegalStateException, IllegalArgumentException {
         return connection;
     }
 
+    /**
+     * Dispatch local non-persistent and deferred tasks in-VM.
+     *
+     * @param localDispatch the local dispatch flag
+     * @param maxInFlight max number of local tasks in flight, before falling back to JMS
+     */
+    public void setLocalDispatch(boolean localDispatch, int maxInFlight) {
+        this.localDispatch = localDispatch;
+        this.localMaxInFlight = maxInFlight;
+    }
+
     public InjectedValue<ModuleLoader> getLoader() {
         return loader;
     }
+
+    public InjectedValue<ExecutorService> getExecutor() {
+        return executor;
+    }
+
+    public InjectedValue<ManagedReferenceFactory> getDeadLetterQueue() {
+        return deadLetterQueue;
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CapeDwarf task dispatch - " + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
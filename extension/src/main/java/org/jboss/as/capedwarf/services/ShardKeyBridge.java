@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.hibernate.search.bridge.FieldBridge;
+import org.hibernate.search.bridge.LuceneOptions;
+import org.hibernate.search.bridge.ParameterizedBridge;
+
+/**
+ * Adds datastore entity's shard key -- its kind or its entity group root key -- to the document.
+ *
+ * Entity is app's class, hence reflection.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class ShardKeyBridge implements FieldBridge, ParameterizedBridge {
+    static final String MODE = "mode";
+
+    private DatastoreSharding.Mode mode = DatastoreSharding.Mode.KIND;
+
+    public void setParameterValues(Map<String, String> parameters) {
+        final String value = parameters.get(MODE);
+        if (value != null) {
+            mode = DatastoreSharding.Mode.valueOf(value);
+        }
+    }
+
+    public void set(String name, Object value, Document document, LuceneOptions luceneOptions) {
+        final String key = (mode == DatastoreSharding.Mode.ANCESTOR) ? rootOf(invoke(value, "getKey")) : kindOf(value);
+        if (key != null) {
+            document.add(new Field(KindShardingStrategy.FIELD, key, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+        }
+    }
+
+    static String kindOf(Object entity) {
+        final Object kind = invoke(entity, "getKind");
+        return (kind != null) ? kind.toString() : null;
+    }
+
+    /**
+     * Entity group root of the key.
+     *
+     * @param key the datastore key, or already its string form
+     * @return root key string
+     */
+    static String rootOf(Object key) {
+        if (key == null || key instanceof String) {
+            return (String) key;
+        }
+        Object parent;
+        while ((parent = invoke(key, "getParent")) != null) {
+            key = parent;
+        }
+        return key.toString();
+    }
+
+    static int shard(String key, int shards) {
+        return (key.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    private static Object invoke(Object target, String name) {
+        if (target == null) {
+            return null;
+        }
+        try {
+            final Method method = target.getClass().getMethod(name);
+            return method.invoke(target);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot invoke " + name + " on " + target.getClass().getName(), e);
+        }
+    }
+}
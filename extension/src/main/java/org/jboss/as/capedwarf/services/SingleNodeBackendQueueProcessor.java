@@ -0,0 +1,256 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hibernate.search.Environment;
+import org.hibernate.search.backend.IndexingMonitor;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.spi.BackendFactory;
+import org.hibernate.search.backend.spi.BackendQueueProcessor;
+import org.hibernate.search.indexes.impl.DirectoryBasedIndexManager;
+import org.hibernate.search.spi.WorkerBuildContext;
+import org.jgroups.JChannel;
+import org.jgroups.View;
+
+/**
+ * Applies works with a local async backend while we're the only cluster member,
+ * and with the JGroups backend as soon as the view has more members.
+ *
+ * The backend is switched under a lock, once no work is being applied.
+ * Before switching to JGroups, the local backend is closed, which applies its queued works
+ * and releases the index writer; it is created again once we're alone.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class SingleNodeBackendQueueProcessor implements BackendQueueProcessor {
+    private static volatile JChannel channel;
+
+    private final ReadWriteLock switching = new ReentrantReadWriteLock();
+    private final Lock exclusiveWriteLock = new ExclusiveWriteLock();
+
+    private Properties props;
+    private WorkerBuildContext context;
+    private DirectoryBasedIndexManager indexManager;
+
+    private BackendQueueProcessor local;
+    private BackendQueueProcessor jgroups;
+    private volatile BackendQueueProcessor active;
+
+    /**
+     * Set the channel whose view decides the backend.
+     *
+     * @param channel the CapeDwarf channel
+     */
+    static void setChannel(JChannel channel) {
+        SingleNodeBackendQueueProcessor.channel = channel;
+    }
+
+    public void initialize(Properties props, WorkerBuildContext context, DirectoryBasedIndexManager indexManager) {
+        this.props = props;
+        this.context = context;
+        this.indexManager = indexManager;
+        jgroups = BackendFactory.createBackend("jgroups", indexManager, context, props);
+        if (isClustered()) {
+            active = jgroups;
+        } else {
+            local = createLocal();
+            active = local;
+        }
+    }
+
+    private BackendQueueProcessor createLocal() {
+        final Properties async = new Properties();
+        async.putAll(props);
+        async.setProperty(Environment.WORKER_EXECUTION, "async");
+        return BackendFactory.createBackend("lucene", indexManager, context, async);
+    }
+
+    protected boolean isClustered() {
+        final JChannel ch = channel;
+        final View view = (ch != null) ? ch.getView() : null;
+        return view != null && view.size() > 1;
+    }
+
+    /**
+     * Switch the backend if the view changed, and lock it against switching.
+     * The caller must unlock the read lock.
+     *
+     * @return the active backend
+     */
+    private BackendQueueProcessor acquire() {
+        final BackendQueueProcessor wanted = isClustered() ? jgroups : local;
+        if (wanted != active) {
+            switching.writeLock().lock();
+            try {
+                switchBackend();
+            } finally {
+                switching.writeLock().unlock();
+            }
+        }
+        switching.readLock().lock();
+        return active;
+    }
+
+    private void switchBackend() {
+        if (isClustered()) {
+            if (active != jgroups) {
+                local.close(); // applies queued works, and releases the index writer
+                local = null;
+                active = jgroups;
+            }
+        } else if (active != local || local == null) {
+            local = createLocal();
+            active = local;
+        }
+    }
+
+    public void applyWork(List<LuceneWork> workList, IndexingMonitor monitor) {
+        final BackendQueueProcessor current = acquire();
+        try {
+            current.applyWork(workList, monitor);
+        } finally {
+            switching.readLock().unlock();
+        }
+    }
+
+    public void applyStreamWork(LuceneWork singleOperation, IndexingMonitor monitor) {
+        final BackendQueueProcessor current = acquire();
+        try {
+            current.applyStreamWork(singleOperation, monitor);
+        } finally {
+            switching.readLock().unlock();
+        }
+    }
+
+    /**
+     * Exclusive write lock of the active backend, which cannot be switched while it is held.
+     */
+    public Lock getExclusiveWriteLock() {
+        return exclusiveWriteLock;
+    }
+
+    public void indexMappingChanged() {
+        switching.writeLock().lock();
+        try {
+            if (local != null) {
+                local.indexMappingChanged();
+            }
+            jgroups.indexMappingChanged();
+        } finally {
+            switching.writeLock().unlock();
+        }
+    }
+
+    public void close() {
+        switching.writeLock().lock();
+        try {
+            jgroups.close();
+        } finally {
+            try {
+                if (local != null) {
+                    local.close();
+                }
+            } finally {
+                switching.writeLock().unlock();
+            }
+        }
+    }
+
+    private class ExclusiveWriteLock implements Lock {
+        private Lock held;
+
+        public void lock() {
+            switching.writeLock().lock();
+            try {
+                held = active.getExclusiveWriteLock();
+                held.lock();
+            } catch (RuntimeException e) {
+                switching.writeLock().unlock();
+                throw e;
+            }
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            switching.writeLock().lockInterruptibly();
+            try {
+                held = active.getExclusiveWriteLock();
+                held.lockInterruptibly();
+            } catch (InterruptedException | RuntimeException e) {
+                switching.writeLock().unlock();
+                throw e;
+            }
+        }
+
+        public boolean tryLock() {
+            if (switching.writeLock().tryLock() == false) {
+                return false;
+            }
+            final Lock lock = active.getExclusiveWriteLock();
+            if (lock.tryLock()) {
+                held = lock;
+                return true;
+            }
+            switching.writeLock().unlock();
+            return false;
+        }
+
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(time);
+            if (switching.writeLock().tryLock(time, unit) == false) {
+                return false;
+            }
+            try {
+                final Lock lock = active.getExclusiveWriteLock();
+                if (lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    held = lock;
+                    return true;
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                switching.writeLock().unlock();
+                throw e;
+            }
+            switching.writeLock().unlock();
+            return false;
+        }
+
+        public void unlock() {
+            try {
+                held.unlock();
+            } finally {
+                switching.writeLock().unlock();
+            }
+        }
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Task execution metrics, per app and in total.
+ *
+ * Hot path only does striped atomic adds, sums are computed on read.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class TaskMetrics {
+    private static final int STRIPES = stripes();
+    private static final int PADDING = 8; // longs per cache line
+    private static final int BUCKETS = 40; // 2^i micros
+
+    // after the sizes above, the instance's counters are created with them
+    private static final TaskMetrics INSTANCE = new TaskMetrics();
+
+    private final ConcurrentMap<String, Stats> apps = new ConcurrentHashMap<>();
+    private final Stats total = new Stats();
+
+    private TaskMetrics() {
+    }
+
+    public static TaskMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private static int stripes() {
+        final int n = Math.max(2, Runtime.getRuntime().availableProcessors());
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int stripe() {
+        final long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+    }
+
+    private Stats stats(String appId) {
+        Stats stats = apps.get(appId);
+        if (stats == null) {
+            final Stats fresh = new Stats();
+            stats = apps.putIfAbsent(appId, fresh);
+            if (stats == null) {
+                stats = fresh;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Task was dropped w/o dispatch, e.g. max attempts reached or app undeployed.
+     *
+     * @param appId the app id, can be null
+     */
+    void skipped(String appId) {
+        total.skipped.add(1);
+        if (appId != null) {
+            stats(appId).skipped.add(1);
+        }
+    }
+
+    /**
+     * Dispatch is about to start.
+     *
+     * @param appId the app id
+     * @return start time
+     */
+    long start(String appId) {
+        total.inFlight.add(1);
+        stats(appId).inFlight.add(1);
+        return System.nanoTime();
+    }
+
+    /**
+     * Dispatch is done.
+     *
+     * @param appId the app id
+     * @param start the start time
+     * @param success did it succeed
+     */
+    void finish(String appId, long start, boolean success) {
+        final long micros = (System.nanoTime() - start) / 1000;
+        final Stats stats = stats(appId);
+        finish(total, micros, success);
+        finish(stats, micros, success);
+    }
+
+    private static void finish(Stats stats, long micros, boolean success) {
+        stats.inFlight.add(-1);
+        if (success) {
+            stats.dispatched.add(1);
+        } else {
+            stats.failed.add(1);
+        }
+        stats.latency.record(micros);
+    }
+
+    void remove(String appId) {
+        apps.remove(appId);
+    }
+
+    /**
+     * Drop app's metrics, e.g. on undeploy.
+     *
+     * @param appId the app id
+     */
+    public static void clear(String appId) {
+        INSTANCE.remove(appId);
+    }
+
+    public Stats getTotal() {
+        return total;
+    }
+
+    public Map<String, Stats> getApps() {
+        return Collections.unmodifiableMap(apps);
+    }
+
+    public static final class Stats {
+        private final Counter dispatched = new Counter();
+        private final Counter failed = new Counter();
+        private final Counter skipped = new Counter();
+        private final Counter inFlight = new Counter();
+        private final Histogram latency = new Histogram();
+
+        public long getDispatched() {
+            return dispatched.sum();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        public long getInFlight() {
+            return Math.max(0, inFlight.sum());
+        }
+
+        /**
+         * Dispatch latency percentile.
+         *
+         * @param percentile the percentile, e.g. 0.95
+         * @return latency in millis, upper bound of the matching bucket
+         */
+        public double getLatency(double percentile) {
+            return latency.percentile(percentile) / 1000.0;
+        }
+    }
+
+    private static final class Counter {
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        private void add(long delta) {
+            cells.getAndAdd(stripe() * PADDING, delta);
+        }
+
+        private long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PADDING);
+            }
+            return sum;
+        }
+    }
+
+    private static final class Histogram {
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * BUCKETS);
+
+        private void record(long micros) {
+            final int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, micros)));
+            cells.getAndIncrement(stripe() * BUCKETS + bucket);
+        }
+
+        private long percentile(double percentile) {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                for (int b = 0; b < BUCKETS; b++) {
+                    final long c = cells.get(s * BUCKETS + b);
+                    counts[b] += c;
+                    total += c;
+                }
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    return 1L << (b + 1);
+                }
+            }
+            return 1L << BUCKETS;
+        }
+    }
+}
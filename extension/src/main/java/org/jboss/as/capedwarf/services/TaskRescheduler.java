@@ -0,0 +1,253 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageEOFException;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.StreamMessage;
+import javax.jms.TextMessage;
+
+/**
+ * Puts a copy of a task message back on the queue, with a delivery delay.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+class TaskRescheduler {
+    /**
+     * How many times the task was already pushed back.
+     */
+    static final String RESCHEDULE_COUNT = "capedwarf_reschedule_count";
+    /**
+     * Time of the task's first delivery, kept across reschedules.
+     */
+    static final String FIRST_ATTEMPT = "capedwarf_first_attempt";
+    /**
+     * The task already reserved its slot in the queue's rate.
+     */
+    static final String RATE_SLOT = "capedwarf_rate_slot";
+
+    /**
+     * Transacted session of the batch the current thread is consuming, if any.
+     */
+    private static final ThreadLocal<Session> batchSessions = new ThreadLocal<>();
+
+    private final Connection connection;
+    private final Queue queue;
+
+    TaskRescheduler(Connection connection, Queue queue) {
+        this.connection = connection;
+        this.queue = queue;
+    }
+
+    static int getRescheduleCount(Message message) throws JMSException {
+        return message.propertyExists(RESCHEDULE_COUNT) ? message.getIntProperty(RESCHEDULE_COUNT) : 0;
+    }
+
+    /**
+     * Bind the batch's session to the current thread, so reschedules and dead letters
+     * are committed or rolled back together with the batch.
+     *
+     * @param session the transacted session, null to unbind
+     */
+    static void setBatchSession(Session session) {
+        if (session != null) {
+            batchSessions.set(session);
+        } else {
+            batchSessions.remove();
+        }
+    }
+
+    static Session getBatchSession() {
+        return batchSessions.get();
+    }
+
+    static boolean hasRateSlot(Message message) throws JMSException {
+        return message.propertyExists(RATE_SLOT);
+    }
+
+    /**
+     * Time of the task's first attempt.
+     * In-VM messages were never sent, so they have no JMS timestamp, we take the current time.
+     *
+     * @param message the message
+     * @return the time in millis
+     * @throws JMSException for any JMS error
+     */
+    static long getFirstAttempt(Message message) throws JMSException {
+        if (message.propertyExists(FIRST_ATTEMPT)) {
+            return message.getLongProperty(FIRST_ATTEMPT);
+        }
+        final long timestamp = message.getJMSTimestamp();
+        return (timestamp > 0) ? timestamp : System.currentTimeMillis();
+    }
+
+    /**
+     * Reschedule the message, within the current batch, if any.
+     *
+     * @param message the original message
+     * @param delay the delay in millis
+     * @param cl the app's classloader, used to copy object messages
+     * @param countAsRetry should we bump the reschedule count
+     * @throws JMSException for any JMS error
+     */
+    void reschedule(Message message, long delay, ClassLoader cl, boolean countAsRetry) throws JMSException {
+        reschedule(message, delay, cl, countAsRetry, false);
+    }
+
+    /**
+     * Delay the message until its reserved slot in the queue's rate,
+     * it won't take another token once it's received again.
+     *
+     * @param message the original message
+     * @param delay the delay in millis
+     * @param cl the app's classloader, used to copy object messages
+     * @throws JMSException for any JMS error
+     */
+    void delayToSlot(Message message, long delay, ClassLoader cl) throws JMSException {
+        reschedule(message, delay, cl, false, true);
+    }
+
+    private void reschedule(Message message, long delay, ClassLoader cl, boolean countAsRetry, boolean slot) throws JMSException {
+        final ClassLoader previous = SecurityActions.setTCCL(cl);
+        try {
+            final Session batch = getBatchSession();
+            if (batch != null) {
+                send(batch, queue, message, delay, countAsRetry, slot);
+                return;
+            }
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            try {
+                send(session, queue, message, delay, countAsRetry, slot);
+            } finally {
+                session.close();
+            }
+        } finally {
+            SecurityActions.setTCCL(previous);
+        }
+    }
+
+    /**
+     * Send a copy of the message, as part of the session's transaction, if any.
+     *
+     * @param session the session
+     * @param queue the queue
+     * @param message the original message
+     * @param delay the delay in millis
+     * @param countAsRetry should we bump the reschedule count
+     * @param slot did the message reserve its slot in the queue's rate
+     * @throws JMSException for any JMS error
+     */
+    private static void send(Session session, Queue queue, Message message, long delay, boolean countAsRetry, boolean slot) throws JMSException {
+        final Message copy = copy(session, message, RATE_SLOT);
+        copy.setLongProperty(FIRST_ATTEMPT, getFirstAttempt(message));
+        if (countAsRetry) {
+            copy.setIntProperty(RESCHEDULE_COUNT, getRescheduleCount(message) + 1);
+        }
+        if (slot) {
+            copy.setBooleanProperty(RATE_SLOT, true);
+        }
+        final MessageProducer producer = session.createProducer(queue);
+        try {
+            producer.setDeliveryDelay(Math.max(0, delay));
+            producer.send(copy, message.getJMSDeliveryMode(), message.getJMSPriority(), Message.DEFAULT_TIME_TO_LIVE);
+        } finally {
+            producer.close();
+        }
+    }
+
+    /**
+     * Copy the message, w/o provider specific properties.
+     *
+     * @param session the session
+     * @param message the message to copy
+     * @param excluded properties not to copy
+     * @return the copy
+     * @throws JMSException for any JMS error
+     */
+    static Message copy(Session session, Message message, String... excluded) throws JMSException {
+        final Message copy;
+        if (message instanceof TextMessage) {
+            copy = session.createTextMessage(((TextMessage) message).getText());
+        } else if (message instanceof ObjectMessage) {
+            copy = session.createObjectMessage(((ObjectMessage) message).getObject());
+        } else if (message instanceof BytesMessage) {
+            final BytesMessage source = (BytesMessage) message;
+            source.reset();
+            final byte[] bytes = new byte[(int) source.getBodyLength()];
+            source.readBytes(bytes);
+            final BytesMessage bm = session.createBytesMessage();
+            bm.writeBytes(bytes);
+            copy = bm;
+        } else if (message instanceof MapMessage) {
+            final MapMessage source = (MapMessage) message;
+            final MapMessage mm = session.createMapMessage();
+            final Enumeration<?> names = source.getMapNames();
+            while (names.hasMoreElements()) {
+                final String name = String.valueOf(names.nextElement());
+                mm.setObject(name, source.getObject(name));
+            }
+            copy = mm;
+        } else if (message instanceof StreamMessage) {
+            final StreamMessage source = (StreamMessage) message;
+            source.reset();
+            final StreamMessage sm = session.createStreamMessage();
+            try {
+                //noinspection InfiniteLoopStatement
+                while (true) {
+                    sm.writeObject(source.readObject());
+                }
+            } catch (MessageEOFException ignored) {
+            }
+            copy = sm;
+        } else {
+            copy = session.createMessage();
+        }
+
+        final Enumeration<?> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            final String name = String.valueOf(names.nextElement());
+            if (name.startsWith("JMSX") || name.startsWith("JMS_") || name.startsWith("_HQ")) {
+                continue; // provider specific
+            }
+            if (Arrays.asList(excluded).contains(name)) {
+                continue;
+            }
+            copy.setObjectProperty(name, message.getObjectProperty(name));
+        }
+        copy.setJMSCorrelationID(message.getJMSCorrelationID());
+        copy.setJMSType(message.getJMSType());
+        copy.setJMSReplyTo(message.getJMSReplyTo());
+        return copy;
+    }
+}
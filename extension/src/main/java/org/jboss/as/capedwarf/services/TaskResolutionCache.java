@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.as.capedwarf.services;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.ServletContext;
+
+import org.jboss.capedwarf.shared.jms.ServletRequestCreator;
+import org.jboss.modules.Module;
+
+/**
+ * Per consumer cache of resolved task targets (module, context, creator, queue settings),
+ * keyed by module identifier and creator class, and checked against app id and module id.
+ *
+ * Resolving runs w/o any lock, so an entry is only put if no invalidation happened
+ * since the resolve started, see {@link #getGeneration()}.
+ *
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public final class TaskResolutionCache {
+    private static final Set<TaskResolutionCache> caches = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<TaskResolutionCache, Boolean>()));
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long generation;
+
+    TaskResolutionCache() {
+        caches.add(this);
+    }
+
+    /**
+     * Drop all cached entries of an app, e.g. on undeploy.
+     *
+     * @param appId the app id
+     */
+    public static void invalidate(String appId) {
+        synchronized (caches) {
+            for (TaskResolutionCache cache : caches) {
+                cache.remove(appId);
+            }
+        }
+    }
+
+    Entry get(String moduleIdentifier, String appId, String moduleId, String factoryClass) {
+        final Entry entry = entries.get(new Key(moduleIdentifier, factoryClass));
+        return (entry != null && entry.matches(appId, moduleId)) ? entry : null;
+    }
+
+    /**
+     * Read before resolving an entry, and pass it to {@link #put(String, Entry, long)}.
+     *
+     * @return the current invalidation generation
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Put the resolved entry, unless the cache was invalidated meanwhile.
+     *
+     * @param moduleIdentifier the module identifier
+     * @param entry the entry
+     * @param generation the generation read before resolving
+     * @return true if the entry was put
+     */
+    synchronized boolean put(String moduleIdentifier, Entry entry, long generation) {
+        if (this.generation != generation) {
+            return false; // resolved against an app which may be gone
+        }
+        entries.put(new Key(moduleIdentifier, entry.factoryClass), entry);
+        return true;
+    }
+
+    private synchronized void remove(String appId) {
+        generation++;
+        final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (appId.equals(iterator.next().getValue().appId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    static final class Entry {
+        private final String appId;
+        private final String moduleId;
+        private final String factoryClass;
+        private final Module module;
+        private final ServletContext context;
+        private final ServletRequestCreator creator;
+        private final QueueSettings settings;
+
+        Entry(String appId, String moduleId, String factoryClass, Module module, ServletContext context, ServletRequestCreator creator, QueueSettings settings) {
+            this.appId = appId;
+            this.moduleId = moduleId;
+            this.factoryClass = factoryClass;
+            this.module = module;
+            this.context = context;
+            this.creator = creator;
+            this.settings = settings;
+        }
+
+        private boolean matches(String appId, String moduleId) {
+            return this.appId.equals(appId) && this.moduleId.equals(moduleId);
+        }
+
+        String getAppId() {
+            return appId;
+        }
+
+        String getModuleId() {
+            return moduleId;
+        }
+
+        Module getModule() {
+            return module;
+        }
+
+        ServletContext getContext() {
+            return context;
+        }
+
+        ServletRequestCreator getCreator() {
+            return creator;
+        }
+
+        QueueSettings getSettings() {
+            return settings;
+        }
+    }
+
+    private static final class Key {
+        private final String moduleIdentifier;
+        private final String factoryClass;
+
+        private Key(String moduleIdentifier, String factoryClass) {
+            this.moduleIdentifier = moduleIdentifier;
+            this.factoryClass = factoryClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof Key == false) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return moduleIdentifier.equals(other.moduleIdentifier) && factoryClass.equals(other.factoryClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * moduleIdentifier.hashCode() + factoryClass.hashCode();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.jboss.msc.service.ServiceName;
 public final class Constants {
     public static final String CAPEDWARF = "capedwarf";
     public static final ServiceName CAPEDWARF_NAME = ServiceName.JBOSS.append(CAPEDWARF);
+    public static final ServiceName OPTIONAL_EXECUTOR_NAME = CAPEDWARF_NAME.append("OptionalExecutorService");
     // JNDI names
     static final String JMSXA_JNDI = JndiName.of("java:").append("JmsXA").getAbsoluteName();
     static final String QUEUE_JNDI = JndiName.of("java:").append("queue").append(CAPEDWARF).getAbsoluteName();
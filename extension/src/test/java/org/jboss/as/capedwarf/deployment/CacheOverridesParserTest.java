@@ -0,0 +1,88 @@
+package org.jboss.as.capedwarf.deployment;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.jboss.as.capedwarf.services.CacheOverride;
+import org.jboss.capedwarf.shared.config.CacheName;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheOverridesParserTest {
+    @Test
+    public void testParse() throws Exception {
+        final Map<CacheName, CacheOverride> overrides = CacheOverridesParser.parse(toStream(
+                "<cache name=\"memcache\">" +
+                "<eviction strategy=\"lirs\" max-entries=\"50000\"/>" +
+                "<expiration lifespan=\"-1\" max-idle=\"3600000\"/>" +
+                "<store-as-binary>true</store-as-binary>" +
+                "<mode>dist-async</mode>" +
+                "</cache>" +
+                "<cache name=\"default\"><expiration max-idle=\"1000\"/></cache>"));
+        Assert.assertEquals(2, overrides.size());
+        Assert.assertEquals("CacheOverride[maxEntries=50000, evictionStrategy=LIRS, lifespan=-1, maxIdle=3600000, storeAsBinary=true, cacheMode=DIST_ASYNC]", overrides.get(CacheName.MEMCACHE).toString());
+        Assert.assertEquals("CacheOverride[maxEntries=null, evictionStrategy=null, lifespan=null, maxIdle=1000, storeAsBinary=null, cacheMode=null]", overrides.get(CacheName.DEFAULT).toString());
+    }
+
+    @Test
+    public void testNoDescriptor() throws Exception {
+        Assert.assertTrue(CacheOverridesParser.parse(null).isEmpty());
+        Assert.assertTrue(CacheOverridesParser.parse(new ByteArrayInputStream("<capedwarf-web-app/>".getBytes(StandardCharsets.UTF_8))).isEmpty());
+    }
+
+    @Test
+    public void testLimitMaxEntries() throws Exception {
+        final CacheOverride override = CacheOverridesParser.parse(toStream("<cache name=\"memcache\"><eviction max-entries=\"500000\"/></cache>")).get(CacheName.MEMCACHE);
+        Assert.assertTrue(override.limitMaxEntries(100000));
+        Assert.assertFalse(override.limitMaxEntries(100000));
+        Assert.assertTrue(override.toString().contains("maxEntries=100000"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCache() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"nosuchcache\"><eviction max-entries=\"10\"/></cache>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInternalCache() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"datastore_versions\"><eviction max-entries=\"10\"/></cache>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadStrategy() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"memcache\"><eviction strategy=\"random\"/></cache>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadMode() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"memcache\"><mode>everywhere</mode></cache>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoEviction() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"memcache\"><eviction strategy=\"none\"/></cache>"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnbounded() throws Exception {
+        CacheOverridesParser.parse(toStream("<cache name=\"memcache\"><eviction max-entries=\"-1\"/></cache>"));
+    }
+
+    @Test(expected = SAXParseException.class)
+    public void testDoctype() throws Exception {
+        final String xml = "<?xml version=\"1.0\"?><!DOCTYPE capedwarf-web-app [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>" +
+                "<capedwarf-web-app><caches><cache name=\"memcache\"><mode>&xxe;</mode></cache></caches></capedwarf-web-app>";
+        CacheOverridesParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static InputStream toStream(String caches) {
+        final String xml = "<capedwarf-web-app><caches>" + caches + "</caches></capedwarf-web-app>";
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -14,6 +14,24 @@ public class SubsystemParsingTest extends AbstractSubsystemBaseTest {
             "<subsystem xmlns=\"urn:jboss:domain:capedwarf:1.0\">\n" +
                     "            <appengine-api>abc123</appengine-api>\n" +
                     "            <admin-auth>false</admin-auth>\n" +
+                    "            <consumer-batch-size>10</consumer-batch-size>\n" +
+                    "            <consumer-batch-linger>20</consumer-batch-linger>\n" +
+                    "            <consumer-pool-size>4</consumer-pool-size>\n" +
+                    "            <app-task-queue-size>16</app-task-queue-size>\n" +
+                    "            <local-task-dispatch>true</local-task-dispatch>\n" +
+                    "            <local-task-max-in-flight>32</local-task-max-in-flight>\n" +
+                    "            <task-response-capture-size>256</task-response-capture-size>\n" +
+                    "            <indexing-backpressure-threshold>10000</indexing-backpressure-threshold>\n" +
+                    "            <single-node-indexing-backend>true</single-node-indexing-backend>\n" +
+                    "            <indexing-compression-threshold>4096</indexing-compression-threshold>\n" +
+                    "            <datastore-near-real-time>true</datastore-near-real-time>\n" +
+                    "            <datastore-index-refresh-interval>500</datastore-index-refresh-interval>\n" +
+                    "            <datastore-index-ram-buffer-size>32</datastore-index-ram-buffer-size>\n" +
+                    "            <lazy-caches>memcache,channel,prospective_search</lazy-caches>\n" +
+                    "            <cache-idle-timeout>600000</cache-idle-timeout>\n" +
+                    "            <cache-memory-budget>67108864</cache-memory-budget>\n" +
+                    "            <memcache-off-heap-size>134217728</memcache-off-heap-size>\n" +
+                    "            <cache-override-max-entries>200000</cache-override-max-entries>\n" +
                     "         </subsystem>";
 
     public SubsystemParsingTest() {
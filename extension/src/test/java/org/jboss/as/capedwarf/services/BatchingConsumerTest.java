@@ -0,0 +1,120 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class BatchingConsumerTest {
+    @Test
+    public void testCommitWithBoundSession() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final Session session = newSession(calls);
+        final List<Session> bound = new ArrayList<>();
+        final BatchingConsumer consumer = new BatchingConsumer(session, null, new MessageListener() {
+            public void onMessage(Message message) {
+                bound.add(TaskRescheduler.getBatchSession());
+            }
+        }, 3, 0);
+
+        consumer.process(Arrays.asList(newMessage(), newMessage(), newMessage()));
+        Assert.assertEquals(Arrays.asList("commit"), calls);
+        Assert.assertEquals(Arrays.asList(session, session, session), bound);
+        Assert.assertNull(TaskRescheduler.getBatchSession());
+    }
+
+    @Test
+    public void testRollbackOnFailure() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final List<Message> handled = new ArrayList<>();
+        final Message poison = newMessage();
+        final BatchingConsumer consumer = new BatchingConsumer(newSession(calls), null, new MessageListener() {
+            public void onMessage(Message message) {
+                handled.add(message);
+                if (message == poison) {
+                    throw new IllegalStateException("Cannot push task back to the queue.");
+                }
+            }
+        }, 3, 0);
+
+        final Message first = newMessage();
+        consumer.process(Arrays.asList(first, poison, newMessage()));
+        Assert.assertEquals(Arrays.asList("rollback"), calls);
+        Assert.assertEquals(Arrays.asList(first, poison), handled);
+        Assert.assertNull(TaskRescheduler.getBatchSession());
+    }
+
+    @Test
+    public void testBatchListenerFlushFailure() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final List<String> listener = new ArrayList<>();
+        final BatchingConsumer consumer = new BatchingConsumer(newSession(calls), null, new BatchListener() {
+            public void onMessage(Message message) {
+                listener.add("message");
+            }
+
+            public void flush() {
+                listener.add("flush");
+                throw new IllegalStateException("Flush failed.");
+            }
+
+            public void discard() {
+                listener.add("discard");
+            }
+        }, 2, 0);
+
+        consumer.process(Arrays.asList(newMessage(), newMessage()));
+        Assert.assertEquals(Arrays.asList("message", "message", "flush", "discard"), listener);
+        Assert.assertEquals(Arrays.asList("rollback"), calls);
+    }
+
+    private static Session newSession(final List<String> calls) {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("commit".equals(method.getName()) || "rollback".equals(method.getName())) {
+                    calls.add(method.getName());
+                    return null;
+                }
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Message newMessage() {
+        return (Message) Proxy.newProxyInstance(Message.class.getClassLoader(), new Class<?>[]{Message.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getJMSMessageID".equals(method.getName())) {
+                    return "ID:" + System.identityHashCode(proxy);
+                }
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                if ("toString".equals(method.getName())) {
+                    return "Message";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,28 @@
+package org.jboss.as.capedwarf.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheActivationTest {
+    @Test
+    public void testParse() throws Exception {
+        final CacheActivation activation = CacheActivation.parse(" memcache, channel,,", 1000L);
+        Assert.assertTrue(activation.isLazy("memcache"));
+        Assert.assertTrue(activation.isLazy("channel"));
+        Assert.assertFalse(activation.isLazy("default"));
+        Assert.assertEquals(1000L, activation.getIdleTimeout());
+    }
+
+    @Test
+    public void testNoLazyCaches() throws Exception {
+        Assert.assertFalse(CacheActivation.parse(null, 0).isLazy("memcache"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCache() throws Exception {
+        CacheActivation.parse("memcache,memcahce", 0);
+    }
+}
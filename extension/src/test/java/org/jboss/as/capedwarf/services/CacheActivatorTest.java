@@ -0,0 +1,85 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.lifecycle.ComponentStatus;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class CacheActivatorTest {
+    @Test
+    public void testMetadataDoesNotStartCache() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final Configuration configuration = new Configuration();
+        final EmbeddedCacheManager manager = newManager(configuration, calls);
+        final Cache handle = new CacheActivator(manager, "memcache_app", null, 0).getCache();
+
+        Assert.assertEquals("memcache_app", handle.getName());
+        Assert.assertEquals(ComponentStatus.INSTANTIATED, handle.getStatus());
+        Assert.assertSame(configuration, handle.getCacheConfiguration());
+        Assert.assertSame(manager, handle.getCacheManager());
+        Assert.assertNotNull(handle.toString());
+        Assert.assertEquals(Arrays.asList("getCacheConfiguration"), calls);
+    }
+
+    @Test
+    public void testOperationStartsCache() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final Cache handle = new CacheActivator(newManager(new Configuration(), calls), "memcache_app", null, 0).getCache();
+
+        Assert.assertEquals("value", handle.get("key"));
+        Assert.assertEquals(Arrays.asList("getCache", "get"), calls);
+        // once running, metadata comes from the cache
+        Assert.assertEquals(ComponentStatus.RUNNING, handle.getStatus());
+    }
+
+    private static EmbeddedCacheManager newManager(final Configuration configuration, final List<String> calls) {
+        return proxy(EmbeddedCacheManager.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                calls.add(method.getName());
+                switch (method.getName()) {
+                    case "getCacheConfiguration":
+                        return configuration;
+                    case "getCache":
+                        return newCache(calls);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static AdvancedCache newCache(final List<String> calls) {
+        return proxy(AdvancedCache.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getAdvancedCache":
+                        return proxy;
+                    case "getStatus":
+                        return ComponentStatus.RUNNING;
+                    case "get":
+                        calls.add("get");
+                        return "value";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(CacheActivatorTest.class.getClassLoader(), new Class[]{type}, handler));
+    }
+}
@@ -0,0 +1,57 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Message;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class DeadLetterQueueTest {
+    @Test
+    public void testQuarantinedAppId() throws Exception {
+        final Message message = newMessage();
+        message.setStringProperty(DeadLetterQueue.TASK_APP_ID, "sender");
+        message.setStringProperty(DeadLetterQueue.APP_ID, "quarantined");
+        Assert.assertEquals("quarantined", DeadLetterQueue.getAppId(message));
+    }
+
+    @Test
+    public void testBrokerMovedAppId() throws Exception {
+        // moved by the broker after max delivery attempts, only the task's own properties
+        final Message message = newMessage();
+        message.setStringProperty(DeadLetterQueue.TASK_APP_ID, "sender");
+        Assert.assertEquals("sender", DeadLetterQueue.getAppId(message));
+    }
+
+    @Test
+    public void testSelector() throws Exception {
+        Assert.assertNull(DeadLetterQueue.selector(null));
+        final String selector = DeadLetterQueue.selector("o'app");
+        Assert.assertTrue(selector, selector.startsWith(DeadLetterQueue.APP_ID + " = 'o''app' OR ("));
+        Assert.assertTrue(selector, selector.endsWith(DeadLetterQueue.APP_ID + " IS NULL AND " + DeadLetterQueue.TASK_APP_ID + " = 'o''app')"));
+    }
+
+    private static Message newMessage() {
+        final Map<String, Object> properties = new HashMap<>();
+        return (Message) Proxy.newProxyInstance(DeadLetterQueueTest.class.getClassLoader(), new Class[]{Message.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if (name.startsWith("set") && name.endsWith("Property")) {
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                } else if (name.startsWith("get") && name.endsWith("Property")) {
+                    return properties.get(args[0]);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
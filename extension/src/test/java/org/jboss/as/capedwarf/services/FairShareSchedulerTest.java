@@ -0,0 +1,244 @@
+package org.jboss.as.capedwarf.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class FairShareSchedulerTest {
+    private static final int NO_CAP = Integer.MAX_VALUE;
+
+    @Test
+    public void testConcurrency() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 2, 10);
+        final List<String> log = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a" + i)));
+        }
+        Assert.assertEquals(2, executor.size());
+        Assert.assertEquals(2, scheduler.getRunning());
+        Assert.assertEquals(1, scheduler.getWaiting("a"));
+
+        executor.runNext();
+        Assert.assertEquals(2, executor.size());
+        Assert.assertEquals(0, scheduler.getWaiting("a"));
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("a1", "a2", "a3"), log);
+        Assert.assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test(timeout = 5000)
+    public void testFullQueue() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 1, 1);
+        final List<String> log = new ArrayList<>();
+        Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a1")));
+        Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a2")));
+        final Offer a3 = new Offer(scheduler, "a", new Task(log, "a3"));
+        a3.start();
+        a3.join(200);
+        Assert.assertTrue(a3.isAlive()); // waits while the app's queue is full
+        // other apps have their own queue
+        Assert.assertTrue(scheduler.offer("b", 1, NO_CAP, new Task(log, "b1")));
+
+        executor.runNext();
+        a3.join();
+        Assert.assertTrue(a3.result);
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("a1", "a2", "b1", "a3"), log);
+    }
+
+    @Test(timeout = 5000)
+    public void testClearWakesOffer() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 1, 1);
+        final List<String> log = new ArrayList<>();
+        Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a1")));
+        Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a2")));
+        final Offer a3 = new Offer(scheduler, "a", new Task(log, "a3"));
+        a3.start();
+        a3.join(200);
+        Assert.assertTrue(a3.isAlive());
+
+        Assert.assertEquals(1, scheduler.clear().size());
+        a3.join();
+        Assert.assertFalse(a3.result);
+        Assert.assertFalse(scheduler.offer("b", 1, NO_CAP, new Task(log, "b1")));
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("a1"), log);
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 4, 100);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            scheduler.offer("a", 1, NO_CAP, new Task(log, "a"));
+        }
+        // alone, the app gets all the concurrency
+        Assert.assertEquals(4, scheduler.getRunning("a"));
+        for (int i = 0; i < 10; i++) {
+            scheduler.offer("b", 1, NO_CAP, new Task(log, "b"));
+        }
+        Assert.assertEquals(0, scheduler.getRunning("b"));
+
+        executor.runNext();
+        executor.runNext();
+        Assert.assertEquals(2, scheduler.getRunning("a"));
+        Assert.assertEquals(2, scheduler.getRunning("b"));
+        executor.runAll();
+        Assert.assertEquals(20, log.size());
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 4, 100);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            scheduler.offer("a", 3, NO_CAP, new Task(log, "a"));
+        }
+        for (int i = 0; i < 10; i++) {
+            scheduler.offer("b", 1, NO_CAP, new Task(log, "b"));
+        }
+        executor.runNext();
+        executor.runNext();
+        Assert.assertEquals(3, scheduler.getRunning("a"));
+        Assert.assertEquals(1, scheduler.getRunning("b"));
+        executor.runAll();
+        Assert.assertEquals(20, log.size());
+    }
+
+    @Test
+    public void testCap() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 4, 10);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            scheduler.offer("a", 1, 1, new Task(log, "a"));
+        }
+        Assert.assertEquals(1, executor.size());
+        Assert.assertEquals(2, scheduler.getWaiting("a"));
+        executor.runAll();
+        Assert.assertEquals(3, log.size());
+    }
+
+    @Test
+    public void testSetConcurrency() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 1, 10);
+        final List<String> log = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            scheduler.offer("a", 1, NO_CAP, new Task(log, "a"));
+        }
+        Assert.assertEquals(1, executor.size());
+        scheduler.setConcurrency(3);
+        Assert.assertEquals(3, executor.size());
+        Assert.assertEquals(3, scheduler.getRunning());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final FairShareScheduler scheduler = new FairShareScheduler(executor, 1, 10);
+        final List<String> log = new ArrayList<>();
+        final Task a1 = new Task(log, "a1");
+        final Task a2 = new Task(log, "a2");
+        final Task b1 = new Task(log, "b1");
+        scheduler.offer("a", 1, NO_CAP, a1);
+        scheduler.offer("a", 1, NO_CAP, a2);
+        scheduler.offer("b", 1, NO_CAP, b1);
+
+        final List<Runnable> parked = scheduler.clear();
+        Assert.assertEquals(2, parked.size());
+        Assert.assertTrue(parked.contains(a2));
+        Assert.assertTrue(parked.contains(b1));
+        Assert.assertEquals(0, scheduler.getWaiting("a"));
+        Assert.assertEquals(0, scheduler.getWaiting("b"));
+
+        // the running task still completes
+        executor.runAll();
+        Assert.assertEquals(Arrays.asList("a1"), log);
+        Assert.assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        final FairShareScheduler scheduler = new FairShareScheduler(new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 2, 10);
+        final List<String> log = new ArrayList<>();
+        Assert.assertTrue(scheduler.offer("a", 1, NO_CAP, new Task(log, "a1")));
+        // run by the caller instead
+        Assert.assertEquals(Arrays.asList("a1"), log);
+        Assert.assertEquals(0, scheduler.getRunning());
+    }
+
+    private static class Task implements Runnable {
+        private final List<String> log;
+        private final String name;
+
+        private Task(List<String> log, String name) {
+            this.log = log;
+            this.name = name;
+        }
+
+        public void run() {
+            log.add(name);
+        }
+    }
+
+    private static class Offer extends Thread {
+        private final FairShareScheduler scheduler;
+        private final String appId;
+        private final Runnable task;
+        private volatile boolean result;
+
+        private Offer(FairShareScheduler scheduler, String appId, Runnable task) {
+            this.scheduler = scheduler;
+            this.appId = appId;
+            this.task = task;
+        }
+
+        public void run() {
+            try {
+                result = scheduler.offer(appId, 1, NO_CAP, task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        private int size() {
+            return tasks.size();
+        }
+
+        private void runNext() {
+            tasks.remove(0).run();
+        }
+
+        private void runAll() {
+            while (tasks.isEmpty() == false) {
+                runNext();
+            }
+        }
+    }
+}
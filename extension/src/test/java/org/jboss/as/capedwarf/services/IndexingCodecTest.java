@@ -0,0 +1,126 @@
+package org.jboss.as.capedwarf.services;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class IndexingCodecTest {
+    @After
+    public void reset() {
+        IndexingCodec.setCompressionThreshold(0);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final byte[] data = compressible(8192);
+        final ObjectMessage message = newMessage();
+        IndexingCodec.write(message, data);
+        Assert.assertSame(data, message.getObject());
+        Assert.assertNull(message.getStringProperty(IndexingCodec.CODEC_PROPERTY));
+        Assert.assertArrayEquals(data, IndexingCodec.read(message));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        IndexingCodec.setCompressionThreshold(1024);
+        final byte[] data = compressible(8192);
+        final ObjectMessage message = newMessage();
+        IndexingCodec.write(message, data);
+        Assert.assertEquals(IndexingCodec.DEFLATE, message.getStringProperty(IndexingCodec.CODEC_PROPERTY));
+        Assert.assertEquals(data.length, message.getIntProperty(IndexingCodec.LENGTH_PROPERTY));
+        Assert.assertTrue(((byte[]) message.getObject()).length < data.length);
+        Assert.assertArrayEquals(data, IndexingCodec.read(message));
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        IndexingCodec.setCompressionThreshold(1024);
+        final byte[] data = compressible(1023);
+        final ObjectMessage message = newMessage();
+        IndexingCodec.write(message, data);
+        Assert.assertNull(message.getStringProperty(IndexingCodec.CODEC_PROPERTY));
+        Assert.assertArrayEquals(data, IndexingCodec.read(message));
+
+        final byte[] exact = compressible(1024);
+        final ObjectMessage other = newMessage();
+        IndexingCodec.write(other, exact);
+        Assert.assertEquals(IndexingCodec.DEFLATE, other.getStringProperty(IndexingCodec.CODEC_PROPERTY));
+        Assert.assertArrayEquals(exact, IndexingCodec.read(other));
+    }
+
+    @Test
+    public void testIncompressible() throws Exception {
+        IndexingCodec.setCompressionThreshold(16);
+        final byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        final ObjectMessage message = newMessage();
+        IndexingCodec.write(message, data);
+        Assert.assertNull(message.getStringProperty(IndexingCodec.CODEC_PROPERTY));
+        Assert.assertArrayEquals(data, IndexingCodec.read(message));
+    }
+
+    @Test(expected = JMSException.class)
+    public void testUnknownCodec() throws Exception {
+        final ObjectMessage message = newMessage();
+        message.setObject(new byte[16]);
+        message.setStringProperty(IndexingCodec.CODEC_PROPERTY, "lz4");
+        IndexingCodec.read(message);
+    }
+
+    @Test(expected = JMSException.class)
+    public void testTruncated() throws Exception {
+        IndexingCodec.setCompressionThreshold(16);
+        final ObjectMessage message = newMessage();
+        IndexingCodec.write(message, compressible(8192));
+        final byte[] compressed = (byte[]) message.getObject();
+        message.setObject(Arrays.copyOf(compressed, compressed.length / 2));
+        IndexingCodec.read(message);
+    }
+
+    private static byte[] compressible(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + (i % 7));
+        }
+        return data;
+    }
+
+    private static ObjectMessage newMessage() {
+        final Map<String, Object> properties = new HashMap<>();
+        final Serializable[] body = new Serializable[1];
+        return (ObjectMessage) Proxy.newProxyInstance(IndexingCodecTest.class.getClassLoader(), new Class[]{ObjectMessage.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if (name.equals("setObject")) {
+                    body[0] = (Serializable) args[0];
+                    return null;
+                } else if (name.equals("getObject")) {
+                    return body[0];
+                } else if (name.startsWith("set") && name.endsWith("Property")) {
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                } else if (name.equals("getStringProperty")) {
+                    return properties.get(args[0]);
+                } else if (name.equals("getIntProperty")) {
+                    return properties.get(args[0]);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
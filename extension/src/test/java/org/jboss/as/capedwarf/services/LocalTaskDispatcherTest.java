@@ -0,0 +1,184 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.servlet.ServletContext;
+
+import org.jboss.capedwarf.shared.components.ComponentRegistry;
+import org.jboss.capedwarf.shared.components.SimpleKey;
+import org.jboss.capedwarf.shared.jms.MessageConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class LocalTaskDispatcherTest {
+    private static final String APP_ID = "local-app";
+    private static final String MODULE_ID = "default";
+    private static final String PATH = MessageConstants.PREFIX + MessageConstants.PATH;
+
+    private final SimpleKey<ServletContext> key = new SimpleKey<>(APP_ID, MODULE_ID, ServletContext.class);
+    private final Queue queue = proxy(Queue.class, null);
+    private final Session session = newSession();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<Message> handled = new ArrayList<>();
+
+    @Before
+    public void deploy() {
+        ComponentRegistry.getInstance().setComponent(key, proxy(ServletContext.class, null));
+    }
+
+    @After
+    public void undeploy() {
+        ComponentRegistry.getInstance().removeComponent(key);
+    }
+
+    @Test
+    public void testDispatchCopy() throws Exception {
+        final LocalTaskDispatcher dispatcher = newDispatcher(null, 10);
+        final Message message = newMessage(APP_ID, "/task");
+        Assert.assertTrue(dispatcher.tryDispatch(session, queue, message, DeliveryMode.NON_PERSISTENT, 0));
+
+        // the sender re-uses its message before the executor gets to it
+        message.setStringProperty(PATH, "/other");
+        ((TextMessage) message).setText("other");
+        runTasks();
+
+        Assert.assertEquals(1, handled.size());
+        final TextMessage copy = (TextMessage) handled.get(0);
+        Assert.assertNotSame(message, copy);
+        Assert.assertEquals("/task", copy.getStringProperty(PATH));
+        Assert.assertEquals("payload", copy.getText());
+        Assert.assertEquals(DeliveryMode.NON_PERSISTENT, copy.getJMSDeliveryMode());
+    }
+
+    @Test
+    public void testNotDeployed() throws Exception {
+        final LocalTaskDispatcher dispatcher = newDispatcher(null, 10);
+        Assert.assertFalse(dispatcher.tryDispatch(session, queue, newMessage("remote-app", "/task"), DeliveryMode.NON_PERSISTENT, 0));
+        Assert.assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void testFailureReleasesSlot() throws Exception {
+        final LocalTaskDispatcher dispatcher = newDispatcher(new IllegalStateException("Task failed."), 1);
+        Assert.assertTrue(dispatcher.tryDispatch(session, queue, newMessage(APP_ID, "/task"), DeliveryMode.NON_PERSISTENT, 0));
+        Assert.assertFalse(dispatcher.tryDispatch(session, queue, newMessage(APP_ID, "/task"), DeliveryMode.NON_PERSISTENT, 0));
+        try {
+            runTasks();
+            Assert.fail("Failure should reach the executor.");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertTrue(dispatcher.tryDispatch(session, queue, newMessage(APP_ID, "/task"), DeliveryMode.NON_PERSISTENT, 0));
+    }
+
+    private LocalTaskDispatcher newDispatcher(final RuntimeException failure, int maxInFlight) {
+        return new LocalTaskDispatcher(new MessageListener() {
+            public void onMessage(Message message) {
+                handled.add(message);
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }, queue, new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, maxInFlight);
+    }
+
+    private void runTasks() {
+        final List<Runnable> copy = new ArrayList<>(tasks);
+        tasks.clear();
+        for (Runnable task : copy) {
+            task.run();
+        }
+    }
+
+    private static Session newSession() {
+        return proxy(Session.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("createTextMessage".equals(method.getName())) {
+                    return newTextMessage((String) args[0]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Message newMessage(String appId, String path) throws Exception {
+        final Message message = newTextMessage("payload");
+        message.setStringProperty(MessageConstants.PREFIX + MessageConstants.APP_ID, appId);
+        message.setStringProperty(MessageConstants.PREFIX + MessageConstants.MODULE_ID, MODULE_ID);
+        message.setStringProperty(PATH, path);
+        return message;
+    }
+
+    private static TextMessage newTextMessage(final String text) {
+        final Map<String, Object> properties = new HashMap<>();
+        final Map<String, Object> headers = new HashMap<>();
+        final Object[] body = {text};
+        return proxy(TextMessage.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if (name.equals("getText")) {
+                    return body[0];
+                } else if (name.equals("setText")) {
+                    body[0] = args[0];
+                    return null;
+                } else if (name.equals("propertyExists")) {
+                    return properties.containsKey(args[0]);
+                } else if (name.equals("getPropertyNames")) {
+                    return Collections.enumeration(new ArrayList<>(properties.keySet()));
+                } else if (name.startsWith("set") && name.endsWith("Property")) {
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                } else if (name.startsWith("get") && name.endsWith("Property")) {
+                    return properties.get(args[0]);
+                } else if (name.startsWith("setJMS")) {
+                    headers.put(name.substring(3), args[0]);
+                    return null;
+                } else if (name.equals("getJMSDeliveryMode")) {
+                    return headers.containsKey("JMSDeliveryMode") ? headers.get("JMSDeliveryMode") : DeliveryMode.PERSISTENT;
+                } else if (name.startsWith("getJMS")) {
+                    return headers.get(name.substring(3));
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(LocalTaskDispatcherTest.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                } else if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                } else if ("toString".equals(method.getName())) {
+                    return type.getSimpleName();
+                } else if (handler == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return handler.invoke(proxy, method, args);
+            }
+        }));
+    }
+}
@@ -0,0 +1,199 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.infinispan.Cache;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryActivatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryLoadedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class MemoryBudgetTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBudget() {
+        new MemoryBudget("app", 0);
+    }
+
+    @Test
+    public void testAccounting() {
+        final MemoryBudget budget = new MemoryBudget("app", 1000);
+        final TestCache cache = new TestCache("a");
+        budget.track(cache.proxy);
+        final MemoryBudget.Tracker tracker = cache.getTracker();
+
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "a", new byte[400]));
+        Assert.assertEquals(400, budget.getUsedBytes());
+        // pre events are ignored
+        tracker.modified(event(CacheEntryModifiedEvent.class, true, "a", new byte[100]));
+        Assert.assertEquals(400, budget.getUsedBytes());
+        // overwrite replaces the entry's size
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "a", new byte[300]));
+        Assert.assertEquals(300, budget.getUsedBytes());
+
+        // entries loaded or activated from the store are in memory too
+        tracker.loaded(event(CacheEntryLoadedEvent.class, false, "b", new byte[200]));
+        tracker.activated(event(CacheEntryActivatedEvent.class, false, "c", new byte[100]));
+        Assert.assertEquals(600, budget.getUsedBytes());
+
+        tracker.removed(event(CacheEntryRemovedEvent.class, false, "b", null));
+        Assert.assertEquals(400, budget.getUsedBytes());
+        tracker.invalidated(event(CacheEntryInvalidatedEvent.class, true, "c", null));
+        Assert.assertEquals(300, budget.getUsedBytes());
+        tracker.evicted(evicted("a"));
+        Assert.assertEquals(0, budget.getUsedBytes());
+        // unknown keys don't change anything
+        tracker.removed(event(CacheEntryRemovedEvent.class, false, "x", null));
+        Assert.assertEquals(0, budget.getUsedBytes());
+        Assert.assertTrue(cache.evicted.isEmpty());
+    }
+
+    @Test
+    public void testUntrack() {
+        final MemoryBudget budget = new MemoryBudget("app", 1000);
+        final TestCache cache = new TestCache("a");
+        budget.track(cache.proxy);
+        cache.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "a", new byte[400]));
+        budget.untrack(cache.proxy);
+        Assert.assertEquals(0, budget.getUsedBytes());
+        Assert.assertNull(cache.listener);
+    }
+
+    @Test
+    public void testEvictsEldestOfLargestCache() throws Exception {
+        final MemoryBudget budget = new MemoryBudget("app", 1000);
+        final TestCache large = new TestCache("large");
+        final TestCache small = new TestCache("small");
+        budget.track(large.proxy);
+        budget.track(small.proxy);
+
+        large.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "l1", new byte[300]));
+        large.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "l2", new byte[300]));
+        small.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "s1", new byte[300]));
+        // touching l1 makes l2 the eldest write
+        large.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "l1", new byte[300]));
+        Assert.assertEquals(900, budget.getUsedBytes());
+        Assert.assertTrue(large.evicted.isEmpty());
+
+        small.getTracker().modified(event(CacheEntryModifiedEvent.class, false, "s2", new byte[200]));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (large.evicted.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(800, budget.getUsedBytes());
+        Assert.assertEquals(Collections.<Object>singletonList("l2"), large.evicted);
+        Assert.assertTrue(small.evicted.isEmpty());
+    }
+
+    @Test
+    public void testFailedEvictionKeepsSize() throws Exception {
+        final MemoryBudget budget = new MemoryBudget("app", 1000);
+        final TestCache cache = new TestCache("a");
+        cache.failing.add("k1");
+        budget.track(cache.proxy);
+        final MemoryBudget.Tracker tracker = cache.getTracker();
+
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "k1", new byte[400]));
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "k2", new byte[400]));
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "k3", new byte[400]));
+        // k1 is still in memory, so it stays counted
+        waitFor(cache, 1);
+        Thread.sleep(100);
+        Assert.assertEquals(1200, budget.getUsedBytes());
+        Assert.assertEquals(Arrays.<Object>asList("k1"), cache.evicted);
+
+        // next time the other entries go first
+        tracker.modified(event(CacheEntryModifiedEvent.class, false, "k4", new byte[100]));
+        waitFor(cache, 2);
+        Assert.assertEquals(900, budget.getUsedBytes());
+        Assert.assertEquals(Arrays.<Object>asList("k1", "k2"), cache.evicted);
+    }
+
+    private static void waitFor(TestCache cache, int evictions) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (cache.evicted.size() < evictions && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static <T> T event(Class<T> type, final boolean pre, final Object key, final Object value) {
+        return type.cast(Proxy.newProxyInstance(MemoryBudgetTest.class.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "isPre":
+                        return pre;
+                    case "getKey":
+                        return key;
+                    case "getValue":
+                        return value;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        }));
+    }
+
+    private static CacheEntriesEvictedEvent evicted(final Object key) {
+        return (CacheEntriesEvictedEvent) Proxy.newProxyInstance(MemoryBudgetTest.class.getClassLoader(), new Class[]{CacheEntriesEvictedEvent.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getEntries")) {
+                    return Collections.singletonMap(key, null);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static class TestCache implements InvocationHandler {
+        private final String name;
+        private final Cache proxy;
+        private final List<Object> evicted = new CopyOnWriteArrayList<>();
+        private final Set<Object> failing = new CopyOnWriteArraySet<>();
+        private volatile Object listener;
+
+        private TestCache(String name) {
+            this.name = name;
+            this.proxy = (Cache) Proxy.newProxyInstance(MemoryBudgetTest.class.getClassLoader(), new Class[]{Cache.class}, this);
+        }
+
+        private MemoryBudget.Tracker getTracker() {
+            return (MemoryBudget.Tracker) listener;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "addListener":
+                    listener = args[0];
+                    return null;
+                case "removeListener":
+                    listener = null;
+                    return null;
+                case "evict":
+                    evicted.add(args[0]);
+                    if (failing.contains(args[0])) {
+                        throw new IllegalStateException("Cannot evict " + args[0]);
+                    }
+                    getTracker().evicted(evicted(args[0]));
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.infinispan.Cache;
+import org.infinispan.commons.io.ByteBuffer;
+import org.infinispan.commons.io.ByteBufferFactory;
+import org.infinispan.marshall.core.MarshalledEntry;
+import org.infinispan.marshall.core.MarshalledEntryFactory;
+import org.infinispan.persistence.spi.AdvancedCacheLoader;
+import org.infinispan.persistence.spi.InitializationContext;
+import org.infinispan.util.TimeService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class OffHeapStoreTest {
+    private static final int SLAB = OffHeapStore.SLAB_SIZE;
+    // values of 513 - 1024 bytes share a size class, with this many chunks per slab
+    private static final int CHUNKS = SLAB / 1024;
+
+    private OffHeapStore<String, Object> store;
+
+    @After
+    public void stop() {
+        if (store != null) {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        store = newStore(4 * SLAB);
+        final byte[] value = value(100, 1);
+        write("a", value);
+        Assert.assertTrue(store.contains("a"));
+        Assert.assertArrayEquals(value, read("a"));
+        Assert.assertEquals(1, store.size());
+
+        Assert.assertTrue(store.delete("a"));
+        Assert.assertFalse(store.contains("a"));
+        Assert.assertNull(store.load("a"));
+        Assert.assertFalse(store.delete("a"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testOverwrite() {
+        store = newStore(4 * SLAB);
+        write("a", value(100, 1));
+        final byte[] larger = value(3000, 2);
+        write("a", larger);
+        Assert.assertArrayEquals(larger, read("a"));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test
+    public void testLargeValueDropped() {
+        store = newStore(SLAB);
+        write("large", value(100, 1));
+        // larger than a slab, so it cannot be kept w/o going over the budget; the previous value is stale
+        write("large", value(SLAB + 1, 3));
+        Assert.assertNull(store.load("large"));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        store = newStore(SLAB);
+        for (int i = 0; i < CHUNKS; i++) {
+            write("k" + i, value(1000, i));
+        }
+        Assert.assertEquals(CHUNKS, store.size());
+        // reading k0 makes k1 the least recently used
+        Assert.assertArrayEquals(value(1000, 0), read("k0"));
+
+        write("new", value(1000, -1));
+        Assert.assertEquals(CHUNKS, store.size());
+        Assert.assertNull(store.load("k1"));
+        Assert.assertArrayEquals(value(1000, 0), read("k0"));
+        Assert.assertArrayEquals(value(1000, 2), read("k2"));
+        Assert.assertArrayEquals(value(1000, -1), read("new"));
+    }
+
+    @Test
+    public void testDeleteFreesChunk() {
+        store = newStore(SLAB);
+        for (int i = 0; i < CHUNKS; i++) {
+            write("k" + i, value(1000, i));
+        }
+        store.delete("k5");
+        write("new", value(1000, -1));
+        Assert.assertEquals(CHUNKS, store.size());
+        for (int i = 0; i < CHUNKS; i++) {
+            if (i != 5) {
+                Assert.assertArrayEquals(value(1000, i), read("k" + i));
+            }
+        }
+        Assert.assertArrayEquals(value(1000, -1), read("new"));
+    }
+
+    @Test
+    public void testSlabReassignment() {
+        store = newStore(SLAB);
+        for (int i = 0; i < 3; i++) {
+            write("small" + i, value(50, i));
+        }
+        // the only slab belongs to the small values' size class, so it is taken over
+        final byte[] value = value(1000, 7);
+        write("big", value);
+        Assert.assertArrayEquals(value, read("big"));
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(store.load("small" + i));
+        }
+        Assert.assertEquals(1, store.size());
+
+        // and taken back, once the small values' class has no memory left
+        write("small", value(50, 8));
+        Assert.assertArrayEquals(value(50, 8), read("small"));
+        Assert.assertNull(store.load("big"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcess() {
+        store = newStore(4 * SLAB);
+        write("a", value(10, 1));
+        write("b", value(10, 2));
+        write("c", value(10, 3));
+        final Set<Object> keys = new HashSet<>();
+        store.process(new AdvancedCacheLoader.KeyFilter<String>() {
+            public boolean shouldLoadKey(String key) {
+                return "b".equals(key) == false;
+            }
+        }, new AdvancedCacheLoader.CacheLoaderTask<String, Object>() {
+            public void processEntry(MarshalledEntry<String, Object> entry, AdvancedCacheLoader.TaskContext context) {
+                keys.add(entry.getKey());
+                Assert.assertEquals(10, entry.getValueBytes().getLength());
+            }
+        }, null, true, false);
+        Assert.assertEquals(new HashSet<Object>(Arrays.asList("a", "c")), keys);
+    }
+
+    private void write(String key, byte[] value) {
+        store.write(entry(key, buffer(value)));
+    }
+
+    private byte[] read(String key) {
+        final MarshalledEntry<String, Object> entry = store.load(key);
+        Assert.assertNotNull("Missing " + key, entry);
+        final ByteBuffer buffer = entry.getValueBytes();
+        return Arrays.copyOfRange(buffer.getBuf(), buffer.getOffset(), buffer.getOffset() + buffer.getLength());
+    }
+
+    private static byte[] value(int length, int seed) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed + i);
+        }
+        return bytes;
+    }
+
+    private static OffHeapStore<String, Object> newStore(long maxBytes) {
+        final OffHeapStoreConfiguration configuration = new OffHeapStoreConfiguration(false, false, false, null, null, false, false, new Properties(), maxBytes);
+        final OffHeapStore<String, Object> store = new OffHeapStore<>();
+        store.init(proxy(InitializationContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getConfiguration":
+                        return configuration;
+                    case "getCache":
+                        return cache();
+                    case "getTimeService":
+                        return timeService();
+                    case "getByteBufferFactory":
+                        return bufferFactory();
+                    case "getMarshalledEntryFactory":
+                        return entryFactory();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        }));
+        store.start();
+        return store;
+    }
+
+    private static Cache cache() {
+        return proxy(Cache.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getName")) {
+                    return "off-heap-test";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static TimeService timeService() {
+        return proxy(TimeService.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("wallClockTime")) {
+                    return System.currentTimeMillis();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static ByteBufferFactory bufferFactory() {
+        return proxy(ByteBufferFactory.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("newByteBuffer")) {
+                    final byte[] bytes = (byte[]) args[0];
+                    return buffer(Arrays.copyOfRange(bytes, (Integer) args[1], (Integer) args[1] + (Integer) args[2]));
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static MarshalledEntryFactory entryFactory() {
+        return proxy(MarshalledEntryFactory.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("newMarshalledEntry") && (args[1] == null || args[1] instanceof ByteBuffer)) {
+                    return entry(args[0], (ByteBuffer) args[1]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static ByteBuffer buffer(final byte[] bytes) {
+        return proxy(ByteBuffer.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getBuf":
+                        return bytes;
+                    case "getOffset":
+                        return 0;
+                    case "getLength":
+                        return bytes.length;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MarshalledEntry<String, Object> entry(final Object key, final ByteBuffer value) {
+        return proxy(MarshalledEntry.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getKey":
+                        return key;
+                    case "getValueBytes":
+                        return value;
+                    case "getMetadataBytes":
+                    case "getMetadata":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(OffHeapStoreTest.class.getClassLoader(), new Class[]{type}, handler));
+    }
+}
@@ -0,0 +1,112 @@
+package org.jboss.as.capedwarf.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.hibernate.search.backend.AddLuceneWork;
+import org.hibernate.search.backend.DeleteLuceneWork;
+import org.hibernate.search.backend.LuceneWork;
+import org.hibernate.search.backend.PurgeAllLuceneWork;
+import org.hibernate.search.backend.UpdateLuceneWork;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class PendingWorksTest {
+    @Test
+    public void testUpdateSupersedesAdd() {
+        final LuceneWork add = add("1");
+        final LuceneWork update = update("1");
+        Assert.assertEquals(Arrays.asList(update), coalesce(add, update));
+    }
+
+    @Test
+    public void testDeleteSupersedesUpdate() {
+        final LuceneWork update = update("1");
+        final LuceneWork delete = delete("1");
+        Assert.assertEquals(Arrays.asList(delete), coalesce(update, delete));
+    }
+
+    @Test
+    public void testAddAfterDelete() {
+        final LuceneWork add = add("1");
+        final LuceneWork delete = delete("1");
+        final LuceneWork again = add("1");
+        Assert.assertEquals(Arrays.asList(delete, again), coalesce(add, delete, again));
+    }
+
+    @Test
+    public void testSupersededWorkMovesToEnd() {
+        final LuceneWork first = add("1");
+        final LuceneWork second = add("2");
+        final LuceneWork update = update("1");
+        Assert.assertEquals(Arrays.asList(second, update), coalesce(first, second, update));
+    }
+
+    @Test
+    public void testAddsAreKept() {
+        final LuceneWork first = add("1");
+        final LuceneWork other = add("2");
+        final LuceneWork second = add("1");
+        // adds for the same entity stay together, in order
+        Assert.assertEquals(Arrays.asList(first, second, other), coalesce(first, other, second));
+    }
+
+    @Test
+    public void testEntityClasses() {
+        final LuceneWork first = new AddLuceneWork("1", "1", String.class, new Document());
+        final LuceneWork second = new UpdateLuceneWork("1", "1", Integer.class, new Document());
+        Assert.assertEquals(Arrays.asList(first, second), coalesce(first, second));
+    }
+
+    @Test
+    public void testBarrier() {
+        final LuceneWork add = add("1");
+        final LuceneWork purge = new PurgeAllLuceneWork(String.class);
+        final LuceneWork update = update("1");
+        final LuceneWork delete = delete("1");
+        // nothing is merged across purge all, but after it as usual
+        Assert.assertEquals(Arrays.asList(add, purge, delete), coalesce(add, purge, update, delete));
+    }
+
+    @Test
+    public void testCounters() {
+        final ClassLoader cl = getClass().getClassLoader();
+        final PendingWorks works = new PendingWorks(cl);
+        Assert.assertSame(cl, works.getClassLoader());
+        works.received(2);
+        works.received(3);
+        Assert.assertEquals(5, works.getReceived());
+
+        Assert.assertEquals(0, works.getEnqueued());
+        works.enqueued(0);
+        Assert.assertEquals(0, works.getEnqueued());
+        works.enqueued(200);
+        works.enqueued(100);
+        works.enqueued(300);
+        Assert.assertEquals(100, works.getEnqueued());
+    }
+
+    private static List<LuceneWork> coalesce(LuceneWork... works) {
+        final PendingWorks pending = new PendingWorks(PendingWorksTest.class.getClassLoader());
+        for (LuceneWork work : works) {
+            pending.add(work);
+        }
+        return pending.toList();
+    }
+
+    private static LuceneWork add(String id) {
+        return new AddLuceneWork(id, id, String.class, new Document());
+    }
+
+    private static LuceneWork update(String id) {
+        return new UpdateLuceneWork(id, id, String.class, new Document());
+    }
+
+    private static LuceneWork delete(String id) {
+        return new DeleteLuceneWork(id, id, String.class);
+    }
+}
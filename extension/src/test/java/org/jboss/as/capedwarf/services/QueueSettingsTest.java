@@ -0,0 +1,46 @@
+package org.jboss.as.capedwarf.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class QueueSettingsTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testRate() {
+        Assert.assertEquals(5, QueueSettings.toRate("5/s"), DELTA);
+        Assert.assertEquals(10 / 60.0, QueueSettings.toRate("10/m"), DELTA);
+        Assert.assertEquals(100 / 3600.0, QueueSettings.toRate("100/h"), DELTA);
+        Assert.assertEquals(1 / 86400.0, QueueSettings.toRate("1/d"), DELTA);
+        Assert.assertEquals(2 / 60.0, QueueSettings.toRate(" 2 / m "), DELTA);
+        Assert.assertEquals(0.5, QueueSettings.toRate("0.5/s"), DELTA);
+    }
+
+    @Test
+    public void testRateWithoutUnit() {
+        Assert.assertEquals(3, QueueSettings.toRate("3"), DELTA);
+        Assert.assertEquals(7, QueueSettings.toRate(7), DELTA);
+        Assert.assertEquals(1.5, QueueSettings.toRate(1.5), DELTA);
+    }
+
+    @Test
+    public void testInvalidRate() {
+        Assert.assertEquals(0, QueueSettings.toRate(null), DELTA);
+        Assert.assertEquals(0, QueueSettings.toRate(""), DELTA);
+        Assert.assertEquals(0, QueueSettings.toRate("abc"), DELTA);
+        Assert.assertEquals(0, QueueSettings.toRate("x/s"), DELTA);
+    }
+
+    @Test
+    public void testToInt() {
+        Assert.assertEquals(12, QueueSettings.toInt("12", -1));
+        Assert.assertEquals(3, QueueSettings.toInt(" 3 ", -1));
+        Assert.assertEquals(4, QueueSettings.toInt(4L, -1));
+        Assert.assertEquals(-1, QueueSettings.toInt(null, -1));
+        Assert.assertEquals(-1, QueueSettings.toInt("x", -1));
+        Assert.assertEquals(-1, QueueSettings.toInt("1.5", -1));
+    }
+}
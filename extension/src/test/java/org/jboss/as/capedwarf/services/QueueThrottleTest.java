@@ -0,0 +1,98 @@
+package org.jboss.as.capedwarf.services;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class QueueThrottleTest {
+    @Test
+    public void testReservedSlots() throws Exception {
+        final QueueThrottle throttle = new QueueThrottle(new QueueSettings.Limits(10, 2, 0));
+        Assert.assertEquals(0, throttle.reserve());
+        Assert.assertEquals(0, throttle.reserve());
+
+        // every task over the rate gets its own slot, 100ms after the previous one
+        final long start = System.nanoTime();
+        long previous = 0;
+        for (int i = 0; i < 5; i++) {
+            final long delay = throttle.reserve();
+            Assert.assertTrue("Delay " + delay + " after " + previous, delay > previous);
+            Assert.assertTrue("Delay " + delay, delay <= 100 * (i + 1));
+            previous = delay;
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Delay " + previous + " after " + elapsed + " ms", previous >= 500 - elapsed - 1);
+    }
+
+    @Test
+    public void testUnlimitedRate() throws Exception {
+        final QueueThrottle throttle = new QueueThrottle(new QueueSettings.Limits(0, 1, 0));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(0, throttle.reserve());
+        }
+    }
+
+    @Test
+    public void testParkAndHandOver() throws Exception {
+        final QueueThrottle throttle = new QueueThrottle(new QueueSettings.Limits(0, 1, 2));
+        final Runnable first = newTask();
+        final Runnable second = newTask();
+        final Runnable third = newTask();
+        final Runnable fourth = newTask();
+        Assert.assertTrue(throttle.acquire(first));
+        Assert.assertTrue(throttle.acquire(second));
+        Assert.assertFalse(throttle.acquire(third));
+        Assert.assertFalse(throttle.acquire(fourth));
+
+        Assert.assertSame(third, throttle.release());
+        Assert.assertSame(fourth, throttle.release());
+        Assert.assertNull(throttle.release());
+        Assert.assertNull(throttle.release());
+
+        // all permits are free again
+        Assert.assertTrue(throttle.acquire(first));
+        Assert.assertTrue(throttle.acquire(second));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        final QueueThrottle throttle = new QueueThrottle(new QueueSettings.Limits(0, 1, 1));
+        final Runnable parked = newTask();
+        Assert.assertTrue(throttle.acquire(newTask()));
+        Assert.assertFalse(throttle.acquire(parked));
+        Assert.assertEquals(Arrays.asList(parked), throttle.clear());
+        Assert.assertNull(throttle.release());
+    }
+
+    @Test(timeout = 5000)
+    public void testBlockingAcquire() throws Exception {
+        final QueueThrottle throttle = new QueueThrottle(new QueueSettings.Limits(0, 1, 1));
+        throttle.acquire();
+        final Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    throttle.acquire();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(200);
+        Assert.assertTrue(waiter.isAlive());
+
+        Assert.assertNull(throttle.release());
+        waiter.join();
+        Assert.assertFalse(throttle.acquire(newTask()));
+    }
+
+    private static Runnable newTask() {
+        return new Runnable() {
+            public void run() {
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package org.jboss.as.capedwarf.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class RetryPolicyTest {
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    @Test
+    public void testDefault() {
+        Assert.assertSame(RetryPolicy.DEFAULT, RetryPolicy.create(null, null, null, null, null));
+        Assert.assertEquals(100, RetryPolicy.DEFAULT.getDelay(1));
+        Assert.assertEquals(200, RetryPolicy.DEFAULT.getDelay(2));
+        Assert.assertEquals(400, RetryPolicy.DEFAULT.getDelay(3));
+        Assert.assertEquals(3600 * SECOND, RetryPolicy.DEFAULT.getDelay(100));
+        Assert.assertTrue(RetryPolicy.DEFAULT.canRetry(1000, System.currentTimeMillis() - 365L * 24 * 60 * MINUTE));
+    }
+
+    @Test
+    public void testBackoff() {
+        final RetryPolicy policy = RetryPolicy.create(null, null, "1", "10", "2");
+        Assert.assertEquals(SECOND, policy.getDelay(0));
+        Assert.assertEquals(SECOND, policy.getDelay(1));
+        Assert.assertEquals(2 * SECOND, policy.getDelay(2));
+        Assert.assertEquals(4 * SECOND, policy.getDelay(3));
+        // linear after max doublings
+        Assert.assertEquals(8 * SECOND, policy.getDelay(4));
+        // capped by max backoff
+        Assert.assertEquals(10 * SECOND, policy.getDelay(5));
+        Assert.assertEquals(10 * SECOND, policy.getDelay(50));
+    }
+
+    @Test
+    public void testMaxBackoffBelowMinBackoff() {
+        final RetryPolicy policy = RetryPolicy.create(null, null, 5, 1, null);
+        Assert.assertEquals(5 * SECOND, policy.getDelay(1));
+        Assert.assertEquals(5 * SECOND, policy.getDelay(3));
+    }
+
+    @Test
+    public void testRetryLimit() {
+        final RetryPolicy policy = RetryPolicy.create("3", null, null, null, null);
+        final long now = System.currentTimeMillis();
+        Assert.assertTrue(policy.canRetry(1, now));
+        Assert.assertTrue(policy.canRetry(3, now));
+        Assert.assertFalse(policy.canRetry(4, now));
+    }
+
+    @Test
+    public void testAgeLimit() {
+        final long now = System.currentTimeMillis();
+        final RetryPolicy minutes = RetryPolicy.create(null, "10m", null, null, null);
+        Assert.assertTrue(minutes.canRetry(100, now - 5 * MINUTE));
+        Assert.assertFalse(minutes.canRetry(1, now - 11 * MINUTE));
+
+        final RetryPolicy seconds = RetryPolicy.create(null, "30s", null, null, null);
+        Assert.assertTrue(seconds.canRetry(1, now - 20 * SECOND));
+        Assert.assertFalse(seconds.canRetry(1, now - 40 * SECOND));
+
+        final RetryPolicy plain = RetryPolicy.create(null, "90", null, null, null);
+        Assert.assertTrue(plain.canRetry(1, now - 60 * SECOND));
+        Assert.assertFalse(plain.canRetry(1, now - 120 * SECOND));
+
+        final RetryPolicy days = RetryPolicy.create(null, "2d", null, null, null);
+        Assert.assertTrue(days.canRetry(1, now - 47 * 60 * MINUTE));
+        Assert.assertFalse(days.canRetry(1, now - 49 * 60 * MINUTE));
+    }
+
+    @Test
+    public void testBothLimits() {
+        final long now = System.currentTimeMillis();
+        final RetryPolicy policy = RetryPolicy.create(3, "1h", null, null, null);
+        // retried until both limits are reached
+        Assert.assertTrue(policy.canRetry(10, now));
+        Assert.assertTrue(policy.canRetry(2, now - 2 * 60 * MINUTE));
+        Assert.assertFalse(policy.canRetry(4, now - 2 * 60 * MINUTE));
+    }
+
+    @Test
+    public void testInvalidValues() {
+        final RetryPolicy policy = RetryPolicy.create("x", "y", "z", null, null);
+        Assert.assertTrue(policy.canRetry(1000, 0));
+        Assert.assertEquals(100, policy.getDelay(1));
+    }
+}
@@ -0,0 +1,83 @@
+package org.jboss.as.capedwarf.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TaskMetricsTest {
+    private static final double DELTA = 1e-9;
+
+    private final TaskMetrics metrics = TaskMetrics.getInstance();
+    private final String appId = "task-metrics-test-" + System.nanoTime();
+
+    @After
+    public void clear() {
+        TaskMetrics.clear(appId);
+    }
+
+    @Test
+    public void testCounters() {
+        final long first = metrics.start(appId);
+        final long second = metrics.start(appId);
+        Assert.assertEquals(2, stats().getInFlight());
+        metrics.finish(appId, first, true);
+        metrics.finish(appId, second, false);
+        metrics.skipped(appId);
+
+        Assert.assertEquals(0, stats().getInFlight());
+        Assert.assertEquals(1, stats().getDispatched());
+        Assert.assertEquals(1, stats().getFailed());
+        Assert.assertEquals(1, stats().getSkipped());
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        metrics.skipped(appId);
+        Assert.assertEquals(0, stats().getLatency(0.5), DELTA);
+    }
+
+    @Test
+    public void testPercentiles() {
+        // 90 tasks in the [512, 1024) micros bucket, 10 in the [4096, 8192) one
+        for (int i = 0; i < 90; i++) {
+            finish(520);
+        }
+        for (int i = 0; i < 10; i++) {
+            finish(4200);
+        }
+        // latency is reported as the bucket's upper bound, in millis
+        Assert.assertEquals(1.024, stats().getLatency(0.5), DELTA);
+        Assert.assertEquals(1.024, stats().getLatency(0.9), DELTA);
+        Assert.assertEquals(8.192, stats().getLatency(0.95), DELTA);
+        Assert.assertEquals(8.192, stats().getLatency(1.0), DELTA);
+    }
+
+    @Test
+    public void testTotal() {
+        final long before = metrics.getTotal().getDispatched();
+        finish(10);
+        Assert.assertEquals(before + 1, metrics.getTotal().getDispatched());
+    }
+
+    @Test
+    public void testClear() {
+        finish(10);
+        Assert.assertNotNull(metrics.getApps().get(appId));
+        TaskMetrics.clear(appId);
+        Assert.assertNull(metrics.getApps().get(appId));
+    }
+
+    private void finish(long micros) {
+        metrics.start(appId);
+        metrics.finish(appId, System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(micros), true);
+    }
+
+    private TaskMetrics.Stats stats() {
+        return metrics.getApps().get(appId);
+    }
+}
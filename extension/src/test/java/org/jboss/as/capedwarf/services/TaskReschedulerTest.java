@@ -0,0 +1,66 @@
+package org.jboss.as.capedwarf.services;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Message;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TaskReschedulerTest {
+    @Test
+    public void testFirstAttemptFromTimestamp() throws Exception {
+        Assert.assertEquals(1000L, TaskRescheduler.getFirstAttempt(newMessage(1000L)));
+    }
+
+    @Test
+    public void testFirstAttemptFromProperty() throws Exception {
+        final Message message = newMessage(1000L);
+        message.setLongProperty(TaskRescheduler.FIRST_ATTEMPT, 500L);
+        Assert.assertEquals(500L, TaskRescheduler.getFirstAttempt(message));
+    }
+
+    @Test
+    public void testFirstAttemptWithoutTimestamp() throws Exception {
+        // in-VM messages are never sent, so they have no timestamp
+        final long before = System.currentTimeMillis();
+        final long first = TaskRescheduler.getFirstAttempt(newMessage(0L));
+        Assert.assertTrue(first >= before);
+        Assert.assertTrue(first <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testRescheduleCount() throws Exception {
+        final Message message = newMessage(0L);
+        Assert.assertEquals(0, TaskRescheduler.getRescheduleCount(message));
+        message.setIntProperty(TaskRescheduler.RESCHEDULE_COUNT, 3);
+        Assert.assertEquals(3, TaskRescheduler.getRescheduleCount(message));
+    }
+
+    private static Message newMessage(final long timestamp) {
+        final Map<String, Object> properties = new HashMap<>();
+        return (Message) Proxy.newProxyInstance(TaskReschedulerTest.class.getClassLoader(), new Class[]{Message.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if (name.equals("getJMSTimestamp")) {
+                    return timestamp;
+                } else if (name.equals("propertyExists")) {
+                    return properties.containsKey(args[0]);
+                } else if (name.startsWith("set") && name.endsWith("Property")) {
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                } else if (name.startsWith("get") && name.endsWith("Property")) {
+                    return properties.get(args[0]);
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+}
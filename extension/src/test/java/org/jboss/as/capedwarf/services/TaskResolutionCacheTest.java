@@ -0,0 +1,51 @@
+package org.jboss.as.capedwarf.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ales.justin@jboss.org">Ales Justin</a>
+ */
+public class TaskResolutionCacheTest {
+    private static final String MODULE = "deployment.app.war:main";
+
+    @Test
+    public void testKeyedByModuleAndFactory() throws Exception {
+        final TaskResolutionCache cache = new TaskResolutionCache();
+        final TaskResolutionCache.Entry tasks = newEntry("app", "TaskFactory");
+        final TaskResolutionCache.Entry mail = newEntry("app", "MailFactory");
+        Assert.assertTrue(cache.put(MODULE, tasks, cache.getGeneration()));
+        Assert.assertTrue(cache.put(MODULE, mail, cache.getGeneration()));
+
+        // both creators of the module stay cached
+        Assert.assertSame(tasks, cache.get(MODULE, "app", "default", "TaskFactory"));
+        Assert.assertSame(mail, cache.get(MODULE, "app", "default", "MailFactory"));
+        Assert.assertNull(cache.get(MODULE, "other", "default", "TaskFactory"));
+        Assert.assertNull(cache.get(MODULE, "app", "other", "TaskFactory"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final TaskResolutionCache cache = new TaskResolutionCache();
+        cache.put(MODULE, newEntry("app", "TaskFactory"), cache.getGeneration());
+        TaskResolutionCache.invalidate("app");
+        Assert.assertNull(cache.get(MODULE, "app", "default", "TaskFactory"));
+    }
+
+    @Test
+    public void testNoPutAfterInvalidate() throws Exception {
+        final TaskResolutionCache cache = new TaskResolutionCache();
+        // resolve started, then the app is undeployed
+        final long generation = cache.getGeneration();
+        TaskResolutionCache.invalidate("app");
+        Assert.assertFalse(cache.put(MODULE, newEntry("app", "TaskFactory"), generation));
+        Assert.assertNull(cache.get(MODULE, "app", "default", "TaskFactory"));
+
+        // a resolve started after it is cached again
+        Assert.assertTrue(cache.put(MODULE, newEntry("app", "TaskFactory"), cache.getGeneration()));
+    }
+
+    private static TaskResolutionCache.Entry newEntry(String appId, String factoryClass) {
+        return new TaskResolutionCache.Entry(appId, "default", factoryClass, null, null, null, null);
+    }
+}